@@ -0,0 +1,484 @@
+/*
+ ERHighcharts headless rendering environment.
+
+ A minimal browser DOM and Highcharts adapter, just enough for Highcharts to draw a
+ chart to SVG without a browser. Loaded once into each pooled scripting scope by
+ er.highcharts.control.ERHighchartsHeadlessRenderer, before highcharts.js.
+
+ Text is not laid out: text boxes are estimated from the font size and the number of
+ characters, which is close enough for axis labels, titles and legends.
+*/
+var window = this;
+
+var navigator = { userAgent: "ERHighcharts Headless" };
+
+var location = { href: "" };
+
+(function(){
+	var SVG_NS = "http://www.w3.org/2000/svg";
+
+	/* Timers are queued and run, without delay, when the render is flushed. */
+	var timers = [];
+	var timerId = 0;
+
+	window.setTimeout = function(fn){
+		timers.push({ id: ++timerId, fn: fn });
+		return timerId;
+	};
+	window.setInterval = function(){
+		return ++timerId;
+	};
+	window.clearTimeout = function(id){
+		for (var i = timers.length; i--;) {
+			if (timers[i].id === id) {
+				timers.splice(i, 1);
+			}
+		}
+	};
+	window.clearInterval = function(){};
+
+	function flushTimers(){
+		for (var n = 0; timers.length && n < 1000; n++) {
+			var timer = timers.shift();
+			if (typeof timer.fn === "function") {
+				timer.fn();
+			}
+		}
+		timers = [];
+	}
+
+	function escapeXML(value){
+		return String(value).replace(/&/g, "&amp;").replace(/</g, "&lt;").replace(/>/g, "&gt;").replace(/"/g, "&quot;");
+	}
+
+	/* Nodes */
+
+	function Node(){}
+
+	Node.prototype = {
+		parentNode: null,
+		firstChild: null,
+		lastChild: null,
+		nextSibling: null,
+		previousSibling: null,
+
+		_linkChildren: function(){
+			var children = this.childNodes, length = children.length, i;
+			this.firstChild = length ? children[0] : null;
+			this.lastChild = length ? children[length - 1] : null;
+			for (i = 0; i < length; i++) {
+				children[i].parentNode = this;
+				children[i].previousSibling = i ? children[i - 1] : null;
+				children[i].nextSibling = i < length - 1 ? children[i + 1] : null;
+			}
+		},
+
+		appendChild: function(child){
+			return this.insertBefore(child, null);
+		},
+
+		insertBefore: function(child, reference){
+			if (child.parentNode) {
+				child.parentNode.removeChild(child);
+			}
+			var index = reference ? this._indexOf(reference) : -1;
+			if (index < 0) {
+				this.childNodes.push(child);
+			} else {
+				this.childNodes.splice(index, 0, child);
+			}
+			this._linkChildren();
+			return child;
+		},
+
+		removeChild: function(child){
+			var index = this._indexOf(child);
+			if (index >= 0) {
+				this.childNodes.splice(index, 1);
+				child.parentNode = child.nextSibling = child.previousSibling = null;
+				this._linkChildren();
+			}
+			return child;
+		},
+
+		replaceChild: function(child, old){
+			this.insertBefore(child, old);
+			return this.removeChild(old);
+		},
+
+		_indexOf: function(child){
+			for (var i = 0; i < this.childNodes.length; i++) {
+				if (this.childNodes[i] === child) {
+					return i;
+				}
+			}
+			return -1;
+		},
+
+		addEventListener: function(){},
+		removeEventListener: function(){},
+		attachEvent: function(){},
+		detachEvent: function(){}
+	};
+
+	function TextNode(text){
+		this.nodeValue = this.data = String(text);
+		this.childNodes = [];
+	}
+
+	TextNode.prototype = new Node();
+	TextNode.prototype.nodeType = 3;
+	TextNode.prototype.nodeName = "#text";
+	TextNode.prototype.cloneNode = function(){
+		return new TextNode(this.nodeValue);
+	};
+	TextNode.prototype.toXML = function(){
+		return escapeXML(this.nodeValue);
+	};
+
+	function Element(namespaceURI, name){
+		this.namespaceURI = namespaceURI;
+		this.nodeName = this.tagName = namespaceURI === SVG_NS ? name : name.toUpperCase();
+		this.childNodes = [];
+		this._attributes = {};
+		this._attributeNames = [];
+		this.style = {};
+	}
+
+	Element.prototype = new Node();
+	Element.prototype.nodeType = 1;
+	Element.prototype.offsetLeft = 0;
+	Element.prototype.offsetTop = 0;
+
+	Element.prototype.setAttribute = function(name, value){
+		if (!this._attributes.hasOwnProperty(name)) {
+			this._attributeNames.push(name);
+		}
+		this._attributes[name] = String(value);
+	};
+
+	Element.prototype.getAttribute = function(name){
+		return this._attributes.hasOwnProperty(name) ? this._attributes[name] : null;
+	};
+
+	Element.prototype.removeAttribute = function(name){
+		if (this._attributes.hasOwnProperty(name)) {
+			delete this._attributes[name];
+			for (var i = this._attributeNames.length; i--;) {
+				if (this._attributeNames[i] === name) {
+					this._attributeNames.splice(i, 1);
+				}
+			}
+		}
+	};
+
+	Element.prototype.cloneNode = function(deep){
+		var clone = new Element(this.namespaceURI, this.nodeName), i;
+		for (i = 0; i < this._attributeNames.length; i++) {
+			clone.setAttribute(this._attributeNames[i], this._attributes[this._attributeNames[i]]);
+		}
+		for (i in this.style) {
+			clone.style[i] = this.style[i];
+		}
+		if (deep) {
+			for (i = 0; i < this.childNodes.length; i++) {
+				clone.appendChild(this.childNodes[i].cloneNode(true));
+			}
+		}
+		return clone;
+	};
+
+	Element.prototype.getElementsByTagName = function(name){
+		var found = [], i, child;
+		for (i = 0; i < this.childNodes.length; i++) {
+			child = this.childNodes[i];
+			if (child.nodeType === 1) {
+				if (name === "*" || child.nodeName.toLowerCase() === name.toLowerCase()) {
+					found.push(child);
+				}
+				found = found.concat(child.getElementsByTagName(name));
+			}
+		}
+		return found;
+	};
+
+	Element.prototype.createSVGRect = function(){
+		return { x: 0, y: 0, width: 0, height: 0 };
+	};
+
+	Element.prototype.getBoundingClientRect = function(){
+		return { left: 0, top: 0, right: this.offsetWidth || 0, bottom: this.offsetHeight || 0 };
+	};
+
+	Element.prototype._text = function(){
+		var text = "", i, child;
+		for (i = 0; i < this.childNodes.length; i++) {
+			child = this.childNodes[i];
+			text += child.nodeType === 3 ? child.nodeValue : child._text();
+		}
+		return text;
+	};
+
+	/* The font size of the element, from its own or an inherited style. */
+	Element.prototype._fontSize = function(){
+		var node = this, match;
+		while (node && node.nodeType === 1) {
+			match = /font-size:\s*([\d.]+)/.exec(node.getAttribute("style") || "");
+			if (match) {
+				return parseFloat(match[1]);
+			}
+			if (node.style.fontSize) {
+				return parseFloat(node.style.fontSize);
+			}
+			node = node.parentNode;
+		}
+		return 12;
+	};
+
+	/* Estimated text width: an average glyph is a little over half the font size wide. */
+	Element.prototype.getComputedTextLength = function(){
+		return this._text().length * this._fontSize() * 0.55;
+	};
+
+	Element.prototype.getBBox = function(){
+		var name = this.nodeName, x, y, width, height, i, box, right, bottom;
+		if (name === "text" || name === "tspan") {
+			var lines = 0, longest = 0, size = this._fontSize(), text;
+			for (i = 0; i < this.childNodes.length; i++) {
+				if (this.childNodes[i].nodeName === "tspan" && this.childNodes[i].getAttribute("dy") !== null) {
+					lines++;
+				}
+			}
+			lines = Math.max(lines, 1);
+			text = this._text();
+			longest = lines > 1 ? text.length / lines : text.length;
+			width = longest * size * 0.55;
+			height = lines * size * 1.2;
+			x = parseFloat(this.getAttribute("x")) || 0;
+			y = (parseFloat(this.getAttribute("y")) || 0) - size;
+			if (this.getAttribute("text-anchor") === "middle") {
+				x -= width / 2;
+			} else if (this.getAttribute("text-anchor") === "end") {
+				x -= width;
+			}
+			return { x: x, y: y, width: width, height: height };
+		}
+		if (name === "rect" || name === "image") {
+			return {
+				x: parseFloat(this.getAttribute("x")) || 0,
+				y: parseFloat(this.getAttribute("y")) || 0,
+				width: parseFloat(this.getAttribute("width")) || 0,
+				height: parseFloat(this.getAttribute("height")) || 0
+			};
+		}
+		if (name === "circle") {
+			var r = parseFloat(this.getAttribute("r")) || 0;
+			return { x: (parseFloat(this.getAttribute("cx")) || 0) - r, y: (parseFloat(this.getAttribute("cy")) || 0) - r, width: 2 * r, height: 2 * r };
+		}
+		if (name === "path") {
+			var numbers = (this.getAttribute("d") || "").match(/-?[\d.]+(e-?\d+)?/g) || [];
+			if (numbers.length < 2) {
+				return { x: 0, y: 0, width: 0, height: 0 };
+			}
+			x = y = Infinity;
+			right = bottom = -Infinity;
+			for (i = 0; i + 1 < numbers.length; i += 2) {
+				x = Math.min(x, +numbers[i]);
+				right = Math.max(right, +numbers[i]);
+				y = Math.min(y, +numbers[i + 1]);
+				bottom = Math.max(bottom, +numbers[i + 1]);
+			}
+			return { x: x, y: y, width: right - x, height: bottom - y };
+		}
+		/* groups and other containers: the union of their children */
+		x = y = Infinity;
+		right = bottom = -Infinity;
+		for (i = 0; i < this.childNodes.length; i++) {
+			if (this.childNodes[i].nodeType === 1) {
+				box = this.childNodes[i].getBBox();
+				if (box.width || box.height) {
+					x = Math.min(x, box.x);
+					y = Math.min(y, box.y);
+					right = Math.max(right, box.x + box.width);
+					bottom = Math.max(bottom, box.y + box.height);
+				}
+			}
+		}
+		if (x === Infinity) {
+			return { x: 0, y: 0, width: 0, height: 0 };
+		}
+		return { x: x, y: y, width: right - x, height: bottom - y };
+	};
+
+	/* Attributes Highcharts uses internally, which are not SVG, as removed by Chart.getSVG() */
+	var INTERNAL_ATTRIBUTES = { zIndex: true, isShadow: true, isTracker: true, symbolName: true };
+
+	Element.prototype.toXML = function(){
+		var xml = ["<", this.nodeName], i, name;
+		if (this.nodeName === "svg") {
+			xml.push(' xmlns="', SVG_NS, '" xmlns:xlink="http://www.w3.org/1999/xlink"');
+		}
+		for (i = 0; i < this._attributeNames.length; i++) {
+			name = this._attributeNames[i];
+			if (!INTERNAL_ATTRIBUTES[name] && name !== "xmlns") {
+				xml.push(" ", name === "href" ? "xlink:href" : name, '="', escapeXML(this._attributes[name]), '"');
+			}
+		}
+		if (!this.childNodes.length) {
+			xml.push("/>");
+		} else {
+			xml.push(">");
+			for (i = 0; i < this.childNodes.length; i++) {
+				xml.push(this.childNodes[i].toXML());
+			}
+			xml.push("</", this.nodeName, ">");
+		}
+		return xml.join("");
+	};
+
+	/* The document */
+
+	var document = window.document = new Element(null, "#document");
+	document.nodeType = 9;
+	document.readyState = "complete";
+	document.createElement = function(name){
+		return new Element(null, name);
+	};
+	document.createElementNS = function(namespaceURI, name){
+		return new Element(namespaceURI, name);
+	};
+	document.createTextNode = function(text){
+		return new TextNode(text);
+	};
+	document.getElementById = function(id){
+		var all = document.getElementsByTagName("*"), i;
+		for (i = 0; i < all.length; i++) {
+			if (all[i].getAttribute("id") === id || all[i].id === id) {
+				return all[i];
+			}
+		}
+		return null;
+	};
+	document.documentElement = document.appendChild(document.createElement("html"));
+	document.body = document.documentElement.appendChild(document.createElement("body"));
+
+	window.getComputedStyle = function(element){
+		return {
+			getPropertyValue: function(property){
+				return property === "line-height" ? String(Math.round(element._fontSize() * 1.2)) : "";
+			}
+		};
+	};
+
+	/* The Highcharts adapter, without animation or events. */
+
+	window.HighchartsAdapter = {
+		init: function(){},
+		each: function(array, fn){
+			for (var i = 0, length = array.length; i < length; i++) {
+				if (fn.call(array[i], array[i], i, array) === false) {
+					return i;
+				}
+			}
+		},
+		grep: function(array, fn){
+			var found = [];
+			for (var i = 0, length = array.length; i < length; i++) {
+				if (fn(array[i], i)) {
+					found.push(array[i]);
+				}
+			}
+			return found;
+		},
+		map: function(array, fn){
+			var mapped = [];
+			for (var i = 0, length = array.length; i < length; i++) {
+				mapped[i] = fn.call(array[i], array[i], i, array);
+			}
+			return mapped;
+		},
+		merge: function(){
+			function merge(target, source){
+				var key, value;
+				for (key in source) {
+					value = source[key];
+					target[key] = value && typeof value === "object" && value.constructor !== Array && typeof value.nodeType !== "number" ?
+						merge(target[key] || {}, value) : source[key];
+				}
+				return target;
+			}
+			var merged = {};
+			for (var i = 0; i < arguments.length; i++) {
+				merged = merge(merged, arguments[i]);
+			}
+			return merged;
+		},
+		addEvent: function(){},
+		removeEvent: function(){},
+		fireEvent: function(element, type, event, defaultFunction){
+			event = event || {};
+			if (defaultFunction && !event.defaultPrevented) {
+				defaultFunction(event);
+			}
+		},
+		animate: function(element, params){
+			for (var key in params) {
+				if (element.attr) {
+					element.attr(key, params[key]);
+				} else {
+					element.style[key] = params[key];
+				}
+			}
+		},
+		stop: function(){}
+	};
+
+	/*
+	 Renders the chart options, a JavaScript object literal as written by the
+	 ERHighchartsSerialization engine, and answers the SVG document.
+	 */
+	window.erhighchartsRender = function(optionsSource, width, height){
+		var options = eval("(" + optionsSource + ")"), container, chart, svg;
+
+		options.chart = options.chart || {};
+		options.chart.renderTo = container = document.createElement("div");
+		options.chart.forExport = true;
+		options.chart.animation = false;
+		if (width) {
+			options.chart.width = width;
+		}
+		if (height) {
+			options.chart.height = height;
+		}
+		options.exporting = options.exporting || {};
+		options.exporting.enabled = false;
+		options.credits = options.credits || {};
+		options.plotOptions = options.plotOptions || {};
+		options.plotOptions.series = options.plotOptions.series || {};
+		options.plotOptions.series.animation = false;
+		options.plotOptions.series.enableMouseTracking = false;
+
+		container.style.width = (options.chart.width || 600) + "px";
+		container.offsetWidth = options.chart.width || 600;
+		container.offsetHeight = options.chart.height || 400;
+		document.body.appendChild(container);
+
+		try {
+			chart = new Highcharts.Chart(options);
+			flushTimers();
+			svg = container.getElementsByTagName("svg")[0];
+			return svg ? svg.toXML() : null;
+		} finally {
+			if (chart && chart.destroy) {
+				try {
+					chart.destroy();
+				} catch (e) {
+					/* the chart is discarded with the container */
+				}
+			}
+			flushTimers();
+			document.body.childNodes = [];
+			document.body._linkChildren();
+		}
+	};
+})();
@@ -9,14 +9,19 @@ import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 
 import com.webobjects.appserver.WOContext;
+import com.webobjects.eocontrol.EOEnterpriseObject;
 import com.webobjects.foundation.NSArray;
 import com.webobjects.foundation.NSDictionary;
+import com.webobjects.foundation.NSKeyValueCoding;
 import com.webobjects.foundation.NSKeyValueCodingAdditions;
 
 import er.extensions.components.ERXComponent;
 import er.extensions.foundation.ERXProperties;
 import er.extensions.foundation.ERXStringUtilities;
+import er.highcharts.model.ERHighchartsPointData;
+import er.highcharts.model.ERHighchartsSeriesData;
 import er.highcharts.model.KVCAExtensionGraph;
+import er.highcharts.model.KVCAKeyPath;
 
 /**
  * This class acts as the parent class to the main {@code ERHighchart} chart component
@@ -24,6 +29,9 @@ import er.highcharts.model.KVCAExtensionGraph;
  * 
  * @property er.highcharts.exporting.defaultDatePattern
  *           (String) The date format used when Charts call the {@code dateStamp} method
+ * @property er.highcharts.series.maxPoints
+ *           (int) The default maximum number of points per series for charts which support 
+ *           downsampling, when the {@code maxPoints} binding is not set. Defaults to 0, all points.
  *           
  * @author matt
  *
@@ -81,6 +89,16 @@ public abstract class ERHighchartComponent extends ERXComponent {
 	protected static final String SERIES_DATA_KEYPATH_BINDING = "seriesDataKeyPath";
 
 
+	/**
+	 * Binding for the maximum number of points per series
+	 */
+	protected static final String MAX_POINTS_BINDING = "maxPoints";
+
+	/**
+	 * Property for the default maximum number of points per series.
+	 */
+	private static final String MAX_POINTS_PROPERTY = "er.highcharts.series.maxPoints";
+
 	/**
 	 * Property for the date format used in {@code dateStamp}.
 	 */
@@ -126,6 +144,28 @@ public abstract class ERHighchartComponent extends ERXComponent {
 		return (KVCAExtensionGraph)valueForBinding(GRAPH_BINDING);
 	}
 
+	/**
+	 * The <code>series</code> of the chart alone, built without the rest of its options: 
+	 * those of the bound graph, which override any others, or those built from the bound 
+	 * series objects. Used to refresh the series of a chart on the page.
+	 * @return
+	 */
+	public Object chartSeries(){
+		KVCAExtensionGraph bound = boundGraph();
+		if(bound != null && bound.valueForKey("series") != null){
+			return bound.valueForKey("series");
+		}
+		return buildSeries(new KVCAExtensionGraph()).valueForKey("series");
+	}
+
+	/**
+	 * The bound series objects, if any.
+	 * @return
+	 */
+	public List<?> seriesObjects(){
+		return (List<?>)valueForBinding(SERIES_BINDING);
+	}
+
 	/**
 	 * A simple String representing the current date time.
 	 * To modify its format, alter the Property
@@ -165,44 +205,39 @@ public abstract class ERHighchartComponent extends ERXComponent {
 
 		if (objectArray != null) {
 			NSDictionary<String, String> mappings = (NSDictionary<String, String>) valueForBinding(MAPPINGS_BINDING);
+			int maxPoints = allowsDownsampling() ? maxPoints() : 0;
 			// build the series.
 			List<Object> seriesList = new ArrayList<Object>();
 
+			// resolve the key paths once for all the series objects.
+			KVCAKeyPath namePath = mappedKeyPath("name", mappings, seriesNameKeyPath);
+			KVCAKeyPath dataPath = mappedKeyPath("data", mappings, seriesDataKeyPath);
+			OptionalKeyPath pointStartPath = new OptionalKeyPath(mappedKeyPath("pointStart", mappings, null));
+			OptionalKeyPath pointIntervalPath = new OptionalKeyPath(mappedKeyPath("pointInterval", mappings, null));
+			OptionalKeyPath typePath = new OptionalKeyPath(mappedKeyPath("type", mappings, null));
+
 			for (NSKeyValueCodingAdditions obj : objectArray) {
 
 				KVCAExtensionGraph series = new KVCAExtensionGraph();
 
-				String namePath = "name";
-				if (mappings != null && mappings.get("name") != null) {
-					namePath = mappings.get("name");
-				}else if (!ERXStringUtilities.stringIsNullOrEmpty(seriesNameKeyPath)){
-					namePath = seriesNameKeyPath;
-				}
-				series.takeValueForKeyPath(obj.valueForKeyPath(namePath), "name");
-
-				String dataPath = "data";
-				if (mappings != null && mappings.get("data") != null) {
-					dataPath = mappings.get("data");
-				}else if (!ERXStringUtilities.stringIsNullOrEmpty(seriesDataKeyPath)){
-					dataPath = seriesDataKeyPath;
-				}
-				series.takeValueForKeyPath(obj.valueForKeyPath(dataPath), "data");
-				seriesList.add(series);
-				
+				series.takeValueForKey(namePath.valueForObject(obj), "name");
 
-				Object ps = keyPathForBoundName("pointStart", mappings, obj);
+				Object ps = pointStartPath.valueForObject(obj);
 				if(ps !=null){
-					series.takeValueForKeyPath(ps, "pointStart");					
+					series.takeValueForKey(ps, "pointStart");					
 				}
 
-				Object pi = keyPathForBoundName("pointInterval", mappings, obj);
+				Object pi = pointIntervalPath.valueForObject(obj);
 				if(pi !=null ){
-					series.takeValueForKeyPath(pi, "pointInterval");					
+					series.takeValueForKey(pi, "pointInterval");					
 				}
+
+				series.takeValueForKey(seriesData(dataPath.valueForObject(obj), ps, pi, maxPoints), "data");
+				seriesList.add(series);
 	
-				Object type = keyPathForBoundName("type", mappings, obj);
+				Object type = typePath.valueForObject(obj);
 				if(type != null){
-					series.takeValueForKeyPath(type, "type");					
+					series.takeValueForKey(type, "type");					
 				}
 
 			}
@@ -212,29 +247,144 @@ public abstract class ERHighchartComponent extends ERXComponent {
 	}
 	
 	/**
-	 * Safely tries to add values to the graph from either mappings or standard vfkp.
-	 * @param name
-	 * @param mappings
-	 * @param obj
+	 * The series data value to put in the graph. Primitive {@code double[]} values and
+	 * {@code ERHighchartsSeriesData} are kept in (or wrapped as) {@code ERHighchartsSeriesData},
+	 * which serializes without boxing each point.
+	 * 
+	 * When {@code maxPoints} is positive, numeric series with more points are downsampled 
+	 * (see {@link ERHighchartsSeriesData#downsample(int)}). Y value only series are given 
+	 * x values from the point start and interval first, so they keep their positions.
+	 * Lists of simple point graphs are sent in the compact array form by charts which
+	 * use compact points. Anything else is used as is.
+	 * 
+	 * @param data the value from the series object's data key path
+	 * @param pointStart the series <code>pointStart</code>, if any
+	 * @param pointInterval the series <code>pointInterval</code>, if any
+	 * @param maxPoints the maximum number of points to send, or 0 for all points
 	 * @return
 	 */
-	private Object keyPathForBoundName(String name, NSDictionary<String, String> mappings, NSKeyValueCodingAdditions obj){
-		if(ERXStringUtilities.stringIsNullOrEmpty(name)){
-			return null;
+	protected Object seriesData(Object data, Object pointStart, Object pointInterval, int maxPoints){
+		if(maxPoints > 0){
+			ERHighchartsSeriesData seriesData = ERHighchartsSeriesData.seriesDataFromObject(data);
+			if(seriesData != null && seriesData.size() > maxPoints){
+				Number start = pointStart instanceof Number ? (Number)pointStart : null;
+				Number interval = pointInterval instanceof Number ? (Number)pointInterval : null;
+				return downsample(seriesData.withPointInterval(start, interval), maxPoints);
+			}
 		}
-		try{
-			String namePath = name;
-			if (mappings != null && mappings.get(name) != null) {
-				namePath = mappings.get(name);
+		if(data instanceof double[]){
+			return new ERHighchartsSeriesData((double[])data);
+		}
+		if(usesCompactPoints()){
+			ERHighchartsPointData pointData = ERHighchartsPointData.pointDataFromObject(data);
+			if(pointData != null){
+				return pointData;
 			}
-			Object value = obj.valueForKeyPath(namePath);
-			return value;
-		}catch(Exception e){
-			if(log.isDebugEnabled()){
-				e.printStackTrace();				
+		}
+		return data;
+	}
+
+	/**
+	 * Reduces the series data to at most {@code maxPoints} points. The default keeps the
+	 * shape of a line through the points, which must be in x order, see 
+	 * {@link ERHighchartsSeriesData#downsample(int)}.
+	 * @param data the series data, with x values
+	 * @param maxPoints
+	 * @return
+	 */
+	protected ERHighchartsSeriesData downsample(ERHighchartsSeriesData data, int maxPoints){
+		return data.downsample(maxPoints);
+	}
+
+	/**
+	 * Whether point graphs with only a name (or x) and y value are sent in the compact
+	 * <code>[name, y]</code> array form, see {@code ERHighchartsPointData}. The default is false.
+	 * @return
+	 */
+	protected boolean usesCompactPoints(){
+		return false;
+	}
+
+	/**
+	 * Whether this chart type may downsample its series with the {@code maxPoints} binding.
+	 * Only meaningful for charts with a continuous x axis and points ordered by x; 
+	 * the default is false.
+	 * @return
+	 */
+	protected boolean allowsDownsampling(){
+		return false;
+	}
+
+	/**
+	 * The maximum number of points per series, from the {@code maxPoints} binding,
+	 * or the {@code er.highcharts.series.maxPoints} Property when unbound. 0 sends all points.
+	 * @return
+	 */
+	public int maxPoints(){
+		return intValueForBinding(MAX_POINTS_BINDING, ERXProperties.intForKeyWithDefault(MAX_POINTS_PROPERTY, 0));
+	}
+
+	/**
+	 * The key path to read from each series object for the named Highcharts value:
+	 * the key path mapped to the name in the mappings if present, else the bound key path
+	 * if not empty, else the name itself. Resolve these once, before iterating the series objects.
+	 * @param name the Highcharts point or series key, e.g. "name" or "y"
+	 * @param mappings the bound mappings, if any
+	 * @param boundKeyPath an alternative key path binding value, if any
+	 * @return
+	 */
+	protected KVCAKeyPath mappedKeyPath(String name, NSDictionary<String, String> mappings, String boundKeyPath){
+		if (mappings != null && mappings.get(name) != null) {
+			return KVCAKeyPath.keyPath(mappings.get(name));
+		}else if (!ERXStringUtilities.stringIsNullOrEmpty(boundKeyPath)){
+			return KVCAKeyPath.keyPath(boundKeyPath);
+		}
+		return KVCAKeyPath.keyPath(name);
+	}
+	
+	/**
+	 * An optional value of the series objects, such as <code>pointStart</code>, read safely.
+	 * 
+	 * Series objects without the key, such as EOs, make key value coding throw. Once an object
+	 * has no such key, objects of its entity (or class) are not asked again, so the key costs 
+	 * one exception per render rather than one per series object.
+	 */
+	protected static class OptionalKeyPath {
+		private final KVCAKeyPath _keyPath;
+		private Object _absentKind;
+
+		/**
+		 * Standard constructor
+		 * @param keyPath the resolved key path, see {@link ERHighchartComponent#mappedKeyPath(String, NSDictionary, String)}
+		 */
+		public OptionalKeyPath(KVCAKeyPath keyPath){
+			_keyPath = keyPath;
+		}
+
+		/**
+		 * The value for the object.
+		 * @param obj
+		 * @return the value, or null if the object has no such key.
+		 */
+		public Object valueForObject(Object obj){
+			if(obj == null){
+				return null;
 			}
+			Object kind = obj instanceof EOEnterpriseObject ? ((EOEnterpriseObject)obj).entityName() : obj.getClass();
+			if(kind.equals(_absentKind)){
+				return null;
+			}
+			try{
+				return _keyPath.valueForObject(obj);
+			}catch(NSKeyValueCoding.UnknownKeyException e){
+				_absentKind = kind;
+			}catch(RuntimeException e){
+				if(log.isDebugEnabled()){
+					log.debug("Unable to read " + _keyPath + " from " + obj, e);
+				}
+			}
+			return null;
 		}
-		return null;
 	}
 	
 	/**
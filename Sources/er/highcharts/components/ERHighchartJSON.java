@@ -0,0 +1,89 @@
+package er.highcharts.components;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import org.apache.log4j.Logger;
+
+import com.webobjects.appserver.WOAssociation;
+import com.webobjects.appserver.WOComponent;
+import com.webobjects.appserver.WOContext;
+import com.webobjects.appserver.WODynamicElement;
+import com.webobjects.appserver.WOElement;
+import com.webobjects.appserver.WOResponse;
+import com.webobjects.foundation.NSDictionary;
+
+import er.highcharts.control.ERHighchartsChartCache;
+import er.highcharts.control.ERHighchartsResponseWriter;
+import er.highcharts.control.ERHighchartsSerialization;
+import er.highcharts.model.KVCAExtensionGraph;
+
+/**
+ * Dynamic element which serializes a chart graph straight into the response.
+ * 
+ * This replaces a {@code WOString} bound to a pre-built JSON String: the JSON is
+ * generated once, directly over the response content, so no intermediate String of the
+ * whole document is created. This matters for charts with many thousands of points.
+ * 
+ * When {@code ERHighchartsChartCache} is enabled, graphs are looked up in (and added to) the
+ * cache instead, and the cached JSON is appended.
+ * 
+ * @binding value (Object) the graph (usually a {@code KVCAExtensionGraph}) to serialize.
+ * @binding seriesObjects (Collection) the objects the graph's series were built from, to tag 
+ *          the cached JSON with for invalidation.
+ * 
+ * @author matt
+ *
+ */
+public class ERHighchartJSON extends WODynamicElement {
+
+	/**
+	 * Standard Logger
+	 */
+	private static Logger log = Logger.getLogger(ERHighchartJSON.class);
+
+	/**
+	 * The value binding
+	 */
+	private final WOAssociation _value;
+
+	/**
+	 * The series objects binding
+	 */
+	private final WOAssociation _seriesObjects;
+
+	/**
+	 * Standard dynamic element constructor
+	 * @param name
+	 * @param associations
+	 * @param template
+	 */
+	public ERHighchartJSON(String name, NSDictionary<String, WOAssociation> associations, WOElement template) {
+		super(name, null, null);
+		_value = associations.objectForKey("value");
+		if(_value == null){
+			throw new IllegalArgumentException("ERHighchartJSON requires a 'value' binding.");
+		}
+		_seriesObjects = associations.objectForKey("seriesObjects");
+	}
+
+	/**
+	 * Write the JSON for the bound value to the response.
+	 */
+	@Override
+	public void appendToResponse(WOResponse response, WOContext context) {
+		WOComponent component = context.component();
+		Object value = _value.valueInComponent(component);
+		try {
+			if(value instanceof KVCAExtensionGraph && ERHighchartsChartCache.isEnabled()){
+				Collection<?> seriesObjects = _seriesObjects == null ? null : (Collection<?>)_seriesObjects.valueInComponent(component);
+				response.appendContentString(ERHighchartsChartCache.sharedInstance().jsonForGraph((KVCAExtensionGraph)value, seriesObjects));
+			}else{
+				ERHighchartsSerialization.sharedInstance().writeValue(new ERHighchartsResponseWriter(response), value);
+			}
+		} catch (IOException e) {
+			log.error("Unable to write the chart JSON to the response.", e);
+		}
+	}
+
+}
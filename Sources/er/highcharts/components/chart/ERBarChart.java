@@ -70,5 +70,13 @@ public class ERBarChart extends ERHighchartComponent {
 
 		return graph;
 	}
-	
+
+	/**
+	 * Point graphs with only a name and y value are sent as <code>[name, y]</code> arrays.
+	 */
+	@Override
+	protected boolean usesCompactPoints(){
+		return true;
+	}
+
 }
\ No newline at end of file
@@ -1,26 +1,32 @@
 package er.highcharts.components.chart;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.log4j.Logger;
 import org.codehaus.jackson.JsonGenerationException;
-import org.codehaus.jackson.JsonGenerator;
-import org.codehaus.jackson.Version;
 import org.codehaus.jackson.map.JsonMappingException;
-import org.codehaus.jackson.map.ObjectMapper;
-import org.codehaus.jackson.map.ObjectWriter;
-import org.codehaus.jackson.map.module.SimpleModule;
 
+import com.webobjects.appserver.WOActionResults;
 import com.webobjects.appserver.WOContext;
+import com.webobjects.appserver.WORequest;
 import com.webobjects.appserver.WOResponse;
 import com.webobjects.foundation.NSArray;
 
 import er.ajax.AjaxUtils;
+import er.extensions.foundation.ERXProperties;
 import er.extensions.foundation.ERXStringUtilities;
 import er.highcharts.components.ERHighchartComponent;
+import er.highcharts.control.ERHighchartsChartCache;
+import er.highcharts.control.ERHighchartsExportToken;
+import er.highcharts.control.ERHighchartsLiveRequestHandler;
+import er.highcharts.control.ERHighchartsResourceBundle;
+import er.highcharts.control.ERHighchartsResponseWriter;
 import er.highcharts.control.ERHighchartsRequestHandler;
-import er.highcharts.control.serializers.ERJodaDateTimeSerializer;
-import er.highcharts.control.serializers.ERNSTimestampSerializer;
+import er.highcharts.control.ERHighchartsSerialization;
+import er.highcharts.control.ERHighchartsTemplateRegistry;
+import er.highcharts.model.ERHighchartsLiveSeries;
 import er.highcharts.model.KVCAExtensionGraph;
 
 /**
@@ -30,6 +36,22 @@ import er.highcharts.model.KVCAExtensionGraph;
  * ERHighchart also takes care of the exporting, animation, and credit option values if they are not already set.
  * 
  * @binding graph (KVCAExtensionGraph) the graph containing all option values to be rendered.
+ * @binding refresh (int) the number of seconds between refreshes of the chart's series. The page fetches
+ *          only the rebuilt series with an Ajax request to the page, and applies them to the chart.
+ *          Requires a session. Defaults to 0, no refresh.
+ * @binding live (List<ERHighchartsLiveSeries>) live series to show instead of the series of the graph. The page 
+ *          follows them, see {@code ERHighchartsLiveRequestHandler}, and appends their new points to the chart. 
+ *          The session is allowed to follow them. Used by the line, spline and area charts.
+ * @binding lazy (boolean) whether the chart is built only once its container scrolls into view. The page 
+ *          is rendered with the empty container, and fetches the chart options with an Ajax request. 
+ *          Defaults to false.
+ * @binding template (String) the name of the {@code ERHighchartsTemplateRegistry} template the chart is built 
+ *          over. The page is sent the template once, and each chart only its differences from it.
+ *          Defaults to the er.highcharts.template property.
+ * 
+ * @property er.highcharts.template
+ *           (String) The name of the template of charts without a template binding. Defaults to none.
+ * 
  * @author matt
  *
  */
@@ -46,14 +68,39 @@ public class ERHighchart extends ERHighchartComponent {
 	private static Logger log = Logger.getLogger(ERHighchart.class);
 	
 	/**
-	 * The required JavaScript file references
+	 * Binding for the series refresh interval
+	 */
+	private static final String REFRESH_BINDING = "refresh";
+	
+	/**
+	 * Form key of the Ajax requests for the refreshed series
+	 */
+	private static final String REFRESH_FORM_KEY = "series";
+	
+	/**
+	 * Binding for the live series
+	 */
+	private static final String LIVE_BINDING = "live";
+	
+	/**
+	 * Binding for lazy chart initialization
 	 */
-	private static final NSArray<String> ADDITIONAL_JAVASCRIPT_FILES
-		= new NSArray<String>(new String[]{
-				"prototype-adapter.js",
-				"highcharts.js",
-				"exporting.js"
-		});
+	private static final String LAZY_BINDING = "lazy";
+	
+	/**
+	 * Binding for the chart option template
+	 */
+	private static final String TEMPLATE_BINDING = "template";
+	
+	/**
+	 * Property for the default chart option template
+	 */
+	private static final String TEMPLATE_PROPERTY = "er.highcharts.template";
+	
+	/**
+	 * The required JavaScript file references, when they are not bundled
+	 */
+	private static final NSArray<String> ADDITIONAL_JAVASCRIPT_FILES = ERHighchartsResourceBundle.SCRIPTS;
 	
 	/**
 	 * The cached Request Handler URL for transcoding
@@ -64,6 +111,36 @@ public class ERHighchart extends ERHighchartComponent {
 	 * The HTML identifier for the chart container
 	 */
 	private String _chartId = null;
+	
+	/**
+	 * The sequence numbers of the last live points rendered, by series
+	 */
+	private List<Long> _liveSequences = null;
+	
+	/**
+	 * The Ajax URL of the chart options, for a lazy chart
+	 */
+	private String _lazyURL = null;
+	
+	/**
+	 * The Ajax URL of the refreshed series, for a refreshed chart
+	 */
+	private String _refreshURL = null;
+	
+	/**
+	 * The name of the chart option template, resolved once per render
+	 */
+	private String _templateName = null;
+	
+	/**
+	 * The chart option template, resolved once per render
+	 */
+	private KVCAExtensionGraph _template = null;
+	
+	/**
+	 * Whether the template is resolved for this render
+	 */
+	private boolean _templateResolved = false;
 
 
 	/**
@@ -75,7 +152,9 @@ public class ERHighchart extends ERHighchartComponent {
     }
 	
 	/**
-	 * The HTML identifier for the chart container
+	 * The HTML identifier for the chart container. This is derived from the element ID
+	 * of the component in the page, so the same chart on the same page always renders
+	 * the same JSON, which allows it to be cached.
 	 */
 	public String chartId(){
 		if(_chartId==null){
@@ -105,25 +184,36 @@ public class ERHighchart extends ERHighchartComponent {
 	}
 	
 	/**
-	 * We define the Highcharts javascript resources here
+	 * We define the Highcharts javascript resources here, unless they are included
+	 * as the {@code ERHighchartsResourceBundle}.
 	 */
 	@Override
 	public NSArray<String> additionalJavascriptFiles(){
+		if(ERHighchartsResourceBundle.isEnabled()){
+			return NSArray.emptyArray();
+		}
 		return ADDITIONAL_JAVASCRIPT_FILES;
 	}
 	
 	/**
-	 * The String value, built by merging the {@code KVCAExtensionGraph} graph
-	 * object with the defaults and bindings, and mapping the object out to a JSON 
-	 * representation using Jackson, which Highcharts uses to render the chart.
+	 * The graph to render, built by merging the {@code KVCAExtensionGraph} graph
+	 * object with the template, defaults and bindings.
 	 * 
 	 * @return
 	 */
-	public String chartString(){
+	public KVCAExtensionGraph chartGraph(){
 		
 		KVCAExtensionGraph graph = graph();
 		
-		String ret = "ERROR";
+		//build the chart over its template
+		KVCAExtensionGraph template = template();
+		if(template != null){
+			KVCAExtensionGraph templated = template.mutableCopy();
+			templated.apply(graph);
+			graph = templated;
+		}else if(templateName() != null){
+			log.warn("The chart template " + templateName() + " is not registered, the chart " + chartId() + " is rendered in full.");
+		}
 
 		//set the HTML element target
 		graph.takeValueForKeyPath(chartId(), "chart.renderTo");
@@ -136,31 +226,70 @@ public class ERHighchart extends ERHighchartComponent {
 			graph.takeValueForKeyPath(false, "credits.enabled");
 		}
 		
-		//set the transcode url
+		//show the live series as they are now, the page follows them from there
+		if(isLive()){
+			List<KVCAExtensionGraph> seriesList = new ArrayList<KVCAExtensionGraph>();
+			_liveSequences = new ArrayList<Long>();
+			for (ERHighchartsLiveSeries live : liveSeries()){
+				ERHighchartsLiveSeries.Update update = live.updateSince(0);
+				KVCAExtensionGraph series = new KVCAExtensionGraph();
+				series.takeValueForKey(live.name(), "name");
+				series.takeValueForKey(update.data(), "data");
+				seriesList.add(series);
+				_liveSequences.add(Long.valueOf(update.sequence()));
+			}
+			graph.takeValueForKeyPath(seriesList, "series");
+			if(graph.valueForKeyPath("xAxis.type") == null){
+				graph.takeValueForKeyPath("datetime", "xAxis.type");
+			}
+		}
+		
+		//set the transcode url, with the session's export token. Templates carry no export url.
 		String transcodeURL = (String)graph.valueForKeyPath("exporting.url");
 		if(transcodeURL==null){
-			graph.takeValueForKeyPath(localTranscodeURL(), "exporting.url");		
+			graph.takeValueForKeyPath(exportURL(), "exporting.url");		
 		}
 			
 		
 	//	graph = fromRawBindings(graph);
 
+		return graph;
+	}
+
+	/**
+	 * The options sent to the page: the {@link #chartGraph()}, or only its differences 
+	 * from the template, which the page merges with the template.
+	 * 
+	 * This is the value written to the page by the {@code ERHighchartJSON} element,
+	 * which streams the JSON straight into the response.
+	 * 
+	 * @return
+	 */
+	public KVCAExtensionGraph chartOptions(){
+		KVCAExtensionGraph graph = chartGraph();
+		KVCAExtensionGraph template = template();
+		return template == null ? graph : graph.deltaFrom(template);
+	}
+
+	/**
+	 * The String value of {@link #chartGraph()}, mapped out to a JSON 
+	 * representation using the shared {@code ERHighchartsSerialization} engine, 
+	 * which Highcharts uses to render the chart.
+	 * 
+	 * @return
+	 */
+	public String chartString(){
 		
-		try {
-			ObjectMapper mapper = new ObjectMapper();
-			mapper.configure(JsonGenerator.Feature.QUOTE_FIELD_NAMES, false);
-			
-			SimpleModule erHighchartsModule = new SimpleModule("ERHighchartsModule", new Version(1, 0, 0, null));
+		KVCAExtensionGraph graph = chartGraph();
+		
+		String ret = "ERROR";
 
-			//Custom serializer for DateTime objects
-			erHighchartsModule.addSerializer(new ERJodaDateTimeSerializer());
-			//Custom serializer for NSTimestamp objects
-			erHighchartsModule.addSerializer(new ERNSTimestampSerializer());
-			
-			mapper.registerModule(erHighchartsModule);
-			
-			ObjectWriter writer = mapper.writerWithDefaultPrettyPrinter();
-			ret = writer.writeValueAsString(graph);
+		try {
+			if(ERHighchartsChartCache.isEnabled()){
+				ret = ERHighchartsChartCache.sharedInstance().jsonForGraph(graph, chartSeriesObjects());
+			}else{
+				ret = ERHighchartsSerialization.sharedInstance().writeValueAsString(graph);
+			}
 		} catch (JsonGenerationException e) {
 			e.printStackTrace();
 		} catch (JsonMappingException e) {
@@ -185,13 +314,264 @@ public class ERHighchart extends ERHighchartComponent {
 	}
 
 	/**
-	 * Ensure the JavaScript resources are present in the HTML document.
+	 * The export URL for this chart: the transcode URL, with a signed token for the 
+	 * session when {@code ERHighchartsExportToken} is enabled, so exports need not 
+	 * check out the session.
+	 * @return
+	 */
+	private String exportURL() {
+		String url = localTranscodeURL();
+		if(ERHighchartsExportToken.isEnabled() && context().hasSession()){
+			String token = ERHighchartsExportToken.tokenForSession(session().sessionID());
+			url = url + (url.indexOf('?') < 0 ? "?" : "&") + "token=" + token;
+		}
+		return url;
+	}
+
+	/**
+	 * The number of seconds between refreshes of the series, 0 for none.
+	 * @return
+	 */
+	public int refreshInterval(){
+		return intValueForBinding(REFRESH_BINDING, 0);
+	}
+	
+	/**
+	 * Whether the page refreshes the series of this chart. Refreshing needs the session
+	 * to keep the page the refresh requests are sent to.
+	 * @return
+	 */
+	public boolean refreshes(){
+		return refreshInterval() > 0 && context().hasSession();
+	}
+	
+	/**
+	 * The Ajax URL of the refreshed series of this chart, see {@link #invokeAction(WORequest, WOContext)}.
+	 * @return
+	 */
+	public String refreshURL(){
+		return _refreshURL;
+	}
+	
+	/**
+	 * The series of this chart alone: those of this component, or of the convenience 
+	 * chart component containing it, built without the rest of the chart options.
+	 * @return
+	 */
+	public Object refreshedSeries(){
+		if(seriesObjects() == null && parent() instanceof ERHighchartComponent){
+			return ((ERHighchartComponent)parent()).chartSeries();
+		}
+		return chartSeries();
+	}
+
+	/**
+	 * The name of the chart option template, from the binding or the default property.
+	 * @return
+	 */
+	public String templateName(){
+		resolveTemplate();
+		return _templateName;
+	}
+	
+	/**
+	 * The chart option template, if the chart has one and it is registered.
+	 * @return
+	 */
+	public KVCAExtensionGraph template(){
+		resolveTemplate();
+		return _template;
+	}
+	
+	/**
+	 * Reads the template binding, property and registry once per render.
+	 */
+	private void resolveTemplate(){
+		if(!_templateResolved){
+			_templateName = (String)valueForBinding(TEMPLATE_BINDING);
+			if(_templateName == null){
+				_templateName = ERXProperties.stringForKey(TEMPLATE_PROPERTY);
+			}
+			_template = _templateName == null ? null : ERHighchartsTemplateRegistry.templateNamed(_templateName);
+			_templateResolved = true;
+		}
+	}
+	
+	/**
+	 * Whether the chart is built over a template.
+	 * @return
+	 */
+	public boolean hasTemplate(){
+		return template() != null;
+	}
+	
+	/**
+	 * The name of the template, as a JavaScript string.
+	 * @return
+	 */
+	public String templateNameJS(){
+		return javascriptValue(templateName());
+	}
+	
+	/**
+	 * Whether the chart is built and rendered only when the page asks for it, 
+	 * once its container is in view.
+	 * @return
+	 */
+	public boolean isLazy(){
+		return booleanValueForBinding(LAZY_BINDING, false);
+	}
+	
+	/**
+	 * The Ajax URL which the page fetches the options of a lazy chart from.
+	 * @return
+	 */
+	public String lazyURL(){
+		return _lazyURL;
+	}
+	
+	/**
+	 * Answers the Ajax requests of the chart: the refresh requests with only the 
+	 * {@link #refreshedSeries()}, and the request of a lazy chart with the {@link #chartOptions()}
+	 * and the sequence numbers of its live series if any, as <code>{chart: ..., liveSequences: ...}</code>.
+	 */
+	@Override
+	public WOActionResults invokeAction(WORequest request, WOContext context){
+		if(request.formValueForKey(REFRESH_FORM_KEY) != null && AjaxUtils.shouldHandleRequest(request, context, null)){
+			WOResponse response = AjaxUtils.createResponse(request, context);
+			response.setHeader("application/json; charset=UTF-8", "Content-Type");
+			response.setHeader("no-cache", "cache-control");
+			try {
+				ERHighchartsSerialization.sharedInstance().writeValue(new ERHighchartsResponseWriter(response), refreshedSeries());
+			} catch (IOException e) {
+				log.error("Unable to refresh the series of the chart " + chartId(), e);
+				response.setStatus(500);
+			}
+			return response;
+		}
+		if(isLazy() && AjaxUtils.shouldHandleRequest(request, context, null)){
+			_chartId = "erhighcharts_" + context.elementID().replace('.', '_');
+			_templateResolved = false;
+			WOResponse response = AjaxUtils.createResponse(request, context);
+			response.setHeader("application/json; charset=UTF-8", "Content-Type");
+			try {
+				KVCAExtensionGraph graph = chartOptions();
+				response.appendContentString("{\"chart\":");
+				if(ERHighchartsChartCache.isEnabled()){
+					response.appendContentString(ERHighchartsChartCache.sharedInstance().jsonForGraph(graph, chartSeriesObjects()));
+				}else{
+					ERHighchartsSerialization.sharedInstance().writeValue(new ERHighchartsResponseWriter(response), graph);
+				}
+				response.appendContentString(",\"liveSequences\":" + liveSequences() + "}");
+			} catch (IOException e) {
+				log.error("Unable to write the lazy chart " + chartId(), e);
+				response.setStatus(500);
+			}
+			return response;
+		}
+		return super.invokeAction(request, context);
+	}
+	
+	/**
+	 * The bound live series, if any.
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public List<ERHighchartsLiveSeries> liveSeries(){
+		return (List<ERHighchartsLiveSeries>)valueForBinding(LIVE_BINDING);
+	}
+	
+	/**
+	 * Whether the chart shows live series.
+	 * @return
+	 */
+	public boolean isLive(){
+		List<ERHighchartsLiveSeries> live = liveSeries();
+		return live != null && !live.isEmpty();
+	}
+	
+	/**
+	 * The URL the page follows the live series from. This allows the session to follow them.
+	 * @return
+	 */
+	public String liveURL(){
+		if(context().hasSession()){
+			List<String> names = new ArrayList<String>();
+			for (ERHighchartsLiveSeries live : liveSeries()){
+				names.add(live.name());
+			}
+			ERHighchartsLiveRequestHandler.allowSeries(session(), names);
+		}
+		return ERHighchartsLiveRequestHandler.liveUrl(context());
+	}
+	
+	/**
+	 * The names of the live series, as a JavaScript array.
+	 * @return
+	 */
+	public String liveNames(){
+		List<String> names = new ArrayList<String>();
+		for (ERHighchartsLiveSeries live : liveSeries()){
+			names.add(live.name());
+		}
+		return javascriptValue(names);
+	}
+	
+	/**
+	 * The sequence numbers of the last live points rendered, as a JavaScript array.
+	 * @return
+	 */
+	public String liveSequences(){
+		return javascriptValue(_liveSequences);
+	}
+	
+	private String javascriptValue(Object value){
+		try {
+			return ERHighchartsSerialization.sharedInstance().writeValueAsString(value);
+		} catch (IOException e) {
+			log.error("Unable to write the value " + value + " of the chart " + chartId(), e);
+			return "null";
+		}
+	}
+
+	/**
+	 * The objects the series of this chart are built from: the {@code series} binding
+	 * of this component, or of the convenience chart component containing it.
+	 * Used to tag cached chart JSON, see {@code ERHighchartsChartCache}.
+	 * @return
+	 */
+	public List<?> chartSeriesObjects(){
+		List<?> objects = seriesObjects();
+		if(objects == null && parent() instanceof ERHighchartComponent){
+			objects = ((ERHighchartComponent)parent()).seriesObjects();
+		}
+		return objects;
+	}
+
+	/**
+	 * Ensure the JavaScript resources are present in the HTML document. The Ajax framework's 
+	 * scripts are shared with other components on the page, so they are not bundled. The script
+	 * of the templates is added after the framework's, which it extends.
 	 */
 	public void appendToResponse(WOResponse response, WOContext context){
+		_chartId = "erhighcharts_" + context.elementID().replace('.', '_');
+		_lazyURL = isLazy() ? AjaxUtils.ajaxComponentActionUrl(context) : null;
+		_refreshURL = null;
+		if(refreshes()){
+			_refreshURL = AjaxUtils.ajaxComponentActionUrl(context);
+			_refreshURL = _refreshURL + (_refreshURL.indexOf('?') < 0 ? "?" : "&") + REFRESH_FORM_KEY + "=true";
+		}
+		_templateResolved = false;
 		AjaxUtils.addScriptResourceInHead(context, response, "Ajax", "prototype.js");
 		AjaxUtils.addScriptResourceInHead(context, response, "Ajax", "effects.js");
 		AjaxUtils.addScriptResourceInHead(context, response, "Ajax", "wonder.js");
+		if(ERHighchartsResourceBundle.isEnabled()){
+			AjaxUtils.addScriptResourceInHead(context, response, "ERHighcharts", ERHighchartsResourceBundle.sharedInstance().url(context));
+		}
 		super.appendToResponse(response, context);
+		if(hasTemplate()){
+			AjaxUtils.addScriptResourceInHead(context, response, "ERHighcharts", ERHighchartsTemplateRegistry.bundle().url(context));
+		}
 	}
 	
 }
\ No newline at end of file
@@ -14,6 +14,10 @@ import er.highcharts.model.KVCAExtensionGraph;
  *          to-many relationship, a List of EOCustomObject objects, or a collection of {@code KVCAExtensionGraph} objects, for example.
  * @binding mappings (NSDictionary<String, String>) any key mappings to ensure the "name" and "data" maps correctly in the graph.
  * @binding graph (KVCAExtensionGraph) An extension graph object with any extra option values to apply to the chart.
+ * @binding live (List<ERHighchartsLiveSeries>) live series to show instead of the bound series. New points are appended to the
+ *          chart as they are added to the series on the server, see {@code ERHighchartsLiveSeries}.
+ * @binding maxPoints (int) the maximum number of points to send per numeric series. Longer series are downsampled
+ *          on the server (Largest-Triangle-Three-Buckets), keeping peaks. Defaults to the {@code er.highcharts.series.maxPoints} Property.
  * 
  * @author matt
  *
@@ -33,5 +37,12 @@ public class ERLineChart extends ERHighchartComponent {
         super(context);
     }
 
+	/**
+	 * Numeric series may be downsampled with the {@code maxPoints} binding.
+	 */
+	@Override
+	protected boolean allowsDownsampling(){
+		return true;
+	}
 
 }
\ No newline at end of file
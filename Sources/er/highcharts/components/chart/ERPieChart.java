@@ -7,9 +7,10 @@ import com.webobjects.appserver.WOContext;
 import com.webobjects.foundation.NSDictionary;
 import com.webobjects.foundation.NSKeyValueCodingAdditions;
 
-import er.extensions.foundation.ERXStringUtilities;
 import er.highcharts.components.ERHighchartComponent;
+import er.highcharts.model.ERHighchartsPointData;
 import er.highcharts.model.KVCAExtensionGraph;
+import er.highcharts.model.KVCAKeyPath;
 
 /**
  * Convenience component to generate pie charts.
@@ -53,7 +54,6 @@ public class ERPieChart extends ERHighchartComponent {
 	 * 
 	 * @return a {@code KVCAExtensionGraph} object representing the Pie section of a highcharts graph.
 	 */
-	@SuppressWarnings("unchecked")
 	public KVCAExtensionGraph graph() {
 		KVCAExtensionGraph graph = new KVCAExtensionGraph();
 		
@@ -61,7 +61,23 @@ public class ERPieChart extends ERHighchartComponent {
 		graph.takeValueForKeyPath("pie", "chart.type");
 		graph.takeValueForKeyPath(true, "plotOptions.pie.allowPointSelect");
 
-		//series.
+		graph = buildSeries(graph);
+
+		//apply the bound graph last, so it overrides any previously set content.
+		graph.apply(boundGraph());
+		
+		return graph;
+	}
+
+	/**
+	 * Builds the single "pie" series of the graph, with a wedge for each of the bound 
+	 * "series" objects, applying any "mappings" if present.
+	 * @param graph
+	 * @return
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public KVCAExtensionGraph buildSeries(KVCAExtensionGraph graph){
 		List<NSKeyValueCodingAdditions> objectArray = (List<NSKeyValueCodingAdditions>) valueForBinding(SERIES_BINDING);
 		if(objectArray!=null){
 			
@@ -75,39 +91,38 @@ public class ERPieChart extends ERHighchartComponent {
 			KVCAExtensionGraph series = new KVCAExtensionGraph();
 			series.takeValueForKeyPath("pie", "type");
 			
-			List<Object> dataList = new ArrayList<Object>();
+			//resolve the key paths once for all the wedges.
+			KVCAKeyPath namePath = mappedKeyPath("name", mappings, wedgeNameKeyPath);
+			KVCAKeyPath yPath = mappedKeyPath("y", mappings, wedgeValueKeyPath);
+			
+			int count = objectArray.size();
+			Object[] names = new Object[count];
+			Object[] values = new Object[count];
+			int i = 0;
 			for (NSKeyValueCodingAdditions obj : objectArray){
-				KVCAExtensionGraph data = new KVCAExtensionGraph();
-				
-				String namePath = "name";
-				if(mappings!=null && mappings.get("name")!=null){
-					namePath = mappings.get("name");
-				}else if(!ERXStringUtilities.stringIsNullOrEmpty(wedgeNameKeyPath)){
-					namePath = wedgeNameKeyPath;
-				}
-				data.takeValueForKeyPath(obj.valueForKeyPath(namePath), "name");
-				
-				String yPath = "y";
-				if(mappings!=null && mappings.get("y")!=null){
-					yPath = mappings.get("y");
-				}else if(!ERXStringUtilities.stringIsNullOrEmpty(wedgeValueKeyPath)){
-					yPath = wedgeValueKeyPath;
+				names[i] = namePath.valueForObject(obj);
+				values[i] = yPath.valueForObject(obj);
+				i++;
+			}
+			
+			//wedges only have a name and value, so use the compact [name, y] form when the values are numbers.
+			Object data = ERHighchartsPointData.namedPointData(names, values);
+			if(data == null){
+				List<Object> dataList = new ArrayList<Object>(count);
+				for (i = 0; i < count; i++){
+					KVCAExtensionGraph point = new KVCAExtensionGraph();
+					point.takeValueForKey(names[i], "name");
+					point.takeValueForKey(values[i], "y");
+					dataList.add(point);
 				}
-				data.takeValueForKeyPath(obj.valueForKeyPath(yPath), "y");
-				
-				dataList.add(data);
-				
+				data = dataList;
 			}
-			series.takeValueForKeyPath(dataList, "data");
+			series.takeValueForKeyPath(data, "data");
 			seriesList.add(series);
 			
 			
 			graph.takeValueForKeyPath(seriesList, "series");
 		}
-
-		//apply the bound graph last, so it overrides any previously set content.
-		graph.apply(boundGraph());
-		
 		return graph;
 	}
 }
\ No newline at end of file
@@ -3,6 +3,7 @@ package er.highcharts.components.chart;
 import com.webobjects.appserver.WOContext;
 
 import er.highcharts.components.ERHighchartComponent;
+import er.highcharts.model.ERHighchartsSeriesData;
 import er.highcharts.model.KVCAExtensionGraph;
 
 /**
@@ -14,6 +15,9 @@ import er.highcharts.model.KVCAExtensionGraph;
  *          to-many relationship, a List of EOCustomObject objects, or a collection of {@code KVCAExtensionGraph} objects, for example.
  * @binding mappings (NSDictionary<String, String>) any key mappings to ensure the "name", "y", and "data" maps correctly in the graph.
  * @binding graph (KVCAExtensionGraph) An extension graph object with any extra option values to apply to the chart.
+ * @binding maxPoints (int) the maximum number of points to send per numeric series. Longer series are thinned
+ *          on the server, keeping the lowest and highest point of each slice of the x range. Defaults to the 
+ *          {@code er.highcharts.series.maxPoints} Property.
  * 
  * @author matt
  *
@@ -34,4 +38,21 @@ public class ERScatterChart extends ERHighchartComponent {
 		super(context);
 	}
 
+	/**
+	 * Numeric series may be downsampled with the {@code maxPoints} binding.
+	 */
+	@Override
+	protected boolean allowsDownsampling(){
+		return true;
+	}
+
+	/**
+	 * Scatter points are in no particular x order, so they are thinned by x range, see
+	 * {@link ERHighchartsSeriesData#downsampleMinMax(int)}, rather than as a line.
+	 */
+	@Override
+	protected ERHighchartsSeriesData downsample(ERHighchartsSeriesData data, int maxPoints){
+		return data.downsampleMinMax(maxPoints);
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,302 @@
+package er.highcharts.control;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.log4j.Logger;
+
+import com.webobjects.foundation.NSData;
+import com.webobjects.foundation.NSForwardException;
+
+import er.extensions.foundation.ERXProperties;
+
+/**
+ * Exports many SVG documents at once, as a ZIP archive.
+ *
+ * The documents are transcoded in parallel on the {@code ERHighchartsTranscodingExecutor} pool,
+ * never occupying more than the pool's threads, and each export is written to the archive as
+ * soon as it is done, so only the exports in progress are held in memory. The archive is
+ * written to a temporary file, which {@link #inputStream()} deletes once it has been read.
+ * Exports are taken from, and added to, the {@code ERHighchartsTranscodeCache} when it is enabled.
+ *
+ * The whole batch must be exported within the batch timeout, however many items it has.
+ *
+ * @property er.highcharts.transcode.batchTimeout
+ *           (int) The number of seconds a batch may take. Defaults to five times the transcode timeout.
+ *
+ * @author matt
+ *
+ */
+public class ERHighchartsBatchExport {
+
+	/**
+	 * Standard Logger
+	 */
+	private static Logger log = Logger.getLogger(ERHighchartsBatchExport.class);
+
+	/**
+	 * Property for the batch timeout
+	 */
+	private static final String BATCH_TIMEOUT_PROPERTY = "er.highcharts.transcode.batchTimeout";
+
+	/**
+	 * The name of entries whose filename is empty once sanitized
+	 */
+	private static final String DEFAULT_ENTRY_NAME = "chart";
+
+	/**
+	 * A document to export.
+	 */
+	public static class Item {
+		private final String _svgString;
+		private final String _type;
+		private final Float _width;
+		private final String _filename;
+
+		/**
+		 * Standard constructor
+		 * @param svgString the SVG document
+		 * @param type the content type to export to
+		 * @param width the width of the export
+		 * @param filename the name of the export in the archive, without the extension
+		 */
+		public Item(String svgString, String type, Float width, String filename){
+			_svgString = svgString;
+			_type = type;
+			_width = width;
+			_filename = filename;
+		}
+
+		public String svgString(){
+			return _svgString;
+		}
+
+		public String type(){
+			return _type;
+		}
+
+		public Float width(){
+			return _width;
+		}
+
+		public String filename(){
+			return _filename;
+		}
+
+		/**
+		 * The export, transcoded unless it is the SVG document itself, or cached.
+		 */
+		NSData export() throws IOException {
+			if(ERHighchartsTranscoding.TYPE_SVG.equals(_type)){
+				return new NSData(_svgString.getBytes("UTF-8"));
+			}
+			if(!ERHighchartsTranscodeCache.isEnabled()){
+				return ERHighchartsTranscoding.transcode(_svgString, _type, _width);
+			}
+			ERHighchartsTranscodeCache cache = ERHighchartsTranscodeCache.sharedInstance();
+			String key = ERHighchartsTranscodeCache.keyFor(_svgString, _type, _width);
+			NSData data = cache.get(key);
+			if(data == null){
+				data = ERHighchartsTranscoding.transcode(_svgString, _type, _width);
+				if(data != null){
+					cache.put(key, data);
+				}
+			}
+			return data;
+		}
+	}
+
+	/**
+	 * A finished export
+	 */
+	private static class Result {
+		final Item item;
+		final NSData data;
+
+		Result(Item item, NSData data){
+			this.item = item;
+			this.data = data;
+		}
+	}
+
+	private final List<Item> _items;
+	private final ERHighchartsTranscodingExecutor _executor;
+	private File _file;
+
+	/**
+	 * Standard constructor
+	 * @param items the documents to export
+	 * @param executor the pool to transcode on
+	 */
+	public ERHighchartsBatchExport(List<Item> items, ERHighchartsTranscodingExecutor executor){
+		_items = items;
+		_executor = executor;
+	}
+
+	/**
+	 * Transcodes every item and writes the ZIP archive.
+	 *
+	 * At most as many items as the pool has threads are queued at once, so a large batch
+	 * neither fills the queue nor shuts out other exports.
+	 *
+	 * @throws RejectedExecutionException if the pool was saturated before any item could be queued
+	 * @throws TimeoutException if the batch took longer than the batch timeout
+	 * @throws IOException if the archive could not be written
+	 */
+	public void write() throws TimeoutException, IOException {
+		_file = File.createTempFile("erhighcharts", ".zip");
+		ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(_file)));
+		CompletionService<Result> completion = _executor.completionService();
+		List<Future<Result>> inFlight = new ArrayList<Future<Result>>();
+		Set<String> names = new HashSet<String>();
+		boolean written = false;
+		int timeout = ERXProperties.intForKeyWithDefault(BATCH_TIMEOUT_PROPERTY, _executor.timeout() * 5);
+		long deadline = System.currentTimeMillis() + timeout * 1000L;
+		try {
+			int window = Math.max(1, _executor.poolSize());
+			int next = 0;
+			while(next < _items.size() || !inFlight.isEmpty()){
+				while(next < _items.size() && inFlight.size() < window){
+					try {
+						inFlight.add(completion.submit(task(_items.get(next))));
+						next++;
+					} catch (RejectedExecutionException e) {
+						if(inFlight.isEmpty()){
+							throw e;
+						}
+						//wait for one of ours to finish, then try again
+						window = inFlight.size();
+					}
+				}
+				long remaining = deadline - System.currentTimeMillis();
+				Future<Result> done = remaining > 0 ? completion.poll(remaining, TimeUnit.MILLISECONDS) : completion.poll();
+				if(done == null){
+					throw new TimeoutException("The batch of " + _items.size() + " charts was not exported within " + timeout + " seconds.");
+				}
+				inFlight.remove(done);
+				writeEntry(zip, done.get(), names);
+			}
+			zip.close();
+			written = true;
+			if(log.isDebugEnabled()){
+				log.debug("Exported " + _items.size() + " charts to " + _file + " (" + _file.length() + " bytes)");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw NSForwardException._runtimeExceptionForThrowable(e);
+		} catch (ExecutionException e) {
+			throw NSForwardException._runtimeExceptionForThrowable(e.getCause());
+		} finally {
+			if(!written){
+				for (Future<Result> future : inFlight){
+					future.cancel(true);
+				}
+				try {
+					zip.close();
+				} catch (IOException e) {
+					//don't hide why the batch failed
+					log.warn("Unable to close the abandoned archive " + _file, e);
+				} finally {
+					_file.delete();
+				}
+			}
+		}
+	}
+
+	private static Callable<Result> task(final Item item){
+		return new Callable<Result>() {
+			public Result call() throws Exception {
+				return new Result(item, item.export());
+			}
+		};
+	}
+
+	/**
+	 * Writes the export, named uniquely in the archive.
+	 */
+	private static void writeEntry(ZipOutputStream zip, Result result, Set<String> names) throws IOException {
+		String extension = ERHighchartsTranscoding.extensionForType(result.item.type());
+		String filename = entryName(result.item.filename());
+		String name = filename + extension;
+		for (int i = 2; !names.add(name); i++){
+			name = filename + "-" + i + extension;
+		}
+		zip.putNextEntry(new ZipEntry(name));
+		if(result.data != null){
+			result.data.writeToStream(zip);
+		}
+		zip.closeEntry();
+	}
+
+	/**
+	 * The filename, made safe to name an entry of an archive: path separators, parent
+	 * directory references, leading dots and control characters are removed, so the 
+	 * entry can't be extracted outside the directory the archive is extracted to.
+	 * 
+	 * @param filename the filename sent by the client
+	 * @return
+	 */
+	public static String entryName(String filename){
+		if(filename == null){
+			return DEFAULT_ENTRY_NAME;
+		}
+		StringBuilder name = new StringBuilder(filename.length());
+		for (int i = 0; i < filename.length(); i++){
+			char c = filename.charAt(i);
+			if(c == '/' || c == '\\' || c == ':' || Character.isISOControl(c)){
+				name.append('_');
+			}else{
+				name.append(c);
+			}
+		}
+		String safe = name.toString().replace("..", "_");
+		while(safe.startsWith(".")){
+			safe = safe.substring(1);
+		}
+		return safe.length() > 0 ? safe : DEFAULT_ENTRY_NAME;
+	}
+
+	/**
+	 * The length of the written archive.
+	 * @return
+	 */
+	public long length(){
+		return _file.length();
+	}
+
+	/**
+	 * A stream of the written archive, which deletes the archive when it is closed.
+	 * @return
+	 * @throws IOException
+	 */
+	public FileInputStream inputStream() throws IOException {
+		final File file = _file;
+		return new FileInputStream(file) {
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					file.delete();
+				}
+			}
+		};
+	}
+
+}
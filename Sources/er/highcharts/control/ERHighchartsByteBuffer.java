@@ -0,0 +1,47 @@
+package er.highcharts.control;
+
+import java.io.ByteArrayOutputStream;
+
+import com.webobjects.foundation.NSData;
+import com.webobjects.foundation.NSRange;
+
+/**
+ * A growable byte buffer whose content can be wrapped as an {@code NSData}, copying it at most once.
+ * 
+ * {@code ByteArrayOutputStream#toByteArray()} copies the buffer, and the {@code NSData(byte[])}
+ * constructor copies it again, so each transcoded export would otherwise be held in memory 
+ * three times over.
+ * 
+ * @author matt
+ *
+ */
+public class ERHighchartsByteBuffer extends ByteArrayOutputStream {
+
+	/**
+	 * Standard constructor
+	 * @param size the initial capacity
+	 */
+	public ERHighchartsByteBuffer(int size){
+		super(size);
+	}
+
+	/**
+	 * The content written so far, wrapping this buffer. Nothing should be 
+	 * written to the buffer afterwards.
+	 * 
+	 * The buffer grows by doubling, so it can be up to twice the size of its content. 
+	 * When more than a quarter of it is unused, the content is copied to a buffer of 
+	 * its own size first, so the data held (for example by the transcode cache) is no 
+	 * larger than its length.
+	 * @return
+	 */
+	public synchronized NSData data(){
+		if(buf.length - count > count / 4){
+			byte[] trimmed = new byte[count];
+			System.arraycopy(buf, 0, trimmed, 0, count);
+			buf = trimmed;
+		}
+		return new NSData(buf, new NSRange(0, count), true);
+	}
+
+}
@@ -0,0 +1,218 @@
+package er.highcharts.control;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.webobjects.eocontrol.EOEditingContext;
+import com.webobjects.eocontrol.EOEnterpriseObject;
+
+import er.extensions.foundation.ERXProperties;
+import er.highcharts.model.KVCAExtensionGraph;
+
+/**
+ * An opt-in cache of rendered chart JSON.
+ * 
+ * Entries are keyed by the {@code KVCAExtensionGraph#fingerprint()} of the complete chart graph,
+ * so identical charts (the same options and series values) are serialized once and then served
+ * from memory until they expire or are evicted. A fingerprint is not proof that two graphs are
+ * the same, so each entry keeps a frozen copy of its graph, and a hit is only served when the
+ * graph is equivalent to it. The cache is bounded by the estimated size of the entries, least
+ * recently used entries being evicted first.
+ * 
+ * Entries are tagged with the identity of the bound series objects (the global IDs of 
+ * enterprise objects). When your EOs change, call {@link #invalidateObject(Object)} to 
+ * drop every chart built from them, or {@link #invalidateAll()}.
+ * 
+ * @property er.highcharts.chartCache.enabled
+ *           (boolean) Whether rendered chart JSON is cached. Defaults to false.
+ * @property er.highcharts.chartCache.maxBytes
+ *           (long) The maximum total size of the cached JSON. Defaults to 8MB.
+ * @property er.highcharts.chartCache.ttl
+ *           (long) The number of seconds a chart is cached for. Defaults to 60, 0 for no expiry.
+ * 
+ * @author matt
+ *
+ */
+public class ERHighchartsChartCache extends ERHighchartsSizedCache<Long, ERHighchartsChartCache.Chart> {
+
+	/**
+	 * Standard Logger
+	 */
+	private static Logger log = Logger.getLogger(ERHighchartsChartCache.class);
+
+	/**
+	 * Properties
+	 */
+	private static final String ENABLED_PROPERTY = "er.highcharts.chartCache.enabled";
+	private static final String MAX_BYTES_PROPERTY = "er.highcharts.chartCache.maxBytes";
+	private static final String TTL_PROPERTY = "er.highcharts.chartCache.ttl";
+
+	/**
+	 * The shared instance, created on first use
+	 */
+	private static ERHighchartsChartCache _sharedInstance;
+
+	/**
+	 * A cached chart: the JSON, the graph it was rendered from, and the identities of 
+	 * the objects it was built from.
+	 */
+	public static class Chart {
+		private final String _json;
+		private final KVCAExtensionGraph _graph;
+		private final Object[] _tags;
+		
+		Chart(String json, KVCAExtensionGraph graph, Object[] tags){
+			_json = json;
+			_graph = graph;
+			_tags = tags;
+		}
+		
+		/**
+		 * The rendered JSON
+		 * @return
+		 */
+		public String json(){
+			return _json;
+		}
+		
+		boolean isTagged(Object tag){
+			for (Object chartTag : _tags){
+				if(chartTag.equals(tag)){
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * The shared chart cache, configured from the Properties.
+	 * @return
+	 */
+	public static synchronized ERHighchartsChartCache sharedInstance(){
+		if(_sharedInstance == null){
+			_sharedInstance = new ERHighchartsChartCache(
+					ERXProperties.longForKeyWithDefault(MAX_BYTES_PROPERTY, 8L * 1024 * 1024), 
+					ERXProperties.longForKeyWithDefault(TTL_PROPERTY, 60) * 1000);
+		}
+		return _sharedInstance;
+	}
+
+	/**
+	 * Whether chart JSON should be cached.
+	 * @return
+	 */
+	public static boolean isEnabled(){
+		return ERXProperties.booleanForKeyWithDefault(ENABLED_PROPERTY, false);
+	}
+
+	/**
+	 * Standard constructor
+	 * @param maxBytes the maximum total size of the cached JSON
+	 * @param ttlMillis the time to live of an entry in milliseconds, 0 for no expiry
+	 */
+	public ERHighchartsChartCache(long maxBytes, long ttlMillis){
+		super(maxBytes, ttlMillis);
+	}
+
+	/**
+	 * Strings are counted at two bytes a character, and the copy of the graph is
+	 * estimated at the size of its JSON.
+	 */
+	@Override
+	protected long sizeOf(Chart chart){
+		return chart.json().length() * 4L;
+	}
+
+	/**
+	 * The JSON for the graph, from the cache if an identical graph has been rendered,
+	 * otherwise serialized with {@code ERHighchartsSerialization} and cached.
+	 * 
+	 * @param graph the complete chart graph
+	 * @param seriesObjects the objects the series were built from, used to tag the entry 
+	 *        for {@link #invalidateObject(Object)}. May be null.
+	 * @return
+	 * @throws IOException
+	 */
+	public String jsonForGraph(KVCAExtensionGraph graph, Collection<?> seriesObjects) throws IOException {
+		Long key = Long.valueOf(graph.fingerprint());
+		Chart chart = get(key);
+		if(chart != null && !chart._graph.isEquivalentTo(graph)){
+			log.warn("The fingerprint " + key + " of a chart collides with a cached chart, which is replaced.");
+			chart = null;
+		}
+		if(chart == null){
+			String json = ERHighchartsSerialization.sharedInstance().writeValueAsString(graph);
+			chart = new Chart(json, graph.mutableCopy().freeze(), tagsForObjects(seriesObjects));
+			put(key, chart);
+		}
+		return chart.json();
+	}
+
+	/**
+	 * Removes every cached chart built from the object.
+	 * @param object a series object, typically an EO
+	 */
+	public void invalidateObject(Object object){
+		Object tag = tagForObject(object);
+		if(tag == null){
+			return;
+		}
+		int count = 0;
+		for (Map.Entry<Long, Chart> entry : entries()){
+			if(entry.getValue().isTagged(tag)){
+				remove(entry.getKey());
+				count++;
+			}
+		}
+		if(log.isDebugEnabled()){
+			log.debug("Invalidated " + count + " cached charts for " + tag);
+		}
+	}
+
+	/**
+	 * Removes every cached chart.
+	 */
+	public void invalidateAll(){
+		clear();
+	}
+
+	/**
+	 * The tags for the series objects.
+	 */
+	private static Object[] tagsForObjects(Collection<?> objects){
+		if(objects == null || objects.isEmpty()){
+			return new Object[0];
+		}
+		List<Object> tags = new ArrayList<Object>(objects.size());
+		for (Object object : objects){
+			Object tag = tagForObject(object);
+			if(tag != null){
+				tags.add(tag);
+			}
+		}
+		return tags.toArray();
+	}
+
+	/**
+	 * The identity of an object: the global ID of an enterprise object, which is the same 
+	 * in every editing context, or null for other objects, whose values are already covered
+	 * by the graph fingerprint.
+	 */
+	private static Object tagForObject(Object object){
+		if(object instanceof EOEnterpriseObject){
+			EOEnterpriseObject eo = (EOEnterpriseObject)object;
+			EOEditingContext ec = eo.editingContext();
+			if(ec != null){
+				return ec.globalIDForObject(eo);
+			}
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,48 @@
+package er.highcharts.control;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import com.webobjects.foundation.NSForwardException;
+
+/**
+ * The SHA-1 digests and hexadecimal encoding shared by the export cache, the parsed
+ * document cache, the script bundles and the export tokens.
+ * 
+ * @author matt
+ *
+ */
+public class ERHighchartsDigests {
+
+	/**
+	 * The hexadecimal digits
+	 */
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	/**
+	 * A new SHA-1 message digest, for digesting a document as it is read.
+	 * @return
+	 */
+	public static MessageDigest messageDigest(){
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw NSForwardException._runtimeExceptionForThrowable(e);
+		}
+	}
+
+	/**
+	 * The lower case hexadecimal representation of the bytes.
+	 * @param bytes
+	 * @return
+	 */
+	public static String hex(byte[] bytes){
+		char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++){
+			chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+			chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+		}
+		return new String(chars);
+	}
+
+}
@@ -0,0 +1,525 @@
+package er.highcharts.control;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+import er.extensions.foundation.ERXProperties;
+
+/**
+ * Counts and times the exports handled by the {@code ERHighchartsRequestHandler}, and
+ * publishes them as a JMX MBean named <code>er.highcharts:type=ExportMetrics</code>.
+ *
+ * Each export request is followed by a {@link Timing}, which the transcoding pool carries
+ * onto the thread doing the work, so the time spent parsing the SVG document, rendering
+ * it and encoding the image can be told apart. The timing of a batch export adds up the
+ * steps of all of its items. An export slower than the threshold is logged with that 
+ * breakdown. Latencies are kept in a histogram for each type of export: PNG, JPEG, PDF, SVG
+ * and ZIP, any other type requested being counted together, see {@link #exportType(String)}.
+ *
+ * @property er.highcharts.metrics.slowExport
+ *           (int) The number of milliseconds after which an export is logged as slow. Defaults to 5000, 0 to disable.
+ *
+ * @author matt
+ *
+ */
+public class ERHighchartsExportMetrics implements ERHighchartsExportMetricsMBean {
+
+	/**
+	 * Standard Logger
+	 */
+	private static Logger log = Logger.getLogger(ERHighchartsExportMetrics.class);
+
+	/**
+	 * Property for the slow export threshold
+	 */
+	private static final String SLOW_EXPORT_PROPERTY = "er.highcharts.metrics.slowExport";
+
+	/**
+	 * The name of the MBean
+	 */
+	public static final String OBJECT_NAME = "er.highcharts:type=ExportMetrics";
+
+	/**
+	 * The upper bounds of the latency buckets, in milliseconds
+	 */
+	private static final long[] LATENCY_BUCKETS = { 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000 };
+
+	/**
+	 * The content type recorded for ZIP archives
+	 */
+	private static final String TYPE_ZIP = "application/zip";
+
+	/**
+	 * The type recorded for any other requested type
+	 */
+	private static final String TYPE_OTHER = "other";
+
+	/**
+	 * The shared instance, created on first use
+	 */
+	private static ERHighchartsExportMetrics _sharedInstance;
+
+	private final ConcurrentMap<String, AtomicLong> _exportCounts = new ConcurrentHashMap<String, AtomicLong>();
+	private final AtomicLong _exportCount = new AtomicLong();
+	private final AtomicLong _failureCount = new AtomicLong();
+	private final AtomicLong _slowExportCount = new AtomicLong();
+	private final AtomicLong _inputBytes = new AtomicLong();
+	private final AtomicLong _outputBytes = new AtomicLong();
+	private final AtomicLong _totalLatency = new AtomicLong();
+	private final ConcurrentMap<String, AtomicLongArray> _latencyHistograms = new ConcurrentHashMap<String, AtomicLongArray>();
+	private final AtomicInteger _exportsInProgress = new AtomicInteger();
+	private final long _slowExportThreshold;
+
+	/**
+	 * The shared metrics, configured from the Properties.
+	 * @return
+	 */
+	public static synchronized ERHighchartsExportMetrics sharedInstance(){
+		if(_sharedInstance == null){
+			_sharedInstance = new ERHighchartsExportMetrics(ERXProperties.intForKeyWithDefault(SLOW_EXPORT_PROPERTY, 5000));
+		}
+		return _sharedInstance;
+	}
+
+	/**
+	 * Standard constructor
+	 * @param slowExportThreshold the number of milliseconds after which an export is logged as slow, 0 to disable
+	 */
+	public ERHighchartsExportMetrics(long slowExportThreshold){
+		_slowExportThreshold = slowExportThreshold;
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server, replacing any metrics
+	 * registered before under the same name.
+	 */
+	public void register(){
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if(server.isRegistered(name)){
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(this, name);
+		} catch (JMException e) {
+			log.warn("Unable to register the export metrics as " + OBJECT_NAME, e);
+		}
+	}
+
+	/**
+	 * Records a successful export, and logs it if it was slow.
+	 * @param timing
+	 */
+	public void exported(Timing timing){
+		long latency = timing.elapsed();
+		counter(timing.type()).incrementAndGet();
+		_exportCount.incrementAndGet();
+		_inputBytes.addAndGet(timing.inputBytes());
+		_outputBytes.addAndGet(timing.outputBytes());
+		_totalLatency.addAndGet(latency);
+		histogram(timing.type()).incrementAndGet(bucket(latency));
+		if(_slowExportThreshold > 0 && latency >= _slowExportThreshold){
+			_slowExportCount.incrementAndGet();
+			log.warn("Slow export: " + timing);
+		}else if(log.isDebugEnabled()){
+			log.debug("Exported " + timing);
+		}
+	}
+
+	/**
+	 * Records a failed, refused or timed out export.
+	 * @param timing
+	 */
+	public void failed(Timing timing){
+		_failureCount.incrementAndGet();
+		if(log.isDebugEnabled()){
+			log.debug("Failed export " + timing);
+		}
+	}
+
+	/**
+	 * The type an export is recorded under: one of the exported content types, or
+	 * <code>other</code>, so the types a client sends cannot add counters.
+	 * @param type the requested type
+	 * @return
+	 */
+	public static String exportType(String type){
+		if(ERHighchartsTranscoding.TYPE_PNG.equals(type) || ERHighchartsTranscoding.TYPE_JPEG.equals(type) 
+				|| ERHighchartsTranscoding.TYPE_PDF.equals(type) || ERHighchartsTranscoding.TYPE_SVG.equals(type) 
+				|| TYPE_ZIP.equals(type)){
+			return type;
+		}
+		return TYPE_OTHER;
+	}
+
+	private AtomicLong counter(String type){
+		String key = exportType(type);
+		AtomicLong counter = _exportCounts.get(key);
+		if(counter == null){
+			AtomicLong created = new AtomicLong();
+			counter = _exportCounts.putIfAbsent(key, created);
+			if(counter == null){
+				counter = created;
+			}
+		}
+		return counter;
+	}
+
+	private AtomicLongArray histogram(String type){
+		String key = exportType(type);
+		AtomicLongArray histogram = _latencyHistograms.get(key);
+		if(histogram == null){
+			AtomicLongArray created = new AtomicLongArray(LATENCY_BUCKETS.length + 1);
+			histogram = _latencyHistograms.putIfAbsent(key, created);
+			if(histogram == null){
+				histogram = created;
+			}
+		}
+		return histogram;
+	}
+
+	private long count(String type){
+		AtomicLong counter = _exportCounts.get(type);
+		return counter != null ? counter.get() : 0;
+	}
+
+	private static int bucket(long latency){
+		for (int i = 0; i < LATENCY_BUCKETS.length; i++){
+			if(latency <= LATENCY_BUCKETS[i]){
+				return i;
+			}
+		}
+		return LATENCY_BUCKETS.length;
+	}
+
+	public long getExportCount(){
+		return _exportCount.get();
+	}
+
+	public long getPngExportCount(){
+		return count(ERHighchartsTranscoding.TYPE_PNG);
+	}
+
+	public long getJpegExportCount(){
+		return count(ERHighchartsTranscoding.TYPE_JPEG);
+	}
+
+	public long getPdfExportCount(){
+		return count(ERHighchartsTranscoding.TYPE_PDF);
+	}
+
+	public long getSvgExportCount(){
+		return count(ERHighchartsTranscoding.TYPE_SVG);
+	}
+
+	public long getZipExportCount(){
+		return count(TYPE_ZIP);
+	}
+
+	public long getFailureCount(){
+		return _failureCount.get();
+	}
+
+	public long getSlowExportCount(){
+		return _slowExportCount.get();
+	}
+
+	public long getInputBytes(){
+		return _inputBytes.get();
+	}
+
+	public long getOutputBytes(){
+		return _outputBytes.get();
+	}
+
+	public double getMeanLatency(){
+		long count = _exportCount.get();
+		return count > 0 ? (double)_totalLatency.get() / count : 0;
+	}
+
+	public long[] getLatencyBuckets(){
+		return LATENCY_BUCKETS.clone();
+	}
+
+	public long[] getLatencyHistogram(){
+		long[] histogram = new long[LATENCY_BUCKETS.length + 1];
+		for (AtomicLongArray typeHistogram : _latencyHistograms.values()){
+			for (int i = 0; i < histogram.length; i++){
+				histogram[i] += typeHistogram.get(i);
+			}
+		}
+		return histogram;
+	}
+
+	private long[] latencyHistogram(String type){
+		long[] histogram = new long[LATENCY_BUCKETS.length + 1];
+		AtomicLongArray typeHistogram = _latencyHistograms.get(type);
+		if(typeHistogram != null){
+			for (int i = 0; i < histogram.length; i++){
+				histogram[i] = typeHistogram.get(i);
+			}
+		}
+		return histogram;
+	}
+
+	public long[] getPngLatencyHistogram(){
+		return latencyHistogram(ERHighchartsTranscoding.TYPE_PNG);
+	}
+
+	public long[] getJpegLatencyHistogram(){
+		return latencyHistogram(ERHighchartsTranscoding.TYPE_JPEG);
+	}
+
+	public long[] getPdfLatencyHistogram(){
+		return latencyHistogram(ERHighchartsTranscoding.TYPE_PDF);
+	}
+
+	public long[] getSvgLatencyHistogram(){
+		return latencyHistogram(ERHighchartsTranscoding.TYPE_SVG);
+	}
+
+	public long[] getZipLatencyHistogram(){
+		return latencyHistogram(TYPE_ZIP);
+	}
+
+	public int getExportsInProgress(){
+		return _exportsInProgress.get();
+	}
+
+	public int getActiveTranscodes(){
+		return ERHighchartsTranscodingExecutor.sharedInstance().activeCount();
+	}
+
+	public int getQueuedTranscodes(){
+		return ERHighchartsTranscodingExecutor.sharedInstance().queuedCount();
+	}
+
+	public long getAbandonedTranscodes(){
+		return ERHighchartsTranscodingExecutor.sharedInstance().abandonedCount();
+	}
+
+	public int getRunningAbandonedTranscodes(){
+		return ERHighchartsTranscodingExecutor.sharedInstance().abandonedRunningCount();
+	}
+
+	public void reset(){
+		_exportCounts.clear();
+		_exportCount.set(0);
+		_failureCount.set(0);
+		_slowExportCount.set(0);
+		_inputBytes.set(0);
+		_outputBytes.set(0);
+		_totalLatency.set(0);
+		_latencyHistograms.clear();
+	}
+
+	/**
+	 * The number of bytes of the string encoded as UTF-8, without encoding it, 
+	 * so the input of every export is counted in the same unit.
+	 * @param string
+	 * @return
+	 */
+	public static long utf8Length(String string){
+		if(string == null){
+			return 0;
+		}
+		long length = 0;
+		for (int i = 0; i < string.length(); i++){
+			char c = string.charAt(i);
+			if(c < 0x80){
+				length += 1;
+			}else if(c < 0x800){
+				length += 2;
+			}else if(Character.isHighSurrogate(c) && i + 1 < string.length() && Character.isLowSurrogate(string.charAt(i + 1))){
+				length += 4;
+				i++;
+			}else{
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * The sizes and timings of one export. The timing begun by a request thread is the
+	 * current timing of that thread, and of the pool threads running its transcodes, so
+	 * the parse and transcode steps can add to it wherever they run.
+	 *
+	 * PDF exports are written as they are rendered, so their encoding time is counted as rendering.
+	 */
+	public static class Timing {
+
+		private static final ThreadLocal<Timing> _current = new ThreadLocal<Timing>();
+
+		private final ERHighchartsExportMetrics _metrics;
+		private final String _filename;
+		private final long _start = System.nanoTime();
+		private String _type;
+		private long _inputBytes;
+		private long _outputBytes;
+		private long _parse;
+		private long _transcode;
+		private long _encode;
+
+		/**
+		 * Begins timing an export on this thread.
+		 * @param metrics the metrics the export counts towards
+		 * @param filename the name of the export, for the slow export log
+		 * @return
+		 */
+		public static Timing begin(ERHighchartsExportMetrics metrics, String filename){
+			Timing timing = new Timing(metrics, filename);
+			_current.set(timing);
+			metrics._exportsInProgress.incrementAndGet();
+			return timing;
+		}
+
+		/**
+		 * The timing of the export this thread is working on, or null.
+		 * @return
+		 */
+		public static Timing current(){
+			return _current.get();
+		}
+
+		/**
+		 * The task, made to run with the current timing of the submitting thread.
+		 * @param task
+		 * @return
+		 */
+		public static <T> Callable<T> carry(final Callable<T> task){
+			final Timing timing = current();
+			if(timing == null){
+				return task;
+			}
+			return new Callable<T>() {
+				public T call() throws Exception {
+					Timing previous = current();
+					_current.set(timing);
+					try {
+						return task.call();
+					} finally {
+						_current.set(previous);
+					}
+				}
+			};
+		}
+
+		/**
+		 * Adds the time taken to parse an SVG document to the current timing, if any.
+		 * @param nanos
+		 */
+		public static void parsed(long nanos){
+			Timing timing = current();
+			if(timing != null){
+				synchronized(timing){
+					timing._parse += nanos;
+				}
+			}
+		}
+
+		/**
+		 * Adds the time taken by a transcoder, encoding included, to the current timing, if any.
+		 * @param nanos
+		 */
+		public static void transcoded(long nanos){
+			Timing timing = current();
+			if(timing != null){
+				synchronized(timing){
+					timing._transcode += nanos;
+				}
+			}
+		}
+
+		/**
+		 * Adds the time taken to encode a rendered image to the current timing, if any.
+		 * @param nanos
+		 */
+		public static void encoded(long nanos){
+			Timing timing = current();
+			if(timing != null){
+				synchronized(timing){
+					timing._encode += nanos;
+				}
+			}
+		}
+
+		private Timing(ERHighchartsExportMetrics metrics, String filename){
+			_metrics = metrics;
+			_filename = filename;
+		}
+
+		/**
+		 * Ends the timing on this thread.
+		 */
+		public void end(){
+			if(_current.get() == this){
+				_current.remove();
+				_metrics._exportsInProgress.decrementAndGet();
+			}
+		}
+
+		public String type(){
+			return _type;
+		}
+
+		/**
+		 * Sets the type of the export, recorded as its {@link ERHighchartsExportMetrics#exportType(String)}.
+		 * @param type the requested type
+		 */
+		public void setType(String type){
+			_type = exportType(type);
+		}
+
+		public long inputBytes(){
+			return _inputBytes;
+		}
+
+		public void setInputBytes(long inputBytes){
+			_inputBytes = inputBytes;
+		}
+
+		public long outputBytes(){
+			return _outputBytes;
+		}
+
+		public void setOutputBytes(long outputBytes){
+			_outputBytes = outputBytes;
+		}
+
+		/**
+		 * The time since the export began, in milliseconds
+		 * @return
+		 */
+		public long elapsed(){
+			return millis(System.nanoTime() - _start);
+		}
+
+		private static long millis(long nanos){
+			return nanos / 1000000;
+		}
+
+		@Override
+		public synchronized String toString(){
+			long total = elapsed();
+			long parse = millis(_parse);
+			long render = millis(_transcode - _encode);
+			long encode = millis(_encode);
+			return _filename + " (" + _type + ", " + _inputBytes + " bytes in, " + _outputBytes + " bytes out) in " + total
+					+ "ms: parse " + parse + "ms, render " + render + "ms, encode " + encode
+					+ "ms, other " + Math.max(0, total - parse - render - encode) + "ms";
+		}
+	}
+
+}
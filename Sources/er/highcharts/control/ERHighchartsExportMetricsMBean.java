@@ -0,0 +1,119 @@
+package er.highcharts.control;
+
+/**
+ * The JMX management interface of {@code ERHighchartsExportMetrics}.
+ *
+ * @author matt
+ *
+ */
+public interface ERHighchartsExportMetricsMBean {
+
+	/**
+	 * The number of successful exports, of every type
+	 * @return
+	 */
+	public long getExportCount();
+
+	public long getPngExportCount();
+
+	public long getJpegExportCount();
+
+	public long getPdfExportCount();
+
+	public long getSvgExportCount();
+
+	public long getZipExportCount();
+
+	/**
+	 * The number of exports which failed, were refused, or timed out
+	 * @return
+	 */
+	public long getFailureCount();
+
+	/**
+	 * The number of exports slower than the slow export threshold
+	 * @return
+	 */
+	public long getSlowExportCount();
+
+	/**
+	 * The total size of the exported SVG documents, in UTF-8 bytes
+	 * @return
+	 */
+	public long getInputBytes();
+
+	/**
+	 * The total size of the exports, in bytes
+	 * @return
+	 */
+	public long getOutputBytes();
+
+	/**
+	 * The mean time taken by an export, in milliseconds
+	 * @return
+	 */
+	public double getMeanLatency();
+
+	/**
+	 * The upper bounds of the latency histogram buckets, in milliseconds. The last
+	 * bucket of the histogram counts the exports slower than every bound.
+	 * @return
+	 */
+	public long[] getLatencyBuckets();
+
+	/**
+	 * The number of exports of every type in each latency bucket
+	 * @return
+	 */
+	public long[] getLatencyHistogram();
+
+	/**
+	 * The number of exports of the type in each latency bucket
+	 * @return
+	 */
+	public long[] getPngLatencyHistogram();
+
+	public long[] getJpegLatencyHistogram();
+
+	public long[] getPdfLatencyHistogram();
+
+	public long[] getSvgLatencyHistogram();
+
+	public long[] getZipLatencyHistogram();
+
+	/**
+	 * The number of export requests being handled
+	 * @return
+	 */
+	public int getExportsInProgress();
+
+	/**
+	 * The number of transcodes running on the transcoding pool
+	 * @return
+	 */
+	public int getActiveTranscodes();
+
+	/**
+	 * The number of transcodes waiting for a transcoding thread
+	 * @return
+	 */
+	public int getQueuedTranscodes();
+
+	/**
+	 * The number of transcodes cancelled while running, as when they timed out
+	 * @return
+	 */
+	public long getAbandonedTranscodes();
+
+	/**
+	 * The number of transcodes cancelled while running which still hold a transcoding thread
+	 * @return
+	 */
+	public int getRunningAbandonedTranscodes();
+
+	/**
+	 * Sets every count back to zero.
+	 */
+	public void reset();
+
+}
@@ -0,0 +1,129 @@
+package er.highcharts.control;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.webobjects.foundation.NSForwardException;
+
+import er.extensions.foundation.ERXProperties;
+
+/**
+ * Signed tokens which authorize exports without checking out the user's session.
+ * 
+ * When a secret is configured, {@code ERHighchart} adds a token to the export URL of each chart,
+ * signed with the secret over the session ID and an expiry time. {@code ERHighchartsRequestHandler}
+ * accepts an export with a valid, unexpired token for the requesting session straight away, 
+ * without restoring the session or consulting its delegate, so the export never blocks the 
+ * user's other requests.
+ * 
+ * Tokens expire between one and two lifetimes after they are issued. They are the same for
+ * a session throughout a lifetime, so cached chart JSON stays valid.
+ * 
+ * @property er.highcharts.transcode.tokenSecret
+ *           (String) The secret tokens are signed with. Tokens are not used unless it is set.
+ * @property er.highcharts.transcode.tokenLifetime
+ *           (long) The lifetime of a token in seconds. Defaults to 3600.
+ * 
+ * @author matt
+ *
+ */
+public class ERHighchartsExportToken {
+
+	/**
+	 * Properties
+	 */
+	private static final String SECRET_PROPERTY = "er.highcharts.transcode.tokenSecret";
+	private static final String LIFETIME_PROPERTY = "er.highcharts.transcode.tokenLifetime";
+
+	/**
+	 * The signature algorithm
+	 */
+	private static final String ALGORITHM = "HmacSHA1";
+
+	/**
+	 * Whether tokens are issued and accepted.
+	 * @return
+	 */
+	public static boolean isEnabled(){
+		return secret() != null;
+	}
+
+	private static String secret(){
+		String secret = ERXProperties.stringForKey(SECRET_PROPERTY);
+		return secret == null || secret.length() == 0 ? null : secret;
+	}
+
+	/**
+	 * A token for the session, or null if tokens are not enabled.
+	 * 
+	 * @param sessionID
+	 * @return
+	 */
+	public static String tokenForSession(String sessionID){
+		String secret = secret();
+		if(secret == null || sessionID == null){
+			return null;
+		}
+		long lifetime = Math.max(1, ERXProperties.longForKeyWithDefault(LIFETIME_PROPERTY, 3600));
+		long expiry = (System.currentTimeMillis() / 1000 / lifetime + 2) * lifetime;
+		return expiry + "-" + signature(secret, sessionID, expiry);
+	}
+
+	/**
+	 * Whether the token was issued for the session and has not expired.
+	 * 
+	 * @param token
+	 * @param sessionID
+	 * @return
+	 */
+	public static boolean isValid(String token, String sessionID){
+		String secret = secret();
+		if(secret == null || token == null || sessionID == null){
+			return false;
+		}
+		int separator = token.indexOf('-');
+		if(separator < 1){
+			return false;
+		}
+		long expiry;
+		try {
+			expiry = Long.parseLong(token.substring(0, separator));
+		} catch (NumberFormatException e) {
+			return false;
+		}
+		if(expiry < System.currentTimeMillis() / 1000){
+			return false;
+		}
+		return constantTimeEquals(signature(secret, sessionID, expiry), token.substring(separator + 1));
+	}
+
+	private static String signature(String secret, String sessionID, long expiry){
+		try {
+			Mac mac = Mac.getInstance(ALGORITHM);
+			mac.init(new SecretKeySpec(secret.getBytes("UTF-8"), ALGORITHM));
+			return ERHighchartsDigests.hex(mac.doFinal((sessionID + ":" + expiry).getBytes("UTF-8")));
+		} catch (GeneralSecurityException e) {
+			throw NSForwardException._runtimeExceptionForThrowable(e);
+		} catch (UnsupportedEncodingException e) {
+			throw NSForwardException._runtimeExceptionForThrowable(e);
+		}
+	}
+
+	/**
+	 * Compares the signatures without giving away how much of them matched.
+	 */
+	private static boolean constantTimeEquals(String a, String b){
+		if(a.length() != b.length()){
+			return false;
+		}
+		int difference = 0;
+		for (int i = 0; i < a.length(); i++){
+			difference |= a.charAt(i) ^ b.charAt(i);
+		}
+		return difference == 0;
+	}
+
+}
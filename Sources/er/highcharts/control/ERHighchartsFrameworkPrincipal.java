@@ -1,12 +1,15 @@
 package er.highcharts.control;
 
+import org.apache.log4j.Logger;
+
 import com.webobjects.appserver.WOApplication;
 
 import er.extensions.ERXFrameworkPrincipal;
 import er.extensions.foundation.ERXProperties;
 
 /**
- * The Framework Principal class responsible for initialising the ERHighcharts request handler for the application in use.
+ * The Framework Principal class responsible for initialising the ERHighcharts request handlers,
+ * JSON serialization engine, export metrics and script bundle for the application in use.
  * 
  * @author matt
  *
@@ -20,6 +23,11 @@ public class ERHighchartsFrameworkPrincipal extends ERXFrameworkPrincipal {
 		setUpFrameworkPrincipalClass(ERHighchartsFrameworkPrincipal.class);
 	}
 
+	/**
+	 * Standard Logger
+	 */
+	private static Logger log = Logger.getLogger(ERHighchartsFrameworkPrincipal.class);
+
 	/**
 	 * The Property key for application specific request handler keys
 	 */
@@ -31,16 +39,54 @@ public class ERHighchartsFrameworkPrincipal extends ERXFrameworkPrincipal {
 	 * Properties
 	 */
 	private static final String ERHIGHCHARTS_REQUEST_HANDLER_KEY_DEFAULT = "transcode";
+
+	/**
+	 * The Property key for the application specific live series request handler key
+	 */
+	private static final String ERHIGHCHARTS_LIVE_REQUEST_HANDLER_KEY_PROPERTY = "er.highcharts.live.requestHandlerKey";
+
+	/**
+	 * The default live series request handler key, when 
+	 * ERHIGHCHARTS_LIVE_REQUEST_HANDLER_KEY_PROPERTY is not present in the Application
+	 * Properties
+	 */
+	private static final String ERHIGHCHARTS_LIVE_REQUEST_HANDLER_KEY_DEFAULT = "highchartslive";
+
+	/**
+	 * The Property key for the application specific resource request handler key
+	 */
+	private static final String ERHIGHCHARTS_RESOURCE_REQUEST_HANDLER_KEY_PROPERTY = "er.highcharts.resources.requestHandlerKey";
+
+	/**
+	 * The default resource request handler key, when 
+	 * ERHIGHCHARTS_RESOURCE_REQUEST_HANDLER_KEY_PROPERTY is not present in the Application
+	 * Properties
+	 */
+	private static final String ERHIGHCHARTS_RESOURCE_REQUEST_HANDLER_KEY_DEFAULT = "highchartsresources";
 	
 //	public final static Class REQUIRES[] = new Class[] {ERXExtensions.class, Ajax.class};
 	 
 
 	/**
-	 * Set up the Request Handler.
+	 * Set up the Request Handlers, the shared JSON serialization engine, the export metrics MBean,
+	 * the bundle of the framework's scripts and, if asked, the headless rendering scopes.
 	 */
 	@Override
 	public void finishInitialization() {
+		ERHighchartsSerialization.sharedInstance().configure();
+		ERHighchartsExportMetrics.sharedInstance().register();
 		WOApplication.application().registerRequestHandler(new ERHighchartsRequestHandler(), requestHandlerKey());
+		WOApplication.application().registerRequestHandler(new ERHighchartsLiveRequestHandler(), liveRequestHandlerKey());
+		WOApplication.application().registerRequestHandler(new ERHighchartsResourceRequestHandler(), resourceRequestHandlerKey());
+		//builds the bundle, or logs why charts include the separate scripts
+		ERHighchartsResourceBundle.isEnabled();
+		if(ERHighchartsHeadlessRenderer.shouldWarm()){
+			try {
+				ERHighchartsHeadlessRenderer.sharedInstance().warm();
+			} catch (RuntimeException e) {
+				log.error("Unable to create the headless rendering scopes, they are created on first use.", e);
+			}
+		}
 	}
 
 	/**
@@ -51,6 +97,24 @@ public class ERHighchartsFrameworkPrincipal extends ERXFrameworkPrincipal {
 	public static String requestHandlerKey(){
 		return ERXProperties.stringForKeyWithDefault(ERHIGHCHARTS_REQUEST_HANDLER_KEY_PROPERTY, ERHIGHCHARTS_REQUEST_HANDLER_KEY_DEFAULT);
 	}
+
+	/**
+	 * The live series request handler key. Attempt to find it in the Application's 
+	 * Properties, and fall back on the default if it doesn't exist.
+	 * @return
+	 */
+	public static String liveRequestHandlerKey(){
+		return ERXProperties.stringForKeyWithDefault(ERHIGHCHARTS_LIVE_REQUEST_HANDLER_KEY_PROPERTY, ERHIGHCHARTS_LIVE_REQUEST_HANDLER_KEY_DEFAULT);
+	}
+
+	/**
+	 * The resource request handler key, for the bundled scripts. Attempt to find it in the 
+	 * Application's Properties, and fall back on the default if it doesn't exist.
+	 * @return
+	 */
+	public static String resourceRequestHandlerKey(){
+		return ERXProperties.stringForKeyWithDefault(ERHIGHCHARTS_RESOURCE_REQUEST_HANDLER_KEY_PROPERTY, ERHIGHCHARTS_RESOURCE_REQUEST_HANDLER_KEY_DEFAULT);
+	}
 	
 
 }
\ No newline at end of file
@@ -0,0 +1,345 @@
+package er.highcharts.control;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+import com.webobjects.appserver.WOApplication;
+import com.webobjects.foundation.NSData;
+import com.webobjects.foundation.NSForwardException;
+
+import er.extensions.foundation.ERXProperties;
+import er.highcharts.model.KVCAExtensionGraph;
+
+/**
+ * Renders charts to SVG on the server, without a browser, by running the bundled Highcharts
+ * scripts in Rhino, so chart images can be produced for emailed or scheduled reports.
+ *
+ * The scripts are compiled once. Each scripting scope, with a minimal DOM (see the
+ * <code>erhighcharts-headless.js</code> resource) and Highcharts loaded into it, is kept in
+ * a pool and reused, so only the first render in a scope pays for setting it up. A scope is
+ * used by one thread at a time; callers wait for a free scope when all are busy. A scope whose
+ * render failed is discarded, and the next caller creates a replacement. Set the warm property
+ * to create the whole pool when the application starts instead.
+ *
+ * The SVG is rendered on the caller's thread, bounded by the pool of scopes, and transcoded on
+ * the {@code ERHighchartsTranscodingExecutor}, like any other export.
+ *
+ * <pre>
+ * NSData png = ERHighchartsHeadlessRenderer.sharedInstance().transcode(graph, "image/png", 600, 400);
+ * </pre>
+ *
+ * Text is measured approximately, as there are no fonts to lay out with, so labels may be
+ * positioned slightly differently than in a browser.
+ *
+ * @property er.highcharts.headless.poolSize
+ *           (int) The number of scripting scopes, and so of concurrent renders. Defaults to 2.
+ * @property er.highcharts.headless.timeout
+ *           (int) The number of seconds to wait for a free scope. Defaults to 30.
+ * @property er.highcharts.headless.warm
+ *           (boolean) Whether the pool of scopes is created when the application starts. Defaults to false.
+ *
+ * @author matt
+ *
+ */
+public class ERHighchartsHeadlessRenderer {
+
+	/**
+	 * Standard Logger
+	 */
+	private static Logger log = Logger.getLogger(ERHighchartsHeadlessRenderer.class);
+
+	/**
+	 * Properties
+	 */
+	private static final String POOL_SIZE_PROPERTY = "er.highcharts.headless.poolSize";
+	private static final String TIMEOUT_PROPERTY = "er.highcharts.headless.timeout";
+	private static final String WARM_PROPERTY = "er.highcharts.headless.warm";
+
+	/**
+	 * Resources
+	 */
+	private static final String FRAMEWORK_NAME = "ERHighcharts";
+	private static final String ENVIRONMENT_RESOURCE = "erhighcharts-headless.js";
+	private static final String HIGHCHARTS_RESOURCE = "highcharts.js";
+
+	/**
+	 * The render function defined by the environment script
+	 */
+	private static final String RENDER_FUNCTION = "erhighchartsRender";
+
+	/**
+	 * The shared instance, created on first use
+	 */
+	private static ERHighchartsHeadlessRenderer _sharedInstance;
+
+	/**
+	 * The compiled environment and Highcharts scripts, shared by every scope
+	 */
+	private final Script[] _scripts;
+
+	/**
+	 * Queued in place of a discarded scope, so a waiting caller creates a replacement
+	 */
+	private static final Object REPLACEMENT = new Object();
+
+	/**
+	 * The scopes which are not rendering, and the replacements for discarded scopes
+	 */
+	private final LinkedBlockingQueue<Object> _idleScopes = new LinkedBlockingQueue<Object>();
+
+	/**
+	 * The number of scopes created and not discarded
+	 */
+	private final AtomicInteger _scopeCount = new AtomicInteger();
+
+	private final int _poolSize;
+	private final int _timeout;
+
+	/**
+	 * The shared renderer, configured from the Properties and the framework resources.
+	 * @return
+	 */
+	public static synchronized ERHighchartsHeadlessRenderer sharedInstance(){
+		if(_sharedInstance == null){
+			_sharedInstance = new ERHighchartsHeadlessRenderer(
+					resourceString(ENVIRONMENT_RESOURCE),
+					resourceString(HIGHCHARTS_RESOURCE),
+					ERXProperties.intForKeyWithDefault(POOL_SIZE_PROPERTY, 2),
+					ERXProperties.intForKeyWithDefault(TIMEOUT_PROPERTY, 30));
+		}
+		return _sharedInstance;
+	}
+
+	/**
+	 * Whether the pool of scopes is created when the application starts, see {@link #warm()}.
+	 * @return
+	 */
+	public static boolean shouldWarm(){
+		return ERXProperties.booleanForKeyWithDefault(WARM_PROPERTY, false);
+	}
+
+	private static String resourceString(String name){
+		byte[] bytes = WOApplication.application().resourceManager().bytesForResourceNamed(name, FRAMEWORK_NAME, null);
+		if(bytes == null){
+			throw new IllegalStateException("The resource " + name + " was not found in the " + FRAMEWORK_NAME + " framework.");
+		}
+		try {
+			return new String(bytes, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw NSForwardException._runtimeExceptionForThrowable(e);
+		}
+	}
+
+	/**
+	 * Standard constructor. Compiles the scripts; scopes are created as they are needed.
+	 *
+	 * @param environmentSource the source of the DOM and adapter environment
+	 * @param highchartsSource the source of highcharts.js
+	 * @param poolSize the maximum number of scopes
+	 * @param timeout the number of seconds to wait for a free scope
+	 */
+	public ERHighchartsHeadlessRenderer(String environmentSource, String highchartsSource, int poolSize, int timeout){
+		_poolSize = Math.max(1, poolSize);
+		_timeout = timeout;
+		Context cx = enterContext();
+		try {
+			_scripts = new Script[]{
+				cx.compileString(environmentSource, ENVIRONMENT_RESOURCE, 1, null),
+				cx.compileString(rhinoSafeSource(highchartsSource), HIGHCHARTS_RESOURCE, 1, null)
+			};
+		} finally {
+			Context.exit();
+		}
+	}
+
+	/**
+	 * Rhino 1.6 deletes an inherited property from the prototype when it is deleted from an
+	 * object, and Highcharts deletes every enumerable property of its objects when destroying
+	 * them, which would take the methods of every other object of the same kind with them.
+	 * Only own properties are deleted by the rewritten source.
+	 *
+	 * @param source
+	 * @return
+	 */
+	public static String rhinoSafeSource(String source){
+		return source.replaceAll("delete ([\\w$]+)\\[([\\w$]+)\\](?![.\\[])",
+				"(Object.prototype.hasOwnProperty.call($1,$2)&&delete $1[$2])");
+	}
+
+	/**
+	 * A context running in interpreted mode: highcharts.js is too large to compile to bytecode.
+	 */
+	private static Context enterContext(){
+		Context cx = Context.enter();
+		cx.setOptimizationLevel(-1);
+		return cx;
+	}
+
+	/**
+	 * Creates every scope in the pool now, rather than on first use, so the first renders are fast.
+	 */
+	public void warm(){
+		long start = System.currentTimeMillis();
+		while(_scopeCount.get() < _poolSize){
+			Scriptable scope = createScope();
+			if(scope == null){
+				break;
+			}
+			_idleScopes.offer(scope);
+		}
+		log.info("Created " + _scopeCount.get() + " headless rendering scopes in " + (System.currentTimeMillis() - start) + "ms");
+	}
+
+	/**
+	 * The SVG document for the graph.
+	 *
+	 * @param graph the chart options
+	 * @param width the chart width, or 0 for the graph's chart.width or the Highcharts default
+	 * @param height the chart height, or 0 for the graph's chart.height or the Highcharts default
+	 * @return
+	 */
+	public String svgForGraph(KVCAExtensionGraph graph, int width, int height){
+		try {
+			return svgForOptions(ERHighchartsSerialization.sharedInstance().writeValueAsString(graph), width, height);
+		} catch (IOException e) {
+			throw NSForwardException._runtimeExceptionForThrowable(e);
+		}
+	}
+
+	/**
+	 * The SVG document for the chart options, a JavaScript object literal such as
+	 * the {@code ERHighchartsSerialization} engine writes.
+	 *
+	 * @param optionsSource
+	 * @param width the chart width, or 0 for the default
+	 * @param height the chart height, or 0 for the default
+	 * @return
+	 */
+	public String svgForOptions(String optionsSource, int width, int height){
+		long start = System.currentTimeMillis();
+		Scriptable scope = checkOutScope();
+		boolean rendered = false;
+		Context cx = enterContext();
+		try {
+			Function render = (Function)ScriptableObject.getProperty(scope, RENDER_FUNCTION);
+			Object svg = render.call(cx, scope, scope, new Object[]{ optionsSource, Integer.valueOf(width), Integer.valueOf(height) });
+			rendered = true;
+			if(log.isDebugEnabled()){
+				log.debug("Rendered a chart in " + (System.currentTimeMillis() - start) + "ms");
+			}
+			return svg == null || svg == Context.getUndefinedValue() ? null : Context.toString(svg);
+		} finally {
+			Context.exit();
+			if(rendered){
+				_idleScopes.offer(scope);
+			}else{
+				//a failed render may have left the scope in any state
+				_scopeCount.decrementAndGet();
+				_idleScopes.offer(REPLACEMENT);
+			}
+		}
+	}
+
+	/**
+	 * Renders the graph and transcodes it with {@code ERHighchartsTranscoding}, on the
+	 * {@code ERHighchartsTranscodingExecutor}.
+	 *
+	 * @param graph the chart options
+	 * @param type one of the PNG, JPEG, PDF or SVG content types
+	 * @param width the chart width
+	 * @param height the chart height
+	 * @return
+	 * @throws java.util.concurrent.RejectedExecutionException if the transcoding pool and its queue are full
+	 * @throws TimeoutException if the transcode did not finish in time
+	 */
+	public NSData transcode(KVCAExtensionGraph graph, final String type, final int width, int height) throws TimeoutException {
+		final String svg = svgForGraph(graph, width, height);
+		if(svg == null){
+			return null;
+		}
+		if(ERHighchartsTranscoding.TYPE_SVG.equals(type)){
+			try {
+				return new NSData(svg.getBytes("UTF-8"));
+			} catch (UnsupportedEncodingException e) {
+				throw NSForwardException._runtimeExceptionForThrowable(e);
+			}
+		}
+		return ERHighchartsTranscodingExecutor.sharedInstance().execute(new Callable<NSData>(){
+			public NSData call(){
+				return ERHighchartsTranscoding.transcode(svg, type, new Float(width));
+			}
+		});
+	}
+
+	/**
+	 * An idle scope, a new one if the pool is not full, or the next to become idle or 
+	 * to be replaced.
+	 */
+	private Scriptable checkOutScope(){
+		long deadline = System.currentTimeMillis() + _timeout * 1000L;
+		Object idle = _idleScopes.poll();
+		while(true){
+			if(idle instanceof Scriptable){
+				return (Scriptable)idle;
+			}
+			Scriptable scope = createScope();
+			if(scope != null){
+				return scope;
+			}
+			long remaining = deadline - System.currentTimeMillis();
+			try {
+				idle = remaining > 0 ? _idleScopes.poll(remaining, TimeUnit.MILLISECONDS) : null;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw NSForwardException._runtimeExceptionForThrowable(e);
+			}
+			if(idle == null){
+				throw new IllegalStateException("No headless rendering scope became free within " + _timeout + " seconds.");
+			}
+		}
+	}
+
+	/**
+	 * A new scope with the scripts loaded, or null if the pool is full.
+	 */
+	private Scriptable createScope(){
+		if(_scopeCount.incrementAndGet() > _poolSize){
+			_scopeCount.decrementAndGet();
+			return null;
+		}
+		long start = System.currentTimeMillis();
+		Context cx = enterContext();
+		boolean created = false;
+		try {
+			ScriptableObject scope = cx.initStandardObjects();
+			for (Script script : _scripts){
+				script.exec(cx, scope);
+			}
+			created = true;
+			if(log.isDebugEnabled()){
+				log.debug("Created a headless rendering scope in " + (System.currentTimeMillis() - start) + "ms");
+			}
+			return scope;
+		} finally {
+			Context.exit();
+			if(!created){
+				_scopeCount.decrementAndGet();
+				//let the next waiting caller try again
+				_idleScopes.offer(REPLACEMENT);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,53 @@
+package er.highcharts.control;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream which fails once the writing thread is interrupted.
+ * 
+ * Batik and FOP never check whether their thread was interrupted, so a transcode cancelled
+ * by the {@code ERHighchartsTranscodingExecutor} would run to its end. Writing the transcoded
+ * content through this stream aborts it at its next write instead. The interrupt status of 
+ * the thread is kept.
+ * 
+ * @author matt
+ *
+ */
+public class ERHighchartsInterruptibleOutputStream extends FilterOutputStream {
+
+	/**
+	 * Standard constructor
+	 * @param out the stream written to
+	 */
+	public ERHighchartsInterruptibleOutputStream(OutputStream out){
+		super(out);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		checkInterrupted();
+		out.write(b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		checkInterrupted();
+		out.write(b, off, len);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		checkInterrupted();
+		out.flush();
+	}
+
+	private static void checkInterrupted() throws InterruptedIOException {
+		if(Thread.currentThread().isInterrupted()){
+			throw new InterruptedIOException("The transcode was cancelled.");
+		}
+	}
+
+}
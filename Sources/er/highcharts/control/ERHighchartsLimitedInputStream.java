@@ -0,0 +1,88 @@
+package er.highcharts.control;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream which fails as soon as more than a maximum number of bytes are read from it,
+ * so an oversized (or maliciously compressed) export payload is refused before it is all in memory.
+ * 
+ * @author matt
+ *
+ */
+public class ERHighchartsLimitedInputStream extends FilterInputStream {
+
+	/**
+	 * Thrown when the stream exceeds its limit.
+	 */
+	public static class LimitExceededException extends IOException {
+		private static final long serialVersionUID = 1L;
+		
+		public LimitExceededException(long limit){
+			super("The payload is larger than the maximum of " + limit + " bytes.");
+		}
+	}
+
+	private final long _limit;
+	private long _count;
+
+	/**
+	 * Standard constructor
+	 * @param in the stream to read
+	 * @param limit the maximum number of bytes, 0 or less for no limit
+	 */
+	public ERHighchartsLimitedInputStream(InputStream in, long limit){
+		super(in);
+		_limit = limit;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		if(b >= 0){
+			count(1);
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int n = super.read(b, off, len);
+		if(n > 0){
+			count(n);
+		}
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = super.skip(n);
+		count(skipped);
+		return skipped;
+	}
+
+	/**
+	 * Marking would let the count go backwards.
+	 */
+	@Override
+	public boolean markSupported(){
+		return false;
+	}
+
+	private void count(long n) throws LimitExceededException {
+		_count += n;
+		if(_limit > 0 && _count > _limit){
+			throw new LimitExceededException(_limit);
+		}
+	}
+
+	/**
+	 * The number of bytes read so far
+	 * @return
+	 */
+	public long count(){
+		return _count;
+	}
+
+}
@@ -0,0 +1,298 @@
+package er.highcharts.control;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import com.webobjects.appserver.WOApplication;
+import com.webobjects.appserver.WOContext;
+import com.webobjects.appserver.WORequest;
+import com.webobjects.appserver.WORequestHandler;
+import com.webobjects.appserver.WOResponse;
+import com.webobjects.appserver.WOSession;
+import com.webobjects.foundation.NSArray;
+
+import er.extensions.foundation.ERXProperties;
+import er.highcharts.model.ERHighchartsLiveSeries;
+import er.highcharts.model.KVCAExtensionGraph;
+
+/**
+ * ERHighchartsLiveRequestHandler long-polls the {@code ERHighchartsLiveSeries} followed by a
+ * live chart, answering with only the points added since the chart last asked, which the
+ * page appends to the chart with <code>addPoint</code>, see <code>erhighcharts.js</code>.
+ *
+ * The request handler is sent the series and the last sequence number seen of each,
+ * in the same order:
+ *
+ * <ul>
+ * 	<li>series - the name of a published live series</li>
+ * 	<li>since - the sequence number of the last point of the series shown by the chart</li>
+ * </ul>
+ *
+ * The request waits until any of the series has new points, or the timeout passes, and is
+ * answered with a JSON list of <code>{name, sequence, capacity, data}</code> updates. The
+ * session is not held while waiting, so a waiting request never holds up the user's other
+ * requests, but each waiting request occupies a worker thread: the application must handle
+ * requests concurrently (<code>WOAllowsConcurrentRequestHandling=true</code>), or a single
+ * live chart stalls it. Requests beyond the maximum number waiting are answered with a 503,
+ * and the page tries again later.
+ *
+ * Live series are published to the whole application, but a request may only follow the
+ * series its session was allowed, see {@link #allowSeries(WOSession, Collection)}, which
+ * {@code ERHighchart} does for the series of the live charts it renders. Set a delegate to
+ * decide otherwise, for example for pages without a session. An unknown or refused series
+ * is answered with a 404.
+ *
+ * @property er.highcharts.live.timeout
+ *           (int) The number of seconds a request waits for new points. Defaults to 20.
+ * @property er.highcharts.live.maxWaiting
+ *           (int) The number of requests which may wait at once. Defaults to 32.
+ *
+ * @author matt
+ *
+ */
+public class ERHighchartsLiveRequestHandler extends WORequestHandler {
+
+	/**
+	 * Standard Logging
+	 */
+	public static final Logger log = Logger.getLogger(ERHighchartsLiveRequestHandler.class);
+
+	/**
+	 * Request keys
+	 */
+	private static final String FORM_KEY_SERIES = "series";
+	private static final String FORM_KEY_SINCE = "since";
+	private static final String FORM_KEY_WOSID = "wosid";
+
+	/**
+	 * Property for the long poll timeout
+	 */
+	private static final String TIMEOUT_PROPERTY = "er.highcharts.live.timeout";
+
+	/**
+	 * Property for the number of requests which may wait at once
+	 */
+	private static final String MAX_WAITING_PROPERTY = "er.highcharts.live.maxWaiting";
+
+	/**
+	 * The session key of the series the session may follow
+	 */
+	private static final String SESSION_KEY = ERHighchartsLiveRequestHandler.class.getName();
+
+	/**
+	 * The response content type
+	 */
+	private static final String TYPE_JSON = "application/json; charset=UTF-8";
+
+	/**
+	 * Response status for an unknown or refused series
+	 */
+	private static final int STATUS_NOT_FOUND = 404;
+
+	/**
+	 * Response status when too many requests are waiting, or the wait was interrupted, 
+	 * for example by the application shutting down
+	 */
+	private static final int STATUS_UNAVAILABLE = 503;
+
+	/**
+	 * The delegate definition for this request handler.
+	 */
+	public static interface Delegate {
+		/**
+		 * Called before following a live series
+		 *
+		 * @param request
+		 *            the current request
+		 * @param name
+		 *            the name of the series
+		 * @return true if the request may follow the series
+		 */
+		public boolean seriesVisible(WORequest request, String name);
+	}
+
+	/**
+	 * The delegate for this handler
+	 */
+	private ERHighchartsLiveRequestHandler.Delegate _delegate;
+
+	/**
+	 * The number of requests waiting
+	 */
+	private final AtomicInteger _waiting = new AtomicInteger();
+
+	/**
+	 * Sets the delegate for this request handler, which decides which series requests may
+	 * follow in place of the session.
+	 *
+	 * @param delegate
+	 *            the delegate for this request handler
+	 */
+	public void setDelegate(ERHighchartsLiveRequestHandler.Delegate delegate) {
+		_delegate = delegate;
+	}
+
+	/**
+	 * The request handler method.
+	 */
+	@Override
+	public WOResponse handleRequest(WORequest request) {
+		WOApplication application = WOApplication.application();
+		application.awake();
+
+		try {
+			WOContext context = application.createContextForRequest(request);
+			WOResponse response = application.createResponseInContext(context);
+			response.setHeader("no-cache", "cache-control");
+			response.setHeader("no-cache", "pragma");
+
+			try {
+				NSArray<Object> names = request.formValuesForKey(FORM_KEY_SERIES);
+				NSArray<Object> sinces = request.formValuesForKey(FORM_KEY_SINCE);
+				if (names == null || names.count() == 0) {
+					response.setStatus(STATUS_NOT_FOUND);
+					return response;
+				}
+
+				Set<String> allowed = _delegate == null ? allowedSeries(application, context, request) : null;
+				List<ERHighchartsLiveSeries> series = new ArrayList<ERHighchartsLiveSeries>(names.count());
+				long[] sequences = new long[names.count()];
+				for (int i = 0; i < names.count(); i++) {
+					String name = names.objectAtIndex(i).toString();
+					ERHighchartsLiveSeries live = ERHighchartsLiveSeries.seriesNamed(name);
+					boolean visible = _delegate != null ? _delegate.seriesVisible(request, name) : allowed.contains(name);
+					if (live == null || !visible) {
+						response.setStatus(STATUS_NOT_FOUND);
+						return response;
+					}
+					series.add(live);
+					sequences[i] = sinces != null && i < sinces.count() ? Long.parseLong(sinces.objectAtIndex(i).toString()) : 0;
+				}
+
+				if (_waiting.incrementAndGet() > maxWaiting()) {
+					_waiting.decrementAndGet();
+					response.setStatus(STATUS_UNAVAILABLE);
+					return response;
+				}
+				try {
+					ERHighchartsLiveSeries.awaitUpdate(series, sequences, timeout() * 1000L);
+				} finally {
+					_waiting.decrementAndGet();
+				}
+
+				List<KVCAExtensionGraph> updates = new ArrayList<KVCAExtensionGraph>(series.size());
+				for (int i = 0; i < series.size(); i++) {
+					ERHighchartsLiveSeries live = series.get(i);
+					ERHighchartsLiveSeries.Update update = live.updateSince(sequences[i]);
+					KVCAExtensionGraph graph = new KVCAExtensionGraph();
+					graph.takeValueForKey(live.name(), "name");
+					graph.takeValueForKey(Long.valueOf(update.sequence()), "sequence");
+					graph.takeValueForKey(Integer.valueOf(live.capacity()), "capacity");
+					graph.takeValueForKey(update.data(), "data");
+					updates.add(graph);
+				}
+
+				ERHighchartsSerialization.sharedInstance().writeValue(new ERHighchartsResponseWriter(response), updates);
+				response.setHeader(TYPE_JSON, "Content-Type");
+				response.setStatus(200);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				response.setStatus(STATUS_UNAVAILABLE);
+			} catch (Exception e) {
+				log.error("Unable to follow the live series " + request.formValuesForKey(FORM_KEY_SERIES), e);
+				response.setContent(e.getMessage());
+				response.setStatus(500);
+			}
+			return response;
+		} finally {
+			application.sleep();
+		}
+	}
+
+	/**
+	 * The series the session of the request may follow. The session is checked out only
+	 * to read them, and checked in again before waiting.
+	 *
+	 * @return the names of the series, empty without a session
+	 */
+	@SuppressWarnings("unchecked")
+	protected Set<String> allowedSeries(WOApplication application, WOContext context, WORequest request) {
+		String wosid = request.stringFormValueForKey(FORM_KEY_WOSID);
+		if (wosid == null) {
+			wosid = request.cookieValueForKey(FORM_KEY_WOSID);
+		}
+		Set<String> allowed = new HashSet<String>();
+		if (wosid == null) {
+			return allowed;
+		}
+		context._setRequestSessionID(wosid);
+		WOSession session = application.restoreSessionWithID(wosid, context);
+		if (session != null) {
+			try {
+				synchronized (session) {
+					Set<String> names = (Set<String>) session.objectForKey(SESSION_KEY);
+					if (names != null) {
+						allowed.addAll(names);
+					}
+				}
+			} finally {
+				application.saveSessionForContext(context);
+			}
+		}
+		return allowed;
+	}
+
+	/**
+	 * Allows the session to follow the series.
+	 *
+	 * @param session
+	 * @param names the names of the series
+	 */
+	@SuppressWarnings("unchecked")
+	public static void allowSeries(WOSession session, Collection<String> names) {
+		synchronized (session) {
+			Set<String> allowed = (Set<String>) session.objectForKey(SESSION_KEY);
+			if (allowed == null) {
+				allowed = new HashSet<String>();
+				session.setObjectForKey(allowed, SESSION_KEY);
+			}
+			allowed.addAll(names);
+		}
+	}
+
+	/**
+	 * The number of seconds a request waits for new points
+	 * @return
+	 */
+	protected int timeout() {
+		return ERXProperties.intForKeyWithDefault(TIMEOUT_PROPERTY, 20);
+	}
+
+	/**
+	 * The number of requests which may wait at once
+	 * @return
+	 */
+	protected int maxWaiting() {
+		return ERXProperties.intForKeyWithDefault(MAX_WAITING_PROPERTY, 32);
+	}
+
+	/**
+	 * Returns the URL pointing to this request handler, without the series arguments,
+	 * which the page adds. The URL carries the session, if there is one, so the request
+	 * may follow the series the session was allowed.
+	 *
+	 * @param context the current WOContext
+	 * @return an {@code ERHighchartsLiveRequestHandler} request handler URL
+	 */
+	public static String liveUrl(WOContext context) {
+		String query = context.hasSession() ? FORM_KEY_WOSID + "=" + context.session().sessionID() : null;
+		return context.urlWithRequestHandlerKey(ERHighchartsFrameworkPrincipal.liveRequestHandlerKey(), null, query);
+	}
+
+}
@@ -1,5 +1,18 @@
 package er.highcharts.control;
 
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
 import org.apache.log4j.Logger;
 
 import com.webobjects.appserver.WOApplication;
@@ -7,9 +20,12 @@ import com.webobjects.appserver.WOContext;
 import com.webobjects.appserver.WORequest;
 import com.webobjects.appserver.WORequestHandler;
 import com.webobjects.appserver.WOResponse;
-import com.webobjects.appserver.WOSession;
+import com.webobjects.foundation.NSArray;
 import com.webobjects.foundation.NSData;
 import com.webobjects.foundation.NSLog;
+import com.webobjects.foundation.NSMutableArray;
+
+import er.extensions.foundation.ERXProperties;
 
 
 /**
@@ -32,8 +48,46 @@ import com.webobjects.foundation.NSLog;
  *  <li>width - the width of the destination file, if possible</li>
  * <ul>
  * 
+ * The type may be given more than once, to receive a ZIP archive containing the document 
+ * exported to each of the types. The SVG document is parsed only once for all of them.
+ * 
+ * A batch of documents is exported as a ZIP archive when the keys are indexed from zero: 
+ * svg0, type0, width0, filename0, then svg1 and so on. The documents are transcoded in 
+ * parallel, see {@code ERHighchartsBatchExport}.
+ * 
+ * The session of the request is checked out while the delegate authorizes the export. Set 
+ * <code>er.highcharts.transcode.releaseSessionEarly</code> to check it back in before the 
+ * export starts, so a slow export does not hold up the user's other requests. An export 
+ * with a valid token, see {@code ERHighchartsExportToken}, does not use the session at all.
+ * 
+ * Large documents can be sent as the body of the request instead, with the content type 
+ * image/svg+xml (optionally gzip content encoded) and the other arguments in the query string. 
+ * The body is parsed as it is read, without being held as a String. Requests larger than 
+ * <code>er.highcharts.transcode.maxPayloadSize</code> bytes (32MB by default, 0 for no limit) 
+ * are refused with a 413. The body is only read as a stream when WebObjects streams the 
+ * request content, which it does for content larger than <code>WOMaxIOBufferSize</code> bytes
+ * when the request is received by the default adaptor; otherwise the whole body is already in 
+ * memory when the request is handled, and is parsed from there.
+ * 
+ * Exports are not cached by clients, unless <code>er.highcharts.transcode.clientCaching</code> 
+ * is set. Then each export requested with a GET is given a strong ETag derived from the SVG 
+ * document, the export options and the filename, a request whose If-None-Match matches is 
+ * answered with a 304 before any transcoding, and the Cache-Control header is taken from 
+ * <code>er.highcharts.transcode.cacheControl.png</code> (or jpg, pdf, svg, zip), falling back 
+ * on <code>er.highcharts.transcode.cacheControl.default</code>, "private, max-age=3600" by default.
+ * The arguments of a GET export are sent in the query string, for example a link to
+ * <code>.../App.woa/transcode?svg=...&amp;type=image/png&amp;width=600&amp;filename=chart</code> (URL 
+ * encoded), which suits small documents. The Highcharts export menu POSTs its exports, and 
+ * browsers and proxies neither cache nor revalidate POST responses, so those exports are never 
+ * given an ETag. Batch exports are never cached.
+ * 
  * These values can be overridden in the KVCAExtensionGraph graph object.
  * 
+ * Transcoding runs on the bounded {@code ERHighchartsTranscodingExecutor} pool. When the pool
+ * is saturated, or a transcode takes too long, a 503 is returned with a <code>Retry-After</code> header.
+ * Transcoded exports may be cached, see {@code ERHighchartsTranscodeCache}. Every export is
+ * counted and timed by the {@code ERHighchartsExportMetrics}.
+ * 
  * @author matt
  *
  */
@@ -52,14 +106,64 @@ public class ERHighchartsRequestHandler extends WORequestHandler {
 	private static final String FORM_KEY_TYPE = "type";
 	private static final String FORM_KEY_FILENAME = "filename";
 	private static final String FORM_KEY_WOSID = "wosid";
+	private static final String FORM_KEY_TOKEN = "token";
+
+	/**
+	 * Property to check the session back in as soon as the export is authorized
+	 */
+	private static final String RELEASE_SESSION_EARLY_PROPERTY = "er.highcharts.transcode.releaseSessionEarly";
 
 	/**
 	 * response content types
 	 */
-	private static final String TYPE_PNG = "image/png";
-	private static final String TYPE_JPEG = "image/jpeg";
-	private static final String TYPE_SVG = "image/svg+xml";
-	private static final String TYPE_PDF = "application/pdf";
+	private static final String TYPE_PNG = ERHighchartsTranscoding.TYPE_PNG;
+	private static final String TYPE_JPEG = ERHighchartsTranscoding.TYPE_JPEG;
+	private static final String TYPE_SVG = ERHighchartsTranscoding.TYPE_SVG;
+	private static final String TYPE_PDF = ERHighchartsTranscoding.TYPE_PDF;
+	private static final String TYPE_ZIP = "application/zip";
+	
+	/**
+	 * The name of exports with no filename
+	 */
+	private static final String DEFAULT_FILENAME = "chart";
+	
+	/**
+	 * The buffer size for streaming content
+	 */
+	private static final int BUFFER_SIZE = 32 * 1024;
+	
+	/**
+	 * Property for the maximum size of an export request
+	 */
+	private static final String MAX_PAYLOAD_SIZE_PROPERTY = "er.highcharts.transcode.maxPayloadSize";
+	private static final long DEFAULT_MAX_PAYLOAD_SIZE = 32L * 1024 * 1024;
+	
+	/**
+	 * Properties for client caching
+	 */
+	private static final String CLIENT_CACHING_PROPERTY = "er.highcharts.transcode.clientCaching";
+	private static final String CACHE_CONTROL_PROPERTY_PREFIX = "er.highcharts.transcode.cacheControl.";
+	private static final String DEFAULT_CACHE_CONTROL = "private, max-age=3600";
+	
+	/**
+	 * Response status when the client already has the export
+	 */
+	private static final int STATUS_NOT_MODIFIED = 304;
+	
+	/**
+	 * Response status for an oversized export request
+	 */
+	private static final int STATUS_TOO_LARGE = 413;
+	
+	/**
+	 * Response header reporting whether the export came from the {@code ERHighchartsTranscodeCache}
+	 */
+	private static final String CACHE_HEADER = "X-Cache";
+	
+	/**
+	 * Response status when the transcoding pool is saturated or too slow
+	 */
+	private static final int STATUS_UNAVAILABLE = 503;
 	
 
 	/**
@@ -104,6 +208,12 @@ public class ERHighchartsRequestHandler extends WORequestHandler {
 		try {
 			WOContext context = application.createContextForRequest(request);
 			WOResponse response = application.createResponseInContext(context);
+			
+			//refuse an oversized export before its form values are read
+			if (isPayloadTooLarge(request)) {
+				tooLarge(response, "The export is larger than the maximum of " + maxPayloadSize() + " bytes.");
+				return response;
+			}
 
 			String wosid = (String) request.formValueForKey(FORM_KEY_WOSID);
 			if (wosid == null) {
@@ -111,58 +221,133 @@ public class ERHighchartsRequestHandler extends WORequestHandler {
 			}
 			context._setRequestSessionID(wosid);
 			
-			WOSession session = null;
+			//a valid token authorizes the export without the session
+			boolean authorizedByToken = ERHighchartsExportToken.isValid(request.stringFormValueForKey(FORM_KEY_TOKEN), wosid);
+			boolean sessionCheckedOut = false;
 			
-			if (context._requestSessionID() != null) {
-				session = WOApplication.application().restoreSessionWithID(wosid, context);
+			if (context._requestSessionID() != null && !authorizedByToken) {
+				WOApplication.application().restoreSessionWithID(wosid, context);
+				sessionCheckedOut = true;
 			}
 			
+			ERHighchartsExportMetrics metrics = ERHighchartsExportMetrics.sharedInstance();
+			ERHighchartsExportMetrics.Timing timing = ERHighchartsExportMetrics.Timing.begin(metrics, request.stringFormValueForKey(FORM_KEY_FILENAME));
+			
 			try {
 
 				try {
 
-					String svgString = request.stringFormValueForKey(FORM_KEY_SVG);
-					Float width = new Float(request.stringFormValueForKey(FORM_KEY_WIDTH));
-					String filename = request.stringFormValueForKey(FORM_KEY_FILENAME);
-					String type = request.stringFormValueForKey(FORM_KEY_TYPE);
-					
-					if (_delegate != null && !_delegate.reportVisible(request, context)) {
+					if (!authorizedByToken && _delegate != null && !_delegate.reportVisible(request, context)) {
 						throw new SecurityException("You are not allowed to view the requested report.");
 					}
 					
-					if(TYPE_PNG.equals(type)){
-						NSData im  = ERHighchartsTranscoding.pngTranscode(svgString, width);
-						response.setContent(im);
-					}else if(TYPE_JPEG.equals(type)){
-						NSData im = ERHighchartsTranscoding.jpegTranscode(svgString, width);
-						response.setContent(im);
-					}else if (TYPE_SVG.equals(type)){
-						response.setContent(svgString);
-					}else if (TYPE_PDF.equals(type)){
-						NSData im = ERHighchartsTranscoding.pdfTranscode(svgString, width);
-						response.setContent(im);
+					//the session is only needed to authorize the export, so let the user's other requests have it
+					if (sessionCheckedOut && releasesSessionEarly()) {
+						WOApplication.application().saveSessionForContext(context);
+						sessionCheckedOut = false;
+					}
+					
+					String filename = request.stringFormValueForKey(FORM_KEY_FILENAME);
+					String type = request.stringFormValueForKey(FORM_KEY_TYPE);
+					String etag = null;
+					timing.setType(type);
+					
+					if (isBatchRequest(request)){
+						List<ERHighchartsBatchExport.Item> items = batchItems(request);
+						long inputBytes = 0;
+						for (ERHighchartsBatchExport.Item item : items) {
+							inputBytes += ERHighchartsExportMetrics.utf8Length(item.svgString());
+						}
+						timing.setInputBytes(inputBytes);
+						ERHighchartsBatchExport batch = new ERHighchartsBatchExport(items, ERHighchartsTranscodingExecutor.sharedInstance());
+						batch.write();
+						response.setContentStream(batch.inputStream(), BUFFER_SIZE, batch.length());
+						timing.setOutputBytes(batch.length());
+						type = TYPE_ZIP;
+						filename = (filename != null ? filename : DEFAULT_FILENAME) + ".zip";
+					}else if (isStreamingRequest(request)){
+						Float width = new Float(request.stringFormValueForKey(FORM_KEY_WIDTH));
+						ERHighchartsLimitedInputStream svgStream = svgInputStream(request);
+						if (TYPE_SVG.equals(type)){
+							response.setContent(new NSData(svgStream, BUFFER_SIZE));
+						}else{
+							ERHighchartsSVGDocument document = parse(svgStream);
+							etag = etag(request, document.digest(), type, width, filename);
+							if (isNotModified(request, etag)) {
+								return notModified(response, type, etag);
+							}
+							response.setContent(transcode(response, document, type, width));
+						}
+						timing.setInputBytes(svgStream.count());
+					}else{
+						String svgString = request.stringFormValueForKey(FORM_KEY_SVG);
+						Float width = new Float(request.stringFormValueForKey(FORM_KEY_WIDTH));
+						NSArray<String> types = typesForRequest(request);
+						timing.setInputBytes(ERHighchartsExportMetrics.utf8Length(svgString));
+						
+						if (clientCachingEnabled()) {
+							etag = etag(request, ERHighchartsTranscodeCache.digest(svgString), types.componentsJoinedByString(","), width, filename);
+							if (isNotModified(request, etag)) {
+								return notModified(response, types.count() > 1 ? TYPE_ZIP : type, etag);
+							}
+						}
+						
+						if (types.count() > 1){
+							response.setContent(transcodeToZip(svgString, types, width, filename));
+							type = TYPE_ZIP;
+							filename = filename + ".zip";
+						}else if (TYPE_SVG.equals(type)){
+							response.setContent(svgString);
+						}else if (TYPE_PNG.equals(type) || TYPE_JPEG.equals(type) || TYPE_PDF.equals(type)){
+							response.setContent(transcode(response, svgString, type, width));
+						}
 					}
 					
 					response.setHeader(type, "Content-Type");
 					response.setHeader("attachment;filename=\"" + filename + "\"", "content-disposition");
-					response.disableClientCaching();
-					response.setHeader("no-cache", "cache-control");
-					response.setHeader("no-cache", "pragma");
+					if (etag != null) {
+						cacheable(response, type, etag);
+					}else{
+						response.disableClientCaching();
+						response.setHeader("no-cache", "cache-control");
+						response.setHeader("no-cache", "pragma");
+					}
 					response.setStatus(200);
+					
+					timing.setType(type);
+					if (!isBatchRequest(request)) {
+						timing.setOutputBytes(response.content() != null ? response.content().length() : 0);
+					}
+					metrics.exported(timing);
 					return response;
+				} catch (RejectedExecutionException e) {
+					metrics.failed(timing);
+					log.warn("Transcoding pool is saturated, refusing the export: " + e.getMessage());
+					unavailable(response, "The server is busy exporting other charts, please try again shortly.");
+				} catch (TimeoutException e) {
+					metrics.failed(timing);
+					log.warn("Transcoding timed out, the export was abandoned: " + timing);
+					unavailable(response, "The export took too long, please try again shortly.");
+				} catch (ERHighchartsLimitedInputStream.LimitExceededException e) {
+					metrics.failed(timing);
+					log.warn(e.getMessage());
+					tooLarge(response, e.getMessage());
 				} catch (SecurityException e) {
+					metrics.failed(timing);
 					NSLog.out.appendln(e);
 					response.setContent(e.getMessage());
 					response.setStatus(403);
 				} catch (Exception e) {
-					NSLog.out.appendln(e);
+					metrics.failed(timing);
+					log.error("Unable to export " + timing, e);
 					response.setContent(e.getMessage());
 					response.setStatus(500);
 				}
 
 				return response;
 			} finally {
-				if (context._requestSessionID() != null) {
+				timing.end();
+				if (sessionCheckedOut) {
 					WOApplication.application().saveSessionForContext(context);
 				}
 			}
@@ -171,6 +356,394 @@ public class ERHighchartsRequestHandler extends WORequestHandler {
 		}
 	}
 	
+	/**
+	 * Transcodes the SVG document on the shared transcoding pool, rather than on this worker thread,
+	 * so exports can never occupy more than the configured number of threads.
+	 * 
+	 * When the {@code ERHighchartsTranscodeCache} is enabled, a previous export of the same document
+	 * with the same options is returned without transcoding, and the <code>X-Cache</code> response 
+	 * header reports a <code>HIT</code> or <code>MISS</code>.
+	 * 
+	 * @param response
+	 * @param svgString
+	 * @param type
+	 * @param width
+	 * @return the transcoded content
+	 * @throws RejectedExecutionException if the pool and its queue are full
+	 * @throws TimeoutException if the transcode took longer than the configured timeout
+	 */
+	protected NSData transcode(WOResponse response, final String svgString, final String type, final Float width) throws TimeoutException {
+		String key = ERHighchartsTranscodeCache.isEnabled() ? ERHighchartsTranscodeCache.keyFor(svgString, type, width) : null;
+		return transcode(response, key, new Callable<NSData>() {
+			public NSData call() {
+				return ERHighchartsTranscoding.transcode(svgString, type, width);
+			}
+		});
+	}
+	
+	/**
+	 * Parses the SVG document from the stream on the shared transcoding pool.
+	 * 
+	 * @param svgStream
+	 * @return
+	 * @throws RejectedExecutionException if the pool and its queue are full
+	 * @throws TimeoutException if the parse took longer than the configured timeout
+	 * @throws ERHighchartsLimitedInputStream.LimitExceededException if the document is larger than the maximum payload size
+	 */
+	protected ERHighchartsSVGDocument parse(final InputStream svgStream) throws TimeoutException, IOException {
+		try {
+			return ERHighchartsTranscodingExecutor.sharedInstance().execute(new Callable<ERHighchartsSVGDocument>() {
+				public ERHighchartsSVGDocument call() throws IOException {
+					return ERHighchartsSVGDocument.documentForStream(svgStream);
+				}
+			});
+		} catch (RuntimeException e) {
+			//an oversized document is refused, rather than failing
+			if (e.getCause() instanceof ERHighchartsLimitedInputStream.LimitExceededException) {
+				throw (ERHighchartsLimitedInputStream.LimitExceededException)e.getCause();
+			}
+			throw e;
+		}
+	}
+	
+	/**
+	 * Transcodes the parsed SVG document on the shared transcoding pool.
+	 * 
+	 * @param response
+	 * @param document
+	 * @param type
+	 * @param width
+	 * @return the transcoded content
+	 * @throws RejectedExecutionException if the pool and its queue are full
+	 * @throws TimeoutException if the transcode took longer than the configured timeout
+	 */
+	protected NSData transcode(WOResponse response, final ERHighchartsSVGDocument document, final String type, final Float width) throws TimeoutException {
+		String key = ERHighchartsTranscodeCache.isEnabled() ? ERHighchartsTranscodeCache.keyForDigest(document.digest(), type, width) : null;
+		return transcode(response, key, new Callable<NSData>() {
+			public NSData call() {
+				return document.transcode(type, width);
+			}
+		});
+	}
+	
+	/**
+	 * Runs the transcoding task on the pool, unless the export with the cache key is cached.
+	 * 
+	 * @param response
+	 * @param key the {@code ERHighchartsTranscodeCache} key, null if the cache is disabled
+	 * @param task
+	 * @return the transcoded content
+	 * @throws TimeoutException
+	 */
+	private NSData transcode(WOResponse response, String key, Callable<NSData> task) throws TimeoutException {
+		ERHighchartsTranscodeCache cache = null;
+		if(key != null){
+			cache = ERHighchartsTranscodeCache.sharedInstance();
+			NSData cached = cache.get(key);
+			if(cached != null){
+				response.setHeader("HIT", CACHE_HEADER);
+				return cached;
+			}
+			response.setHeader("MISS", CACHE_HEADER);
+		}
+		
+		NSData data = ERHighchartsTranscodingExecutor.sharedInstance().execute(task);
+		
+		if(cache != null && data != null){
+			cache.put(key, data);
+			if(log.isDebugEnabled()){
+				log.debug(cache);
+			}
+		}
+		return data;
+	}
+	
+	/**
+	 * Whether the SVG document is the body of the request, rather than a form value.
+	 * 
+	 * @param request
+	 * @return
+	 */
+	protected boolean isStreamingRequest(WORequest request) {
+		String contentType = request.headerForKey("content-type");
+		return contentType != null && contentType.startsWith(TYPE_SVG);
+	}
+	
+	/**
+	 * The body of a streaming request, decompressed if it is gzip encoded, 
+	 * and limited to the maximum payload size. If WebObjects did not stream the
+	 * request, see <code>WOMaxIOBufferSize</code>, the body is read from the content
+	 * already in memory.
+	 * 
+	 * @param request
+	 * @return
+	 * @throws IOException
+	 */
+	protected ERHighchartsLimitedInputStream svgInputStream(WORequest request) throws IOException {
+		InputStream in = request.contentInputStream();
+		if (in == null) {
+			in = request.content().stream();
+		}
+		String encoding = request.headerForKey("content-encoding");
+		if (encoding != null && encoding.toLowerCase().indexOf("gzip") >= 0) {
+			in = new GZIPInputStream(new ERHighchartsLimitedInputStream(in, maxPayloadSize()));
+		}
+		return new ERHighchartsLimitedInputStream(in, maxPayloadSize());
+	}
+	
+	/**
+	 * The maximum size of an export request, and of its decompressed SVG document, in bytes.
+	 * 
+	 * @return
+	 */
+	protected long maxPayloadSize() {
+		return ERXProperties.longForKeyWithDefault(MAX_PAYLOAD_SIZE_PROPERTY, DEFAULT_MAX_PAYLOAD_SIZE);
+	}
+	
+	/**
+	 * Whether the declared length of the request is more than the maximum payload size.
+	 * 
+	 * @param request
+	 * @return
+	 */
+	protected boolean isPayloadTooLarge(WORequest request) {
+		long max = maxPayloadSize();
+		String length = request.headerForKey("content-length");
+		if (max <= 0 || length == null) {
+			return false;
+		}
+		try {
+			return Long.parseLong(length.trim()) > max;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Whether exports may be cached by browsers and proxies, validated by their ETag.
+	 * 
+	 * @return
+	 */
+	protected boolean clientCachingEnabled() {
+		return ERXProperties.booleanForKeyWithDefault(CLIENT_CACHING_PROPERTY, false);
+	}
+	
+	/**
+	 * The strong ETag of an export, derived from the digest of the SVG document, the 
+	 * export options and the filename sent in the content-disposition, or null if client 
+	 * caching is disabled or the request is not a GET, whose response can't be cached.
+	 * 
+	 * @param request
+	 * @param digest the digest of the SVG document
+	 * @param type the type, or types, of the export
+	 * @param width
+	 * @param filename
+	 * @return
+	 */
+	protected String etag(WORequest request, String digest, String type, Float width, String filename) {
+		if (!clientCachingEnabled() || digest == null || !"GET".equals(request.method())) {
+			return null;
+		}
+		return "\"" + ERHighchartsTranscodeCache.digest(ERHighchartsTranscodeCache.keyForDigest(digest, type, width) + "|" + filename) + "\"";
+	}
+	
+	/**
+	 * Whether the client already has the export with the ETag, according to its If-None-Match header.
+	 * 
+	 * @param request
+	 * @param etag
+	 * @return
+	 */
+	protected boolean isNotModified(WORequest request, String etag) {
+		String ifNoneMatch = request.headerForKey("if-none-match");
+		if (etag == null || ifNoneMatch == null) {
+			return false;
+		}
+		for (String candidate : ifNoneMatch.split(",")) {
+			candidate = candidate.trim();
+			if (candidate.startsWith("W/")) {
+				candidate = candidate.substring(2);
+			}
+			if (candidate.equals("*") || candidate.equals(etag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Answers the request with a 304, without content.
+	 * 
+	 * @param response
+	 * @param type the type of the export
+	 * @param etag
+	 * @return the response
+	 */
+	protected WOResponse notModified(WOResponse response, String type, String etag) {
+		cacheable(response, type, etag);
+		response.setStatus(STATUS_NOT_MODIFIED);
+		return response;
+	}
+	
+	/**
+	 * Sets the ETag and the Cache-Control header configured for the type.
+	 * 
+	 * @param response
+	 * @param type
+	 * @param etag
+	 */
+	protected void cacheable(WOResponse response, String type, String etag) {
+		String extension = ERHighchartsTranscoding.extensionForType(type);
+		if (TYPE_ZIP.equals(type)) {
+			extension = ".zip";
+		}
+		response.setHeader(etag, "ETag");
+		response.setHeader(ERXProperties.stringForKeyWithDefault(CACHE_CONTROL_PROPERTY_PREFIX + extension.replace(".", ""), 
+				ERXProperties.stringForKeyWithDefault(CACHE_CONTROL_PROPERTY_PREFIX + "default", DEFAULT_CACHE_CONTROL)), "cache-control");
+	}
+	
+	/**
+	 * Whether the session is checked back in once the delegate has authorized the export,
+	 * rather than once the export is done.
+	 * 
+	 * @return
+	 */
+	protected boolean releasesSessionEarly() {
+		return ERXProperties.booleanForKeyWithDefault(RELEASE_SESSION_EARLY_PROPERTY, false);
+	}
+	
+	/**
+	 * Whether the request is for a batch of exports, with indexed svg keys.
+	 * 
+	 * @param request
+	 * @return
+	 */
+	protected boolean isBatchRequest(WORequest request) {
+		return request.formValueForKey(FORM_KEY_SVG + "0") != null;
+	}
+	
+	/**
+	 * The exports of a batch request: svg0, type0, width0 and filename0, then svg1 and so on.
+	 * An item without a type, width or filename uses the unindexed value, or the defaults.
+	 * 
+	 * @param request
+	 * @return
+	 */
+	protected List<ERHighchartsBatchExport.Item> batchItems(WORequest request) {
+		String defaultType = request.stringFormValueForKey(FORM_KEY_TYPE);
+		String defaultWidth = request.stringFormValueForKey(FORM_KEY_WIDTH);
+		List<ERHighchartsBatchExport.Item> items = new ArrayList<ERHighchartsBatchExport.Item>();
+		for (int i = 0; request.formValueForKey(FORM_KEY_SVG + i) != null; i++) {
+			String type = request.stringFormValueForKey(FORM_KEY_TYPE + i);
+			String width = request.stringFormValueForKey(FORM_KEY_WIDTH + i);
+			String filename = request.stringFormValueForKey(FORM_KEY_FILENAME + i);
+			items.add(new ERHighchartsBatchExport.Item(
+					request.stringFormValueForKey(FORM_KEY_SVG + i), 
+					type != null ? type : (defaultType != null ? defaultType : TYPE_PNG), 
+					width != null ? new Float(width) : (defaultWidth != null ? new Float(defaultWidth) : null), 
+					filename != null ? filename : DEFAULT_FILENAME + "-" + (i + 1)));
+		}
+		return items;
+	}
+	
+	/**
+	 * The distinct types requested. More than one type may be requested at once, to receive 
+	 * a ZIP archive of each of them.
+	 * 
+	 * @param request
+	 * @return
+	 */
+	protected NSArray<String> typesForRequest(WORequest request) {
+		NSMutableArray<String> types = new NSMutableArray<String>();
+		NSArray<Object> values = request.formValuesForKey(FORM_KEY_TYPE);
+		if (values != null) {
+			for (Object value : values) {
+				if (value != null && !types.containsObject(value.toString())) {
+					types.addObject(value.toString());
+				}
+			}
+		}
+		return types;
+	}
+	
+	/**
+	 * Exports the SVG document to each of the types, returning a ZIP archive of the exports. 
+	 * The document is parsed once for all of the types.
+	 * 
+	 * @param svgString
+	 * @param types
+	 * @param width
+	 * @param filename the base name of each export
+	 * @return the ZIP archive
+	 * @throws RejectedExecutionException if the pool and its queue are full
+	 * @throws TimeoutException if the transcode took longer than the configured timeout
+	 */
+	protected NSData transcodeToZip(final String svgString, final NSArray<String> types, final Float width, final String filename) throws TimeoutException {
+		return ERHighchartsTranscodingExecutor.sharedInstance().execute(new Callable<NSData>() {
+			public NSData call() throws Exception {
+				ERHighchartsSVGDocument document = ERHighchartsSVGDocument.documentForString(svgString);
+				ERHighchartsByteBuffer buffer = new ERHighchartsByteBuffer(256 * 1024);
+				ZipOutputStream zip = new ZipOutputStream(buffer);
+				OutputStream entryStream = new EntryOutputStream(zip);
+				for (String type : types) {
+					zip.putNextEntry(new ZipEntry(ERHighchartsBatchExport.entryName(filename) + ERHighchartsTranscoding.extensionForType(type)));
+					if (TYPE_SVG.equals(type)) {
+						entryStream.write(svgString.getBytes("UTF-8"));
+					} else {
+						document.transcode(ERHighchartsTranscoding.transcoderForType(type, width), entryStream);
+					}
+					zip.closeEntry();
+				}
+				zip.close();
+				return buffer.data();
+			}
+		});
+	}
+	
+	/**
+	 * Writes a ZIP entry, ignoring any attempt by a transcoder to close the archive.
+	 */
+	private static class EntryOutputStream extends FilterOutputStream {
+		EntryOutputStream(ZipOutputStream zip) {
+			super(zip);
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+		
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+	
+	/**
+	 * Answers the request with a 503 and a Retry-After header, so the client backs off.
+	 * 
+	 * @param response
+	 * @param message
+	 */
+	protected void unavailable(WOResponse response, String message) {
+		response.setContent(message);
+		response.setHeader(String.valueOf(ERHighchartsTranscodingExecutor.sharedInstance().retryAfter()), "Retry-After");
+		response.setHeader("no-cache", "cache-control");
+		response.setStatus(STATUS_UNAVAILABLE);
+	}
+	
+	/**
+	 * Answers the request with a 413, for an oversized export.
+	 * 
+	 * @param response
+	 * @param message
+	 */
+	protected void tooLarge(WOResponse response, String message) {
+		response.setContent(message);
+		response.setHeader("close", "connection");
+		response.setStatus(STATUS_TOO_LARGE);
+	}
+	
 	/**
 	 * Registers a handler with the WOApplication.
 	 * 
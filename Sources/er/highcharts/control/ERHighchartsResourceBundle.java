@@ -0,0 +1,218 @@
+package er.highcharts.control;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.log4j.Logger;
+
+import com.webobjects.appserver.WOApplication;
+import com.webobjects.appserver.WOContext;
+import com.webobjects.foundation.NSArray;
+import com.webobjects.foundation.NSData;
+import com.webobjects.foundation.NSForwardException;
+import com.webobjects.foundation.NSRange;
+
+import er.extensions.foundation.ERXProperties;
+
+/**
+ * The framework's scripts, concatenated into one bundle when the application starts, and
+ * served by the {@code ERHighchartsResourceRequestHandler} from a URL containing a hash of
+ * the bundle, so browsers can cache it for as long as they like: a new version of the
+ * scripts has a new URL. A gzipped copy is prepared as well, for clients which accept it.
+ *
+ * The Highcharts scripts are shipped minified, and are bundled as they are, license headers
+ * included. The framework's own scripts have their comments and indentation stripped.
+ *
+ * If a script cannot be found, the error is logged and charts include the separate scripts.
+ *
+ * @property er.highcharts.resources.bundle
+ *           (boolean) Whether charts include the bundle rather than the separate scripts. Defaults to true.
+ *
+ * @author matt
+ *
+ */
+public class ERHighchartsResourceBundle {
+
+	/**
+	 * Standard Logger
+	 */
+	private static Logger log = Logger.getLogger(ERHighchartsResourceBundle.class);
+
+	/**
+	 * Property to disable the bundle
+	 */
+	private static final String ENABLED_PROPERTY = "er.highcharts.resources.bundle";
+
+	/**
+	 * The framework the scripts are in
+	 */
+	private static final String FRAMEWORK_NAME = "ERHighcharts";
+
+	/**
+	 * The scripts bundled, in order, and those of them which are shipped minified
+	 */
+	public static final NSArray<String> SCRIPTS = new NSArray<String>(new String[]{
+			"prototype-adapter.js",
+			"highcharts.js",
+			"exporting.js",
+			"erhighcharts.js"
+	});
+	private static final NSArray<String> MINIFIED_SCRIPTS = new NSArray<String>(new String[]{
+			"prototype-adapter.js",
+			"highcharts.js",
+			"exporting.js"
+	});
+
+	/**
+	 * The shared instance, created on first use
+	 */
+	private static ERHighchartsResourceBundle _sharedInstance;
+
+	/**
+	 * Whether the bundle could not be built
+	 */
+	private static boolean _unavailable = false;
+
+	private final String _prefix;
+	private final byte[] _content;
+	private final byte[] _gzippedContent;
+	private final String _hash;
+
+	/**
+	 * Whether charts include the bundle: it is enabled, and could be built.
+	 * @return
+	 */
+	public static boolean isEnabled(){
+		return ERXProperties.booleanForKeyWithDefault(ENABLED_PROPERTY, true) && sharedInstance() != null;
+	}
+
+	/**
+	 * The bundle of the framework's scripts.
+	 * @return the bundle, or null if a script was not found
+	 */
+	public static synchronized ERHighchartsResourceBundle sharedInstance(){
+		if(_sharedInstance == null && !_unavailable){
+			StringBuilder source = new StringBuilder();
+			for (String name : SCRIPTS){
+				byte[] bytes = WOApplication.application().resourceManager().bytesForResourceNamed(name, FRAMEWORK_NAME, null);
+				if(bytes == null){
+					log.error("The resource " + name + " was not found in the " + FRAMEWORK_NAME + " framework, charts include the separate scripts.");
+					_unavailable = true;
+					return null;
+				}
+				String script = utf8String(bytes);
+				source.append(MINIFIED_SCRIPTS.containsObject(name) ? script : minify(script));
+				//guard against a script without a trailing semicolon
+				source.append(";\n");
+			}
+			_sharedInstance = new ERHighchartsResourceBundle(source.toString());
+		}
+		return _sharedInstance;
+	}
+
+	private static String utf8String(byte[] bytes){
+		try {
+			return new String(bytes, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw NSForwardException._runtimeExceptionForThrowable(e);
+		}
+	}
+
+	/**
+	 * Strips the comment lines, blank lines and indentation of a script. Only comments which
+	 * start their line are stripped, so the script must not have lines within strings or
+	 * regular expressions which start like comments.
+	 *
+	 * @param script
+	 * @return
+	 */
+	public static String minify(String script){
+		StringBuilder minified = new StringBuilder(script.length());
+		boolean inComment = false;
+		for (String line : script.split("\r?\n")){
+			String trimmed = line.trim();
+			if(inComment){
+				inComment = trimmed.indexOf("*/") < 0;
+			}else if(trimmed.startsWith("/*")){
+				inComment = trimmed.indexOf("*/", 2) < 0;
+			}else if(trimmed.length() > 0 && !trimmed.startsWith("//")){
+				minified.append(trimmed).append('\n');
+			}
+		}
+		return minified.toString();
+	}
+
+	/**
+	 * Standard constructor
+	 * @param source the bundled scripts
+	 */
+	public ERHighchartsResourceBundle(String source){
+		this("erhighcharts", source);
+	}
+
+	/**
+	 * Constructor for other bundles served by the {@code ERHighchartsResourceRequestHandler}
+	 * @param prefix the name of the bundle, before its hash
+	 * @param source the bundled scripts
+	 */
+	public ERHighchartsResourceBundle(String prefix, String source){
+		_prefix = prefix;
+		try {
+			_content = source.getBytes("UTF-8");
+			ByteArrayOutputStream gzipped = new ByteArrayOutputStream(_content.length / 3);
+			GZIPOutputStream gzip = new GZIPOutputStream(gzipped);
+			gzip.write(_content);
+			gzip.close();
+			_gzippedContent = gzipped.toByteArray();
+		} catch (IOException e) {
+			throw NSForwardException._runtimeExceptionForThrowable(e);
+		}
+		_hash = ERHighchartsDigests.hex(ERHighchartsDigests.messageDigest().digest(_content)).substring(0, 12);
+		log.info("Bundled " + name() + ": " + _content.length + " bytes, " + _gzippedContent.length + " gzipped, hash " + _hash);
+	}
+
+	/**
+	 * The hash of the bundle's content
+	 * @return
+	 */
+	public String hash(){
+		return _hash;
+	}
+
+	/**
+	 * The name of the bundle, including its hash
+	 * @return
+	 */
+	public String name(){
+		return _prefix + "-" + _hash + ".js";
+	}
+
+	/**
+	 * The bundled scripts
+	 * @return
+	 */
+	public NSData content(){
+		return new NSData(_content, new NSRange(0, _content.length), true);
+	}
+
+	/**
+	 * The gzipped bundled scripts
+	 * @return
+	 */
+	public NSData gzippedContent(){
+		return new NSData(_gzippedContent, new NSRange(0, _gzippedContent.length), true);
+	}
+
+	/**
+	 * The URL of the bundle.
+	 *
+	 * @param context
+	 * @return an {@code ERHighchartsResourceRequestHandler} request handler URL
+	 */
+	public String url(WOContext context){
+		return context.urlWithRequestHandlerKey(ERHighchartsFrameworkPrincipal.resourceRequestHandlerKey(), name(), null);
+	}
+
+}
@@ -0,0 +1,131 @@
+package er.highcharts.control;
+
+import org.apache.log4j.Logger;
+
+import com.webobjects.appserver.WOApplication;
+import com.webobjects.appserver.WOContext;
+import com.webobjects.appserver.WORequest;
+import com.webobjects.appserver.WORequestHandler;
+import com.webobjects.appserver.WOResponse;
+
+import er.extensions.foundation.ERXProperties;
+
+/**
+ * ERHighchartsResourceRequestHandler serves the {@code ERHighchartsResourceBundle} of the
+ * framework's scripts, and the script of the {@code ERHighchartsTemplateRegistry} templates.
+ *
+ * The URL of the bundle contains its hash, so the response is cached for a year. Clients
+ * which accept gzip are sent the precompressed bundle. Any other name, such as the name of
+ * the bundle before the application was updated, is answered with a 404.
+ *
+ * @property er.highcharts.resources.maxAge
+ *           (int) The number of seconds clients may cache the bundle. Defaults to a year.
+ *
+ * @author matt
+ *
+ */
+public class ERHighchartsResourceRequestHandler extends WORequestHandler {
+
+	/**
+	 * Standard Logging
+	 */
+	public static final Logger log = Logger.getLogger(ERHighchartsResourceRequestHandler.class);
+
+	/**
+	 * Property for the cache lifetime
+	 */
+	private static final String MAX_AGE_PROPERTY = "er.highcharts.resources.maxAge";
+
+	/**
+	 * The response content type
+	 */
+	private static final String TYPE_JAVASCRIPT = "text/javascript; charset=UTF-8";
+
+	/**
+	 * Response status for an unknown resource
+	 */
+	private static final int STATUS_NOT_FOUND = 404;
+
+	/**
+	 * Response status when the client already has the bundle
+	 */
+	private static final int STATUS_NOT_MODIFIED = 304;
+
+	/**
+	 * The request handler method.
+	 */
+	@Override
+	public WOResponse handleRequest(WORequest request) {
+		WOApplication application = WOApplication.application();
+		application.awake();
+
+		try {
+			WOContext context = application.createContextForRequest(request);
+			WOResponse response = application.createResponseInContext(context);
+
+			try {
+				ERHighchartsResourceBundle bundle = bundleNamed(request.requestHandlerPath());
+				if (bundle == null) {
+					response.setStatus(STATUS_NOT_FOUND);
+					return response;
+				}
+
+				String etag = "\"" + bundle.hash() + "\"";
+				response.setHeader(etag, "ETag");
+				response.setHeader("public, max-age=" + ERXProperties.intForKeyWithDefault(MAX_AGE_PROPERTY, 365 * 24 * 60 * 60), "cache-control");
+				response.setHeader("Accept-Encoding", "Vary");
+
+				if (etag.equals(request.headerForKey("if-none-match"))) {
+					response.setStatus(STATUS_NOT_MODIFIED);
+					return response;
+				}
+
+				response.setHeader(TYPE_JAVASCRIPT, "Content-Type");
+				if (acceptsGzip(request)) {
+					response.setHeader("gzip", "Content-Encoding");
+					response.setContent(bundle.gzippedContent());
+				} else {
+					response.setContent(bundle.content());
+				}
+				response.setStatus(200);
+			} catch (Exception e) {
+				log.error("Unable to serve the resource " + request.requestHandlerPath(), e);
+				response.setContent(e.getMessage());
+				response.setStatus(500);
+			}
+			return response;
+		} finally {
+			application.sleep();
+		}
+	}
+
+	/**
+	 * The bundle of the name, if it is a current bundle.
+	 *
+	 * @param name
+	 * @return
+	 */
+	protected ERHighchartsResourceBundle bundleNamed(String name) {
+		ERHighchartsResourceBundle bundle = ERHighchartsResourceBundle.sharedInstance();
+		if (bundle != null && bundle.name().equals(name)) {
+			return bundle;
+		}
+		bundle = ERHighchartsTemplateRegistry.bundle();
+		if (bundle.name().equals(name)) {
+			return bundle;
+		}
+		return null;
+	}
+
+	/**
+	 * Whether the client accepts gzip content encoding.
+	 *
+	 * @param request
+	 * @return
+	 */
+	protected boolean acceptsGzip(WORequest request) {
+		String encodings = request.headerForKey("accept-encoding");
+		return encodings != null && encodings.toLowerCase().indexOf("gzip") >= 0;
+	}
+
+}
@@ -0,0 +1,65 @@
+package er.highcharts.control;
+
+import java.io.Writer;
+
+import com.webobjects.appserver.WOResponse;
+
+/**
+ * A {@code Writer} which appends directly to the content of a {@code WOResponse}.
+ * 
+ * Used to stream chart JSON out of the Jackson generator as it is written, rather
+ * than building the complete document as a String and copying it into the response.
+ * The generator hands over its own (small) buffer on each flush, so only buffer sized
+ * chunks are ever allocated.
+ * 
+ * Closing this writer does not close or finish the response.
+ * 
+ * @author matt
+ *
+ */
+public class ERHighchartsResponseWriter extends Writer {
+
+	/**
+	 * The response to append to
+	 */
+	private final WOResponse _response;
+
+	/**
+	 * Standard constructor
+	 * @param response the response to append to
+	 */
+	public ERHighchartsResponseWriter(WOResponse response){
+		super();
+		_response = response;
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) {
+		if(len > 0){
+			_response.appendContentString(new String(cbuf, off, len));
+		}
+	}
+
+	@Override
+	public void write(String str, int off, int len) {
+		if(len > 0){
+			_response.appendContentString(str.substring(off, off + len));
+		}
+	}
+
+	@Override
+	public void write(int c) {
+		_response.appendContentCharacter((char)c);
+	}
+
+	@Override
+	public void flush() {
+		//nothing to flush, the response is written as we go.
+	}
+
+	@Override
+	public void close() {
+		//the response is owned by the request cycle.
+	}
+
+}
@@ -0,0 +1,278 @@
+package er.highcharts.control;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.security.DigestInputStream;
+
+import org.apache.batik.dom.svg.SAXSVGDocumentFactory;
+import org.apache.batik.transcoder.SVGAbstractTranscoder;
+import org.apache.batik.transcoder.TranscoderException;
+import org.apache.batik.transcoder.TranscoderInput;
+import org.apache.batik.transcoder.TranscoderOutput;
+import org.apache.batik.util.XMLResourceDescriptor;
+import org.apache.log4j.Logger;
+import org.w3c.dom.svg.SVGDocument;
+
+import com.webobjects.foundation.NSArray;
+import com.webobjects.foundation.NSData;
+import com.webobjects.foundation.NSForwardException;
+import com.webobjects.foundation.NSMutableDictionary;
+
+import er.extensions.foundation.ERXProperties;
+
+/**
+ * An SVG document parsed once, and transcoded as many times as needed.
+ * 
+ * Transcoding from a String makes Batik parse the SVG XML again for each format. Parse the 
+ * document once with {@link #parse(String)}, or {@link #documentForString(String)} which keeps
+ * the most recently parsed documents, then transcode it to each of the formats and widths 
+ * you need. The Highcharts export menu typically asks for the PNG and then the PDF of the 
+ * same chart, so the second export skips the parse.
+ * 
+ * A parsed Batik DOM is many times the size of its source, so the recently parsed documents
+ * are bounded by their estimated size, at {@link #DOM_SIZE_FACTOR} times the source, and 
+ * documents with a source larger than the maximum are not kept at all.
+ * 
+ * Batik builds its graphics tree from the document for each transcode, so transcodes of
+ * a document are run one at a time.
+ * 
+ * @property er.highcharts.svgDocumentCache.maxBytes
+ *           (long) The maximum estimated size of the recently parsed documents kept by 
+ *           {@link #documentForString(String)}. Defaults to 32MB, 0 to disable.
+ * @property er.highcharts.svgDocumentCache.maxDocumentBytes
+ *           (long) The size of the largest source of a document which is kept. Defaults to 512KB.
+ * 
+ * @author matt
+ *
+ */
+public class ERHighchartsSVGDocument {
+
+	/**
+	 * Standard Logger
+	 */
+	private static Logger log = Logger.getLogger(ERHighchartsSVGDocument.class);
+
+	/**
+	 * Properties for the bounds of the cached documents
+	 */
+	private static final String CACHE_MAX_BYTES_PROPERTY = "er.highcharts.svgDocumentCache.maxBytes";
+	private static final String CACHE_MAX_DOCUMENT_BYTES_PROPERTY = "er.highcharts.svgDocumentCache.maxDocumentBytes";
+
+	/**
+	 * The estimated size of a parsed document, as a multiple of the size of its source
+	 */
+	public static final int DOM_SIZE_FACTOR = 10;
+
+	/**
+	 * The base URI of parsed documents. Highcharts documents have no external references.
+	 */
+	private static final String DOCUMENT_URI = "file:///erhighcharts.svg";
+
+	/**
+	 * The recently parsed documents, by SVG digest
+	 */
+	private static DocumentCache _documents;
+
+	/**
+	 * The recently parsed documents, bounded by their estimated size.
+	 */
+	private static class DocumentCache extends ERHighchartsSizedCache<String, ERHighchartsSVGDocument> {
+		private final long _maxDocumentBytes;
+
+		DocumentCache(long maxBytes, long maxDocumentBytes){
+			super(maxBytes, 0);
+			_maxDocumentBytes = maxDocumentBytes;
+		}
+
+		@Override
+		protected long sizeOf(ERHighchartsSVGDocument document){
+			return document._sourceLength * DOM_SIZE_FACTOR;
+		}
+
+		@Override
+		public void put(String key, ERHighchartsSVGDocument document){
+			if(document._sourceLength <= _maxDocumentBytes){
+				super.put(key, document);
+			}
+		}
+	}
+
+	/**
+	 * The parsed document
+	 */
+	private final SVGDocument _document;
+
+	/**
+	 * The digest of the document source, may be null
+	 */
+	private final String _digest;
+
+	/**
+	 * The size of the document source, in characters or bytes
+	 */
+	private final long _sourceLength;
+
+	/**
+	 * The document for the SVG string, parsed or from the recently parsed documents.
+	 * 
+	 * @param svgString
+	 * @return
+	 * @throws IOException if the document cannot be parsed
+	 */
+	public static ERHighchartsSVGDocument documentForString(String svgString) throws IOException {
+		String digest = ERHighchartsTranscodeCache.digest(svgString);
+		DocumentCache documents = documents();
+		ERHighchartsSVGDocument document = documents.get(digest);
+		if(document == null){
+			document = new ERHighchartsSVGDocument(parseDocument(new StringReader(svgString)), digest, svgString.length());
+			documents.put(digest, document);
+		}else if(log.isDebugEnabled()){
+			log.debug("Reusing the parsed SVG document " + digest);
+		}
+		return document;
+	}
+
+	/**
+	 * Parses the SVG document from the UTF-8 (or declared encoding) byte stream, without reading it 
+	 * into a String first. The document is digested as it is read, and kept with the recently 
+	 * parsed documents. The stream is not closed.
+	 * 
+	 * @param in
+	 * @return
+	 * @throws IOException if the document cannot be read or parsed
+	 */
+	public static ERHighchartsSVGDocument documentForStream(InputStream in) throws IOException {
+		ERHighchartsLimitedInputStream counted = new ERHighchartsLimitedInputStream(in, 0);
+		DigestInputStream digestStream = new DigestInputStream(counted, ERHighchartsDigests.messageDigest());
+		SAXSVGDocumentFactory factory = new SAXSVGDocumentFactory(XMLResourceDescriptor.getXMLParserClassName());
+		long start = System.nanoTime();
+		SVGDocument parsed = factory.createSVGDocument(DOCUMENT_URI, digestStream);
+		ERHighchartsExportMetrics.Timing.parsed(System.nanoTime() - start);
+		String digest = ERHighchartsDigests.hex(digestStream.getMessageDigest().digest());
+		ERHighchartsSVGDocument document = new ERHighchartsSVGDocument(parsed, digest, counted.count());
+		documents().put(digest, document);
+		return document;
+	}
+
+	/**
+	 * Parses the SVG string.
+	 * 
+	 * @param svgString
+	 * @return
+	 * @throws IOException if the document cannot be parsed
+	 */
+	public static ERHighchartsSVGDocument parse(String svgString) throws IOException {
+		return parse(new StringReader(svgString));
+	}
+
+	/**
+	 * Parses the SVG document from the reader.
+	 * 
+	 * @param reader
+	 * @return
+	 * @throws IOException if the document cannot be parsed
+	 */
+	public static ERHighchartsSVGDocument parse(Reader reader) throws IOException {
+		return new ERHighchartsSVGDocument(parseDocument(reader), null, 0);
+	}
+
+	private static SVGDocument parseDocument(Reader reader) throws IOException {
+		SAXSVGDocumentFactory factory = new SAXSVGDocumentFactory(XMLResourceDescriptor.getXMLParserClassName());
+		long start = System.nanoTime();
+		SVGDocument document = factory.createSVGDocument(DOCUMENT_URI, reader);
+		ERHighchartsExportMetrics.Timing.parsed(System.nanoTime() - start);
+		return document;
+	}
+
+	private static synchronized DocumentCache documents(){
+		if(_documents == null){
+			_documents = new DocumentCache(
+					ERXProperties.longForKeyWithDefault(CACHE_MAX_BYTES_PROPERTY, 32L * 1024 * 1024),
+					ERXProperties.longForKeyWithDefault(CACHE_MAX_DOCUMENT_BYTES_PROPERTY, 512L * 1024));
+		}
+		return _documents;
+	}
+
+	/**
+	 * Use {@link #parse(String)} or {@link #documentForString(String)}
+	 * 
+	 * @param document
+	 * @param digest the digest of the source, may be null
+	 * @param sourceLength the size of the source
+	 */
+	protected ERHighchartsSVGDocument(SVGDocument document, String digest, long sourceLength){
+		_document = document;
+		_digest = digest;
+		_sourceLength = sourceLength;
+	}
+
+	/**
+	 * The parsed document. It must not be changed while it may be transcoded.
+	 * @return
+	 */
+	public SVGDocument document(){
+		return _document;
+	}
+
+	/**
+	 * The SHA-1 digest of the source of the document, if it came from {@link #documentForString(String)}
+	 * or {@link #documentForStream(InputStream)}.
+	 * @return
+	 */
+	public String digest(){
+		return _digest;
+	}
+
+	/**
+	 * Transcodes the document to the content type.
+	 * 
+	 * @param type one of the PNG, JPEG or PDF content types
+	 * @param width
+	 * @return
+	 */
+	public NSData transcode(String type, Float width){
+		ERHighchartsByteBuffer buffer = new ERHighchartsByteBuffer(64 * 1024);
+		try {
+			transcode(ERHighchartsTranscoding.transcoderForType(type, width), buffer);
+		} catch (TranscoderException e) {
+			throw NSForwardException._runtimeExceptionForThrowable(e);
+		}
+		return buffer.data();
+	}
+
+	/**
+	 * Transcodes the document to each of the content types, at the same width.
+	 * 
+	 * @param types PNG, JPEG or PDF content types
+	 * @param width
+	 * @return the transcoded content by type
+	 */
+	public NSMutableDictionary<String, NSData> transcode(NSArray<String> types, Float width){
+		NSMutableDictionary<String, NSData> transcoded = new NSMutableDictionary<String, NSData>();
+		for (String type : types){
+			transcoded.setObjectForKey(transcode(type, width), type);
+		}
+		return transcoded;
+	}
+
+	/**
+	 * Transcodes the document with the primed transcoder, writing to the stream.
+	 * The stream is not closed. The transcode stops at its next write if its thread is 
+	 * interrupted, see {@code ERHighchartsInterruptibleOutputStream}.
+	 * 
+	 * @param t
+	 * @param out
+	 * @throws TranscoderException
+	 */
+	public void transcode(SVGAbstractTranscoder t, OutputStream out) throws TranscoderException {
+		synchronized(_document){
+			long start = System.nanoTime();
+			t.transcode(new TranscoderInput(_document), new TranscoderOutput(new ERHighchartsInterruptibleOutputStream(out)));
+			ERHighchartsExportMetrics.Timing.transcoded(System.nanoTime() - start);
+		}
+	}
+
+}
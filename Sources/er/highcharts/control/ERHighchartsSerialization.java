@@ -0,0 +1,208 @@
+package er.highcharts.control;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.Version;
+import org.codehaus.jackson.map.JsonSerializer;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectWriter;
+import org.codehaus.jackson.map.module.SimpleModule;
+
+import er.extensions.foundation.ERXProperties;
+import er.highcharts.control.serializers.ERJodaDateTimeSerializer;
+import er.highcharts.control.serializers.ERNSTimestampSerializer;
+
+/**
+ * The application wide JSON serialization engine for Highcharts graphs.
+ *
+ * Building an {@code ObjectMapper} is expensive, and each new mapper starts with
+ * an empty serializer cache. This class builds the mapper and its writer once, and
+ * shares them between all charts and threads. Jackson mappers and writers are thread
+ * safe once configured.
+ *
+ * Extra serializers should be registered once at application startup, typically in
+ * your Application constructor, via {@link #registerSerializer(JsonSerializer)}.
+ *
+ * @property er.highcharts.serialization.prettyPrint
+ *           (boolean) Whether the chart JSON is indented for debugging. Defaults to false,
+ *           which writes compact JSON.
+ *
+ * @author matt
+ *
+ */
+public class ERHighchartsSerialization {
+
+	/**
+	 * Standard Logger
+	 */
+	private static Logger log = Logger.getLogger(ERHighchartsSerialization.class);
+
+	/**
+	 * Property for pretty printed (debug) output
+	 */
+	private static final String PRETTY_PRINT_PROPERTY = "er.highcharts.serialization.prettyPrint";
+
+	/**
+	 * The shared instance
+	 */
+	private static final ERHighchartsSerialization _sharedInstance = new ERHighchartsSerialization();
+
+	/**
+	 * The serializers registered by the application, applied on top of the defaults.
+	 */
+	private final List<JsonSerializer<?>> _serializers = new ArrayList<JsonSerializer<?>>();
+
+	/**
+	 * The configured mapper. Rebuilt only when the configuration changes.
+	 */
+	private volatile ObjectMapper _mapper;
+
+	/**
+	 * The configured writer.
+	 */
+	private volatile ObjectWriter _writer;
+
+	/**
+	 * Whether the writer uses the pretty printer.
+	 */
+	private boolean _prettyPrint;
+
+	/**
+	 * The shared serialization engine.
+	 * @return
+	 */
+	public static ERHighchartsSerialization sharedInstance(){
+		return _sharedInstance;
+	}
+
+	/**
+	 * Use {@link #sharedInstance()}.
+	 */
+	protected ERHighchartsSerialization(){
+		super();
+	}
+
+	/**
+	 * (Re)builds the mapper and writer from the Properties and the registered serializers.
+	 * Called by the framework principal at startup.
+	 */
+	public synchronized void configure(){
+		_prettyPrint = ERXProperties.booleanForKeyWithDefault(PRETTY_PRINT_PROPERTY, false);
+
+		ObjectMapper mapper = new ObjectMapper();
+		mapper.configure(JsonGenerator.Feature.QUOTE_FIELD_NAMES, false);
+
+		SimpleModule erHighchartsModule = new SimpleModule("ERHighchartsModule", new Version(1, 0, 0, null));
+
+		//Custom serializer for DateTime objects
+		erHighchartsModule.addSerializer(new ERJodaDateTimeSerializer());
+		//Custom serializer for NSTimestamp objects
+		erHighchartsModule.addSerializer(new ERNSTimestampSerializer());
+
+		for (JsonSerializer<?> serializer : _serializers){
+			addSerializer(erHighchartsModule, serializer);
+		}
+
+		mapper.registerModule(erHighchartsModule);
+
+		_writer = _prettyPrint ? mapper.writerWithDefaultPrettyPrinter() : mapper.writer();
+		_mapper = mapper;
+
+		if(log.isDebugEnabled()){
+			log.debug("Configured chart serialization: prettyPrint=" + _prettyPrint + ", extra serializers=" + _serializers.size());
+		}
+	}
+
+	/**
+	 * Captures the serializer type for {@code SimpleModule#addSerializer(JsonSerializer)}
+	 */
+	private static <T> void addSerializer(SimpleModule module, JsonSerializer<T> serializer){
+		module.addSerializer(serializer);
+	}
+
+	/**
+	 * Registers an application serializer. The serializer must report its handled type,
+	 * for example by extending {@code SerializerBase}. The engine is rebuilt, so this
+	 * should be done once at startup rather than per request.
+	 *
+	 * @param serializer
+	 */
+	public synchronized void registerSerializer(JsonSerializer<?> serializer){
+		if(serializer == null){
+			return;
+		}
+		_serializers.add(serializer);
+		configure();
+	}
+
+	/**
+	 * The shared mapper.
+	 * @return
+	 */
+	public ObjectMapper mapper(){
+		ObjectMapper mapper = _mapper;
+		if(mapper == null){
+			synchronized(this){
+				if(_mapper == null){
+					configure();
+				}
+				mapper = _mapper;
+			}
+		}
+		return mapper;
+	}
+
+	/**
+	 * The shared writer, compact or pretty printed depending on the Properties.
+	 * @return
+	 */
+	public ObjectWriter writer(){
+		ObjectWriter writer = _writer;
+		if(writer == null){
+			synchronized(this){
+				if(_writer == null){
+					configure();
+				}
+				writer = _writer;
+			}
+		}
+		return writer;
+	}
+
+	/**
+	 * Whether the shared writer indents its output.
+	 * @return
+	 */
+	public boolean prettyPrint(){
+		writer();
+		return _prettyPrint;
+	}
+
+	/**
+	 * Serializes the given value, usually a {@code KVCAExtensionGraph}, to a JSON String.
+	 *
+	 * @param value
+	 * @return
+	 * @throws IOException
+	 */
+	public String writeValueAsString(Object value) throws IOException {
+		return writer().writeValueAsString(value);
+	}
+
+	/**
+	 * Serializes the given value to the writer.
+	 *
+	 * @param out
+	 * @param value
+	 * @throws IOException
+	 */
+	public void writeValue(Writer out, Object value) throws IOException {
+		writer().writeValue(out, value);
+	}
+
+}
@@ -0,0 +1,228 @@
+package er.highcharts.control;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread safe, least recently used cache bounded by the total size of its values 
+ * in bytes, with an optional time to live for each entry.
+ * 
+ * Subclasses define how the size of a value is measured. Values larger than the 
+ * whole cache are never stored. Hit and miss counts are kept for monitoring.
+ * 
+ * @param <K> the key type
+ * @param <V> the value type
+ * 
+ * @author matt
+ *
+ */
+public abstract class ERHighchartsSizedCache<K, V> {
+
+	/**
+	 * A cached value with its size and creation time.
+	 */
+	private static class Entry<V> {
+		final V value;
+		final long size;
+		final long created;
+		
+		Entry(V value, long size, long created){
+			this.value = value;
+			this.size = size;
+			this.created = created;
+		}
+	}
+
+	/**
+	 * The entries, in access order
+	 */
+	private final LinkedHashMap<K, Entry<V>> _entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+
+	/**
+	 * The maximum total size of the cached values
+	 */
+	private final long _maxBytes;
+
+	/**
+	 * The time to live of an entry in milliseconds, 0 for no expiry
+	 */
+	private final long _ttlMillis;
+
+	/**
+	 * The current total size of the cached values
+	 */
+	private long _bytes;
+
+	private final AtomicLong _hits = new AtomicLong();
+	private final AtomicLong _misses = new AtomicLong();
+	private final AtomicLong _evictions = new AtomicLong();
+
+	/**
+	 * Standard constructor
+	 * @param maxBytes the maximum total size of the cached values
+	 * @param ttlMillis the time to live of an entry in milliseconds, 0 for no expiry
+	 */
+	public ERHighchartsSizedCache(long maxBytes, long ttlMillis){
+		_maxBytes = maxBytes;
+		_ttlMillis = ttlMillis;
+	}
+
+	/**
+	 * The size in bytes of the value, as counted against the maximum size of the cache.
+	 * @param value
+	 * @return
+	 */
+	protected abstract long sizeOf(V value);
+
+	/**
+	 * The cached value for the key, or null if it is missing or has expired.
+	 * @param key
+	 * @return
+	 */
+	public V get(K key){
+		Entry<V> entry;
+		synchronized(this){
+			entry = _entries.get(key);
+			if(entry != null && isExpired(entry, System.currentTimeMillis())){
+				removeEntry(key);
+				entry = null;
+			}
+		}
+		if(entry == null){
+			_misses.incrementAndGet();
+			return null;
+		}
+		_hits.incrementAndGet();
+		return entry.value;
+	}
+
+	/**
+	 * Caches the value, evicting the least recently used values until it fits.
+	 * @param key
+	 * @param value
+	 */
+	public void put(K key, V value){
+		if(key == null || value == null){
+			return;
+		}
+		long size = sizeOf(value);
+		synchronized(this){
+			removeEntry(key);
+			if(size > _maxBytes){
+				return;
+			}
+			Iterator<Entry<V>> iterator = _entries.values().iterator();
+			while(_bytes + size > _maxBytes && iterator.hasNext()){
+				Entry<V> eldest = iterator.next();
+				iterator.remove();
+				_bytes -= eldest.size;
+				_evictions.incrementAndGet();
+			}
+			_entries.put(key, new Entry<V>(value, size, System.currentTimeMillis()));
+			_bytes += size;
+		}
+	}
+
+	/**
+	 * Removes the value for the key.
+	 * @param key
+	 */
+	public synchronized void remove(K key){
+		removeEntry(key);
+	}
+
+	/**
+	 * Removes all values.
+	 */
+	public synchronized void clear(){
+		_entries.clear();
+		_bytes = 0;
+	}
+
+	/**
+	 * A snapshot of the cached keys and values, for subclasses which need to 
+	 * find entries by value.
+	 * @return
+	 */
+	protected synchronized List<Map.Entry<K, V>> entries(){
+		List<Map.Entry<K, V>> entries = new ArrayList<Map.Entry<K, V>>(_entries.size());
+		for (Map.Entry<K, Entry<V>> entry : _entries.entrySet()){
+			entries.add(new AbstractMap.SimpleImmutableEntry<K, V>(entry.getKey(), entry.getValue().value));
+		}
+		return entries;
+	}
+
+	/**
+	 * Must be called while synchronized.
+	 */
+	private void removeEntry(K key){
+		Entry<V> entry = _entries.remove(key);
+		if(entry != null){
+			_bytes -= entry.size;
+		}
+	}
+
+	private boolean isExpired(Entry<V> entry, long now){
+		return _ttlMillis > 0 && now - entry.created > _ttlMillis;
+	}
+
+	/**
+	 * The number of cached values
+	 * @return
+	 */
+	public synchronized int count(){
+		return _entries.size();
+	}
+
+	/**
+	 * The total size in bytes of the cached values
+	 * @return
+	 */
+	public synchronized long bytes(){
+		return _bytes;
+	}
+
+	/**
+	 * The maximum total size in bytes of the cached values
+	 * @return
+	 */
+	public long maxBytes(){
+		return _maxBytes;
+	}
+
+	/**
+	 * The number of lookups which found a value
+	 * @return
+	 */
+	public long hitCount(){
+		return _hits.get();
+	}
+
+	/**
+	 * The number of lookups which found no value
+	 * @return
+	 */
+	public long missCount(){
+		return _misses.get();
+	}
+
+	/**
+	 * The number of values evicted to make room for others
+	 * @return
+	 */
+	public long evictionCount(){
+		return _evictions.get();
+	}
+
+	@Override
+	public String toString(){
+		return getClass().getSimpleName() + " [count=" + count() + ", bytes=" + bytes() + "/" + _maxBytes 
+			+ ", hits=" + hitCount() + ", misses=" + missCount() + ", evictions=" + evictionCount() + "]";
+	}
+
+}
@@ -0,0 +1,103 @@
+package er.highcharts.control;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.log4j.Logger;
+
+import com.webobjects.foundation.NSForwardException;
+
+import er.highcharts.model.KVCAExtensionGraph;
+
+/**
+ * The named chart option templates of the application: the options shared by many charts,
+ * such as colors, fonts, tooltip and axis styling. A chart bound to a template is built over
+ * it, and renders only its differences from the template, see {@code ERHighchart}.
+ *
+ * The templates are sent to the page once, as a script served by the
+ * {@code ERHighchartsResourceRequestHandler} from a URL containing a hash of the templates,
+ * so browsers cache it like the framework's scripts. Register the templates when the
+ * application starts: registering a template changes the script, and its URL.
+ *
+ * Templates do not carry an <code>exporting.url</code>: the export URL of a chart carries a
+ * token for its session, see {@code ERHighchartsExportToken}, so each chart sets its own.
+ *
+ * @author matt
+ *
+ */
+public class ERHighchartsTemplateRegistry {
+
+	/**
+	 * Standard Logger
+	 */
+	private static Logger log = Logger.getLogger(ERHighchartsTemplateRegistry.class);
+
+	/**
+	 * The templates, frozen, by name, in the order registered
+	 */
+	private static final Map<String, KVCAExtensionGraph> _templates = new LinkedHashMap<String, KVCAExtensionGraph>();
+
+	/**
+	 * The script of the registered templates, created on first use
+	 */
+	private static ERHighchartsResourceBundle _bundle;
+
+	/**
+	 * Registers the template under the name, replacing any template of that name.
+	 * The template is frozen, so it can be shared by every chart built over it.
+	 * Its <code>exporting.url</code>, if any, is dropped.
+	 *
+	 * @param name
+	 * @param template
+	 */
+	public static synchronized void registerTemplate(String name, KVCAExtensionGraph template){
+		if(template.valueForKeyPath("exporting.url") != null){
+			log.warn("The chart template " + name + " sets exporting.url, which is dropped: each chart sets its own export URL.");
+			template = template.mutableCopy();
+			KVCAExtensionGraph exporting = ((KVCAExtensionGraph)template.valueForKey("exporting")).mutableCopy();
+			exporting.nodes.remove("url");
+			template.takeValueForKey(exporting, "exporting");
+		}
+		_templates.put(name, template.freeze());
+		_bundle = null;
+		log.debug("Registered the chart template " + name);
+	}
+
+	/**
+	 * The template registered under the name, if any.
+	 *
+	 * @param name
+	 * @return a frozen graph, or null
+	 */
+	public static synchronized KVCAExtensionGraph templateNamed(String name){
+		return _templates.get(name);
+	}
+
+	/**
+	 * The script defining the registered templates on the page, as
+	 * <code>ERHighcharts.templates</code>.
+	 *
+	 * @return
+	 */
+	public static synchronized ERHighchartsResourceBundle bundle(){
+		if(_bundle == null){
+			StringBuilder source = new StringBuilder();
+			try {
+				for (Entry<String, KVCAExtensionGraph> entry : _templates.entrySet()){
+					source.append("ERHighcharts.templates[");
+					source.append(ERHighchartsSerialization.sharedInstance().writeValueAsString(entry.getKey()));
+					source.append("] = ");
+					source.append(ERHighchartsSerialization.sharedInstance().writeValueAsString(entry.getValue()));
+					source.append(";\n");
+				}
+			} catch (IOException e) {
+				throw NSForwardException._runtimeExceptionForThrowable(e);
+			}
+			_bundle = new ERHighchartsResourceBundle("erhighcharts-templates", source.toString());
+		}
+		return _bundle;
+	}
+
+}
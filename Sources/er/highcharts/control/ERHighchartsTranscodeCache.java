@@ -0,0 +1,121 @@
+package er.highcharts.control;
+
+import java.io.UnsupportedEncodingException;
+
+import com.webobjects.foundation.NSData;
+import com.webobjects.foundation.NSForwardException;
+
+import er.extensions.foundation.ERXProperties;
+
+/**
+ * An opt-in cache of transcoded exports.
+ * 
+ * Highcharts sends the same SVG document each time a chart is exported, so repeated exports
+ * of a chart, to the same type and width, are transcoded once and then served from memory.
+ * Entries are keyed by the SHA-1 digest of the SVG document plus the transcoding options
+ * (see {@link #keyFor(String, String, Float)}), and the cache is bounded by the total size 
+ * of the transcoded content, least recently used entries being evicted first.
+ * 
+ * @property er.highcharts.transcodeCache.enabled
+ *           (boolean) Whether transcoded exports are cached. Defaults to false.
+ * @property er.highcharts.transcodeCache.maxBytes
+ *           (long) The maximum total size of the cached exports. Defaults to 32MB.
+ * @property er.highcharts.transcodeCache.ttl
+ *           (long) The number of seconds an export is cached for. Defaults to 600, 0 for no expiry.
+ * 
+ * @author matt
+ *
+ */
+public class ERHighchartsTranscodeCache extends ERHighchartsSizedCache<String, NSData> {
+
+	/**
+	 * Properties
+	 */
+	private static final String ENABLED_PROPERTY = "er.highcharts.transcodeCache.enabled";
+	private static final String MAX_BYTES_PROPERTY = "er.highcharts.transcodeCache.maxBytes";
+	private static final String TTL_PROPERTY = "er.highcharts.transcodeCache.ttl";
+
+	/**
+	 * The shared instance, created on first use
+	 */
+	private static ERHighchartsTranscodeCache _sharedInstance;
+
+	/**
+	 * The shared transcode cache, configured from the Properties.
+	 * @return
+	 */
+	public static synchronized ERHighchartsTranscodeCache sharedInstance(){
+		if(_sharedInstance == null){
+			_sharedInstance = new ERHighchartsTranscodeCache(
+					ERXProperties.longForKeyWithDefault(MAX_BYTES_PROPERTY, 32L * 1024 * 1024), 
+					ERXProperties.longForKeyWithDefault(TTL_PROPERTY, 600) * 1000);
+		}
+		return _sharedInstance;
+	}
+
+	/**
+	 * Whether transcoded exports should be cached.
+	 * @return
+	 */
+	public static boolean isEnabled(){
+		return ERXProperties.booleanForKeyWithDefault(ENABLED_PROPERTY, false);
+	}
+
+	/**
+	 * Standard constructor
+	 * @param maxBytes the maximum total size of the cached exports
+	 * @param ttlMillis the time to live of an entry in milliseconds, 0 for no expiry
+	 */
+	public ERHighchartsTranscodeCache(long maxBytes, long ttlMillis){
+		super(maxBytes, ttlMillis);
+	}
+
+	@Override
+	protected long sizeOf(NSData data){
+		return data.length();
+	}
+
+	/**
+	 * The cache key for an export: the digest of the SVG document, the type, the width and,
+	 * for JPEG exports, the quality.
+	 * 
+	 * @param svgString
+	 * @param type
+	 * @param width
+	 * @return
+	 */
+	public static String keyFor(String svgString, String type, Float width){
+		return keyForDigest(digest(svgString), type, width);
+	}
+
+	/**
+	 * The cache key for an export of the SVG document with the digest.
+	 * 
+	 * @param digest the digest of the SVG document, see {@link #digest(String)}
+	 * @param type
+	 * @param width
+	 * @return
+	 */
+	public static String keyForDigest(String digest, String type, Float width){
+		StringBuilder key = new StringBuilder(64);
+		key.append(digest).append('|').append(type).append('|').append(width);
+		if(ERHighchartsTranscoding.TYPE_JPEG.equals(type)){
+			key.append('|').append(ERHighchartsTranscoding.JPEG_QUALITY);
+		}
+		return key.toString();
+	}
+
+	/**
+	 * The hexadecimal SHA-1 digest of the UTF-8 bytes of the SVG document.
+	 * @param svgString
+	 * @return
+	 */
+	public static String digest(String svgString){
+		try {
+			return ERHighchartsDigests.hex(ERHighchartsDigests.messageDigest().digest(svgString.getBytes("UTF-8")));
+		} catch (UnsupportedEncodingException e) {
+			throw NSForwardException._runtimeExceptionForThrowable(e);
+		}
+	}
+
+}
@@ -1,16 +1,21 @@
 package er.highcharts.control;
 
-import java.io.ByteArrayOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringReader;
 
 import org.apache.batik.transcoder.SVGAbstractTranscoder;
+import org.apache.batik.transcoder.TranscoderException;
 import org.apache.batik.transcoder.TranscoderInput;
 import org.apache.batik.transcoder.TranscoderOutput;
 import org.apache.batik.transcoder.image.JPEGTranscoder;
 import org.apache.batik.transcoder.image.PNGTranscoder;
 import org.apache.fop.svg.PDFTranscoder;
+import org.apache.log4j.Logger;
 
 import com.webobjects.foundation.NSData;
+import com.webobjects.foundation.NSForwardException;
 
 /**
  * SVG Transcoding utility methods using Batik frameworks.
@@ -20,6 +25,64 @@ import com.webobjects.foundation.NSData;
  */
 public class ERHighchartsTranscoding {
 
+	/**
+	 * Standard Logger
+	 */
+	private static Logger log = Logger.getLogger(ERHighchartsTranscoding.class);
+
+	/**
+	 * Supported content types
+	 */
+	public static final String TYPE_PNG = "image/png";
+	public static final String TYPE_JPEG = "image/jpeg";
+	public static final String TYPE_SVG = "image/svg+xml";
+	public static final String TYPE_PDF = "application/pdf";
+
+	/**
+	 * The JPEG encoding quality
+	 */
+	public static final Float JPEG_QUALITY = new Float(0.8);
+
+	/**
+	 * The initial size of the transcoding buffer, enough for a typical PNG export
+	 */
+	private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Transcode the given SVG document string to the given content type. The parsed 
+	 * document is kept for a while, see {@code ERHighchartsSVGDocument}, so exporting 
+	 * the same document to another type skips the parse.
+	 * @param svgString
+	 * @param type one of the PNG, JPEG or PDF content types
+	 * @param width
+	 * @return
+	 * @throws IllegalArgumentException if the type cannot be transcoded to
+	 */
+	public static NSData transcode(String svgString, String type, Float width){
+		try {
+			return ERHighchartsSVGDocument.documentForString(svgString).transcode(type, width);
+		} catch (IOException e) {
+			throw NSForwardException._runtimeExceptionForThrowable(e);
+		}
+	}
+
+	/**
+	 * The file extension, including the dot, for the content type
+	 * @param type
+	 * @return
+	 */
+	public static String extensionForType(String type){
+		if(TYPE_PNG.equals(type)){
+			return ".png";
+		}else if(TYPE_JPEG.equals(type)){
+			return ".jpg";
+		}else if(TYPE_PDF.equals(type)){
+			return ".pdf";
+		}else if(TYPE_SVG.equals(type)){
+			return ".svg";
+		}
+		return "";
+	}
 
 	/**
 	 * Transcode the given SVG document string as a PDF object
@@ -28,9 +91,7 @@ public class ERHighchartsTranscoding {
 	 * @return
 	 */
 	public static NSData pdfTranscode(String svgString, Float width) {
-		PDFTranscoder t = new PDFTranscoder();
-		t.addTranscodingHint(PDFTranscoder.KEY_WIDTH, width);
-		return transcode(svgString, t);
+		return transcode(svgString, pdfTranscoder(width));
 	}
 
 	/**
@@ -40,9 +101,7 @@ public class ERHighchartsTranscoding {
 	 * @return
 	 */
 	public static NSData pngTranscode(String svgString, Float width){
-		PNGTranscoder t = new PNGTranscoder();
-		t.addTranscodingHint(PNGTranscoder.KEY_WIDTH, width);
-		return transcode(svgString, t);
+		return transcode(svgString, pngTranscoder(width));
 	}
 	
 	/**
@@ -52,38 +111,116 @@ public class ERHighchartsTranscoding {
 	 * @return
 	 */
 	public static NSData jpegTranscode(String svgString, Float width){
-		JPEGTranscoder t = new JPEGTranscoder();
+		return transcode(svgString, jpegTranscoder(width));
+	}
+
+	/**
+	 * A PDF transcoder primed with the width
+	 * @param width
+	 * @return
+	 */
+	public static PDFTranscoder pdfTranscoder(Float width){
+		PDFTranscoder t = new PDFTranscoder();
+		t.addTranscodingHint(PDFTranscoder.KEY_WIDTH, width);
+		return t;
+	}
+
+	/**
+	 * A PNG transcoder primed with the width. The time taken to encode the image
+	 * is reported to the {@code ERHighchartsExportMetrics}.
+	 * @param width
+	 * @return
+	 */
+	public static PNGTranscoder pngTranscoder(Float width){
+		PNGTranscoder t = new PNGTranscoder(){
+			@Override
+			public void writeImage(BufferedImage image, TranscoderOutput output) throws TranscoderException {
+				long start = System.nanoTime();
+				super.writeImage(image, output);
+				ERHighchartsExportMetrics.Timing.encoded(System.nanoTime() - start);
+			}
+		};
+		t.addTranscodingHint(PNGTranscoder.KEY_WIDTH, width);
+		return t;
+	}
+
+	/**
+	 * A JPEG transcoder primed with the width and the quality. The time taken to encode 
+	 * the image is reported to the {@code ERHighchartsExportMetrics}.
+	 * @param width
+	 * @return
+	 */
+	public static JPEGTranscoder jpegTranscoder(Float width){
+		JPEGTranscoder t = new JPEGTranscoder(){
+			@Override
+			public void writeImage(BufferedImage image, TranscoderOutput output) throws TranscoderException {
+				long start = System.nanoTime();
+				super.writeImage(image, output);
+				ERHighchartsExportMetrics.Timing.encoded(System.nanoTime() - start);
+			}
+		};
 		t.addTranscodingHint(JPEGTranscoder.KEY_WIDTH, width);
-		t.addTranscodingHint(JPEGTranscoder.KEY_QUALITY, new Float(0.8));
-		return transcode(svgString, t);
+		t.addTranscodingHint(JPEGTranscoder.KEY_QUALITY, JPEG_QUALITY);
+		return t;
+	}
+
+	/**
+	 * A transcoder for the content type, primed with the width
+	 * @param type one of the PNG, JPEG or PDF content types
+	 * @param width
+	 * @return
+	 * @throws IllegalArgumentException if the type cannot be transcoded to
+	 */
+	public static SVGAbstractTranscoder transcoderForType(String type, Float width){
+		if(TYPE_PNG.equals(type)){
+			return pngTranscoder(width);
+		}else if(TYPE_JPEG.equals(type)){
+			return jpegTranscoder(width);
+		}else if(TYPE_PDF.equals(type)){
+			return pdfTranscoder(width);
+		}
+		throw new IllegalArgumentException("Unable to transcode to the type " + type);
 	}
 	
 	/**
 	 * Given an abstract transcoder, build the NSData response object from the
 	 * given SVG document string.
+	 * 
+	 * The transcoder writes into a growable buffer which the returned NSData wraps 
+	 * without copying, so the transcoded content is held in memory only once.
+	 * 
 	 * @param svgString
 	 * @param t the primed transcoder
 	 * @return
 	 */
 	public static NSData transcode(String svgString, SVGAbstractTranscoder t){
-		TranscoderInput input = new TranscoderInput(new StringReader(svgString));
-
 		NSData im = null;
 		
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		ERHighchartsByteBuffer buffer = new ERHighchartsByteBuffer(INITIAL_BUFFER_SIZE);
 		
 		try {
-			TranscoderOutput output = new TranscoderOutput();
-			output.setOutputStream(baos);
-			
-			t.transcode(input, output);
-			
-			byte[] ba = baos.toByteArray();
-			im = new NSData(ba);
-			baos.close();
+			transcode(svgString, t, buffer);
+			im = buffer.data();
 		} catch (Exception e) {
-			e.printStackTrace();
+			log.error("Unable to transcode the SVG document with " + t.getClass().getName(), e);
 		}
 		return im;
 	}
+
+	/**
+	 * Given an abstract transcoder, write the transcoded SVG document string 
+	 * straight to the output stream, for example a file or servlet stream.
+	 * The stream is not closed. The transcode stops at its next write if its thread is 
+	 * interrupted, see {@code ERHighchartsInterruptibleOutputStream}.
+	 * 
+	 * @param svgString
+	 * @param t the primed transcoder
+	 * @param out
+	 * @throws TranscoderException
+	 */
+	public static void transcode(String svgString, SVGAbstractTranscoder t, OutputStream out) throws TranscoderException {
+		TranscoderInput input = new TranscoderInput(new StringReader(svgString));
+		TranscoderOutput output = new TranscoderOutput(new ERHighchartsInterruptibleOutputStream(out));
+		t.transcode(input, output);
+	}
 }
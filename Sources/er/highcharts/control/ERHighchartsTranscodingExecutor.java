@@ -0,0 +1,317 @@
+package er.highcharts.control;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.webobjects.foundation.NSForwardException;
+
+import er.extensions.foundation.ERXProperties;
+
+/**
+ * The dedicated, bounded pool of threads on which SVG transcoding runs.
+ * 
+ * Batik and FOP transcoding is slow and memory hungry. Running it on a fixed size pool 
+ * with a bounded queue means that however many exports are requested at once, only a 
+ * known number transcode concurrently, and requests beyond the queue are refused straight
+ * away (see {@code ERHighchartsRequestHandler}, which answers them with a 503 and a 
+ * <code>Retry-After</code> header) rather than tying up every worker thread.
+ * 
+ * A transcode which times out is cancelled and its thread interrupted. Batik does not check
+ * for interruption, so the transcode only stops when it next writes its output (see
+ * {@code ERHighchartsInterruptibleOutputStream}), and keeps its thread until then. Such 
+ * abandoned transcodes are logged, and counted while they run.
+ * 
+ * @property er.highcharts.transcode.poolSize
+ *           (int) The number of transcoding threads. Defaults to the number of processors.
+ * @property er.highcharts.transcode.queueSize
+ *           (int) The number of transcodes which may wait for a thread. Defaults to twice the pool size.
+ * @property er.highcharts.transcode.timeout
+ *           (int) The number of seconds a request waits for its transcode before giving up. Defaults to 60.
+ * @property er.highcharts.transcode.retryAfter
+ *           (int) The number of seconds a refused client is told to wait before retrying. Defaults to 10.
+ * 
+ * @author matt
+ *
+ */
+public class ERHighchartsTranscodingExecutor {
+
+	/**
+	 * Standard Logger
+	 */
+	private static Logger log = Logger.getLogger(ERHighchartsTranscodingExecutor.class);
+
+	/**
+	 * Properties
+	 */
+	private static final String POOL_SIZE_PROPERTY = "er.highcharts.transcode.poolSize";
+	private static final String QUEUE_SIZE_PROPERTY = "er.highcharts.transcode.queueSize";
+	private static final String TIMEOUT_PROPERTY = "er.highcharts.transcode.timeout";
+	private static final String RETRY_AFTER_PROPERTY = "er.highcharts.transcode.retryAfter";
+
+	/**
+	 * The shared instance, created on first use
+	 */
+	private static ERHighchartsTranscodingExecutor _sharedInstance;
+
+	/**
+	 * The pool
+	 */
+	private final ThreadPoolExecutor _executor;
+
+	/**
+	 * The time a request waits for its transcode, in seconds
+	 */
+	private final int _timeout;
+
+	/**
+	 * The time a refused client should wait, in seconds
+	 */
+	private final int _retryAfter;
+
+	/**
+	 * The number of transcodes cancelled while running, and of those still running
+	 */
+	private final AtomicLong _abandonedCount = new AtomicLong();
+	private final AtomicInteger _abandonedRunningCount = new AtomicInteger();
+
+	/**
+	 * The shared executor, configured from the Properties.
+	 * @return
+	 */
+	public static synchronized ERHighchartsTranscodingExecutor sharedInstance(){
+		if(_sharedInstance == null){
+			int poolSize = ERXProperties.intForKeyWithDefault(POOL_SIZE_PROPERTY, Runtime.getRuntime().availableProcessors());
+			int queueSize = ERXProperties.intForKeyWithDefault(QUEUE_SIZE_PROPERTY, poolSize * 2);
+			_sharedInstance = new ERHighchartsTranscodingExecutor(poolSize, queueSize, 
+					ERXProperties.intForKeyWithDefault(TIMEOUT_PROPERTY, 60), 
+					ERXProperties.intForKeyWithDefault(RETRY_AFTER_PROPERTY, 10));
+		}
+		return _sharedInstance;
+	}
+
+	/**
+	 * Standard constructor
+	 * @param poolSize the number of transcoding threads
+	 * @param queueSize the number of transcodes which may wait for a thread
+	 * @param timeout the number of seconds a request waits for its transcode
+	 * @param retryAfter the number of seconds a refused client should wait
+	 */
+	public ERHighchartsTranscodingExecutor(int poolSize, int queueSize, int timeout, int retryAfter){
+		poolSize = Math.max(1, poolSize);
+		_executor = new TranscodingPool(poolSize, Math.max(1, queueSize));
+		_executor.allowCoreThreadTimeOut(true);
+		_timeout = timeout;
+		_retryAfter = retryAfter;
+		log.info("Transcoding pool: " + poolSize + " threads, queue of " + queueSize + ", timeout " + timeout + "s");
+	}
+
+	/**
+	 * Queues the task. The task runs with the {@code ERHighchartsExportMetrics.Timing} of 
+	 * the submitting thread, if any.
+	 * @param task
+	 * @return the future result of the task
+	 * @throws RejectedExecutionException if the pool and its queue are full
+	 */
+	public <T> Future<T> submit(Callable<T> task){
+		return _executor.submit(ERHighchartsExportMetrics.Timing.carry(task));
+	}
+
+	/**
+	 * A completion service on the pool, which queues tasks in the same way as {@link #submit(Callable)},
+	 * carrying the {@code ERHighchartsExportMetrics.Timing} of the submitting thread.
+	 * @return
+	 */
+	public <T> CompletionService<T> completionService(){
+		return new ExecutorCompletionService<T>(_executor){
+			@Override
+			public Future<T> submit(Callable<T> task){
+				return super.submit(ERHighchartsExportMetrics.Timing.carry(task));
+			}
+		};
+	}
+
+	/**
+	 * Runs the task on the pool, and waits for its result for at most the configured timeout.
+	 * 
+	 * @param task
+	 * @return the result of the task
+	 * @throws RejectedExecutionException if the pool and its queue are full
+	 * @throws TimeoutException if the task did not finish in time. The task is cancelled, and
+	 * 			interrupted if it is running, see {@link #abandonedRunningCount()}.
+	 */
+	public <T> T execute(Callable<T> task) throws TimeoutException {
+		Future<T> future = submit(task);
+		try {
+			return future.get(_timeout, TimeUnit.SECONDS);
+		} catch (TimeoutException e) {
+			future.cancel(true);
+			throw e;
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw NSForwardException._runtimeExceptionForThrowable(e);
+		} catch (ExecutionException e) {
+			throw NSForwardException._runtimeExceptionForThrowable(e.getCause());
+		}
+	}
+
+	/**
+	 * The number of transcoding threads
+	 * @return
+	 */
+	public int poolSize(){
+		return _executor.getMaximumPoolSize();
+	}
+
+	/**
+	 * The number of seconds a request waits for its transcode
+	 * @return
+	 */
+	public int timeout(){
+		return _timeout;
+	}
+
+	/**
+	 * The number of seconds a refused client should wait before retrying
+	 * @return
+	 */
+	public int retryAfter(){
+		return _retryAfter;
+	}
+
+	/**
+	 * The number of transcodes currently running
+	 * @return
+	 */
+	public int activeCount(){
+		return _executor.getActiveCount();
+	}
+
+	/**
+	 * The number of transcodes waiting for a thread
+	 * @return
+	 */
+	public int queuedCount(){
+		return _executor.getQueue().size();
+	}
+
+	/**
+	 * The number of transcodes cancelled while running, as when they timed out
+	 * @return
+	 */
+	public long abandonedCount(){
+		return _abandonedCount.get();
+	}
+
+	/**
+	 * The number of transcodes cancelled while running which still hold their thread
+	 * @return
+	 */
+	public int abandonedRunningCount(){
+		return _abandonedRunningCount.get();
+	}
+
+	/**
+	 * Stops the pool once the queued transcodes are done.
+	 */
+	public void shutdown(){
+		_executor.shutdown();
+	}
+
+	/**
+	 * The pool, running each task as a {@link TranscodingTask}.
+	 */
+	private class TranscodingPool extends ThreadPoolExecutor {
+
+		TranscodingPool(int poolSize, int queueSize){
+			super(poolSize, poolSize, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize), 
+					new TranscoderThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+		}
+
+		@Override
+		protected <T> FutureTask<T> newTaskFor(Callable<T> callable){
+			return new TranscodingTask<T>(callable);
+		}
+
+		@Override
+		protected <T> FutureTask<T> newTaskFor(Runnable runnable, T value){
+			return new TranscodingTask<T>(runnable, value);
+		}
+	}
+
+	/**
+	 * A task which notices being cancelled while it runs: it keeps its thread until
+	 * the transcode ends, so it is logged and counted until then.
+	 */
+	private class TranscodingTask<T> extends FutureTask<T> {
+		private static final int QUEUED = 0;
+		private static final int RUNNING = 1;
+		private static final int DONE = 2;
+		private static final int ABANDONED = 3;
+
+		private final AtomicInteger _state = new AtomicInteger(QUEUED);
+		private volatile long _start;
+
+		TranscodingTask(Callable<T> callable){
+			super(callable);
+		}
+
+		TranscodingTask(Runnable runnable, T value){
+			super(runnable, value);
+		}
+
+		@Override
+		public void run(){
+			_start = System.currentTimeMillis();
+			_state.compareAndSet(QUEUED, RUNNING);
+			try {
+				super.run();
+			} finally {
+				if(!_state.compareAndSet(RUNNING, DONE) && _state.get() == ABANDONED){
+					_abandonedRunningCount.decrementAndGet();
+					log.info("A cancelled transcode released its thread after " + (System.currentTimeMillis() - _start) + "ms.");
+				}
+			}
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning){
+			boolean cancelled = super.cancel(mayInterruptIfRunning);
+			if(cancelled && _state.compareAndSet(RUNNING, ABANDONED)){
+				_abandonedCount.incrementAndGet();
+				int running = _abandonedRunningCount.incrementAndGet();
+				log.warn("A transcode was cancelled after " + (System.currentTimeMillis() - _start) + "ms while running. It holds its thread until it next writes output; "
+						+ running + " cancelled transcodes are still running.");
+			}
+			return cancelled;
+		}
+	}
+
+	/**
+	 * Named, daemon transcoding threads.
+	 */
+	private static class TranscoderThreadFactory implements ThreadFactory {
+		private final AtomicInteger _count = new AtomicInteger();
+		
+		public Thread newThread(Runnable runnable){
+			Thread thread = new Thread(runnable, "ERHighchartsTranscoder-" + _count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+}
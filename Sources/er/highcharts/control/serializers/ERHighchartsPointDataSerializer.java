@@ -0,0 +1,47 @@
+package er.highcharts.control.serializers;
+
+import java.io.IOException;
+
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonProcessingException;
+import org.codehaus.jackson.map.JsonSerializer;
+import org.codehaus.jackson.map.SerializerProvider;
+
+import er.highcharts.model.ERHighchartsPointData;
+
+/**
+ * Writes {@code ERHighchartsPointData} in the Highcharts array form <code>[[name, y], ...]</code>.
+ * 
+ * @author matt
+ *
+ */
+public class ERHighchartsPointDataSerializer extends JsonSerializer<ERHighchartsPointData> {
+
+	@Override
+	public void serialize(ERHighchartsPointData data, JsonGenerator gen,
+			SerializerProvider provider) throws IOException,
+			JsonProcessingException {
+		int size = data.size();
+		gen.writeStartArray();
+		for (int i = 0; i < size; i++){
+			gen.writeStartArray();
+			Object key = data.key(i);
+			if(key instanceof String){
+				gen.writeString((String)key);
+			}else{
+				provider.defaultSerializeValue(key, gen);
+			}
+			double y = data.y(i);
+			if(Double.isNaN(y) || Double.isInfinite(y)){
+				gen.writeNull();
+			}else if(y == (long)y){
+				gen.writeNumber((long)y);
+			}else{
+				gen.writeNumber(y);
+			}
+			gen.writeEndArray();
+		}
+		gen.writeEndArray();
+	}
+
+}
@@ -0,0 +1,64 @@
+package er.highcharts.control.serializers;
+
+import java.io.IOException;
+
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonProcessingException;
+import org.codehaus.jackson.map.JsonSerializer;
+import org.codehaus.jackson.map.SerializerProvider;
+
+import er.highcharts.model.ERHighchartsSeriesData;
+
+/**
+ * Writes {@code ERHighchartsSeriesData} numbers straight from its primitive arrays,
+ * without boxing a value or looking up a serializer per point.
+ * 
+ * @author matt
+ *
+ */
+public class ERHighchartsSeriesDataSerializer extends JsonSerializer<ERHighchartsSeriesData> {
+
+	@Override
+	public void serialize(ERHighchartsSeriesData data, JsonGenerator gen,
+			SerializerProvider provider) throws IOException,
+			JsonProcessingException {
+		int size = data.size();
+		gen.writeStartArray();
+		if(!data.hasX()){
+			for (int i = 0; i < size; i++){
+				writeNumber(gen, data.y(i));
+			}
+		}else{
+			boolean longX = data.hasLongX();
+			boolean hasZ = data.hasZ();
+			for (int i = 0; i < size; i++){
+				gen.writeStartArray();
+				if(longX){
+					gen.writeNumber(data.longX(i));
+				}else{
+					writeNumber(gen, data.x(i));
+				}
+				writeNumber(gen, data.y(i));
+				if(hasZ){
+					writeNumber(gen, data.z(i));
+				}
+				gen.writeEndArray();
+			}
+		}
+		gen.writeEndArray();
+	}
+
+	/**
+	 * Writes the value, as null if it is not a number, and without a fraction if it is whole.
+	 */
+	private static void writeNumber(JsonGenerator gen, double value) throws IOException {
+		if(Double.isNaN(value) || Double.isInfinite(value)){
+			gen.writeNull();
+		}else if(value == (long)value){
+			gen.writeNumber((long)value);
+		}else{
+			gen.writeNumber(value);
+		}
+	}
+
+}
@@ -29,4 +29,24 @@ public class ERHighchartsFunction extends Object {
 	public ERHighchartsFunction(String v){
 		body = v;
 	}
+
+	/**
+	 * Functions are equal when their bodies are.
+	 */
+	@Override
+	public boolean equals(Object other){
+		if(this == other){
+			return true;
+		}
+		if(!(other instanceof ERHighchartsFunction)){
+			return false;
+		}
+		String otherBody = ((ERHighchartsFunction)other).body;
+		return body == null ? otherBody == null : body.equals(otherBody);
+	}
+
+	@Override
+	public int hashCode(){
+		return body == null ? 0 : body.hashCode();
+	}
 }
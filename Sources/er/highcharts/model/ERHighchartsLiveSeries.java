@@ -0,0 +1,255 @@
+package er.highcharts.model;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A live series: a bounded ring buffer of the most recent points of a metric, which charts
+ * show and then follow as new points are added.
+ *
+ * Every point added is given the next sequence number, so a chart which has shown the
+ * points up to a sequence number asks for {@link #updateSince(long)} and receives only the
+ * newer points, however many points the buffer holds. Points older than the capacity are
+ * dropped, as Highcharts drops them when it shifts the chart.
+ *
+ * Live series are shared by the application: publish one with {@link #seriesNamed(String, int)}
+ * and add to it from wherever the samples are taken.
+ *
+ * <pre>
+ * ERHighchartsLiveSeries.seriesNamed("requests", 300).addPoint(requestsPerSecond);
+ * </pre>
+ *
+ * @author matt
+ *
+ */
+public class ERHighchartsLiveSeries {
+
+	/**
+	 * The published series, by name
+	 */
+	private static final ConcurrentMap<String, ERHighchartsLiveSeries> _series = new ConcurrentHashMap<String, ERHighchartsLiveSeries>();
+
+	/**
+	 * The points of a series added after a sequence number.
+	 */
+	public static class Update {
+		private final ERHighchartsSeriesData _data;
+		private final long _sequence;
+
+		Update(ERHighchartsSeriesData data, long sequence){
+			_data = data;
+			_sequence = sequence;
+		}
+
+		/**
+		 * The new points, as <code>[x, y]</code> pairs
+		 * @return
+		 */
+		public ERHighchartsSeriesData data(){
+			return _data;
+		}
+
+		/**
+		 * The sequence number of the last point added
+		 * @return
+		 */
+		public long sequence(){
+			return _sequence;
+		}
+	}
+
+	private final String _name;
+	private final long[] _x;
+	private final double[] _y;
+
+	/**
+	 * The number of points ever added
+	 */
+	private long _sequence;
+
+	/**
+	 * The latches of the callers waiting for points of this series, counted down by the next point
+	 */
+	private final ConcurrentMap<CountDownLatch, Boolean> _waiters = new ConcurrentHashMap<CountDownLatch, Boolean>();
+
+	/**
+	 * The published series with the name, created with the capacity if there is none.
+	 *
+	 * @param name
+	 * @param capacity the number of points the series holds, if it is created
+	 * @return
+	 */
+	public static ERHighchartsLiveSeries seriesNamed(String name, int capacity){
+		ERHighchartsLiveSeries series = _series.get(name);
+		if(series == null){
+			ERHighchartsLiveSeries created = new ERHighchartsLiveSeries(name, capacity);
+			series = _series.putIfAbsent(name, created);
+			if(series == null){
+				series = created;
+			}
+		}
+		return series;
+	}
+
+	/**
+	 * The published series with the name, or null.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public static ERHighchartsLiveSeries seriesNamed(String name){
+		return _series.get(name);
+	}
+
+	/**
+	 * Stops publishing the series with the name.
+	 *
+	 * @param name
+	 */
+	public static void removeSeriesNamed(String name){
+		_series.remove(name);
+	}
+
+	/**
+	 * Waits until any of the series has points after its sequence number, or the timeout passes.
+	 * Only points added to these series wake the caller.
+	 *
+	 * @param series
+	 * @param sequences the sequence number seen by the caller, for each of the series
+	 * @param timeout the maximum number of milliseconds to wait
+	 * @return true if there are new points
+	 * @throws InterruptedException
+	 */
+	public static boolean awaitUpdate(List<ERHighchartsLiveSeries> series, long[] sequences, long timeout) throws InterruptedException {
+		CountDownLatch latch = new CountDownLatch(1);
+		for (ERHighchartsLiveSeries each : series){
+			each._waiters.put(latch, Boolean.TRUE);
+		}
+		try {
+			//checked after registering, so a point added in between is not missed
+			if(hasUpdate(series, sequences)){
+				return true;
+			}
+			latch.await(timeout, TimeUnit.MILLISECONDS);
+			return hasUpdate(series, sequences);
+		} finally {
+			for (ERHighchartsLiveSeries each : series){
+				each._waiters.remove(latch);
+			}
+		}
+	}
+
+	private static boolean hasUpdate(List<ERHighchartsLiveSeries> series, long[] sequences){
+		for (int i = 0; i < series.size(); i++){
+			if(series.get(i).sequence() > sequences[i]){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Standard constructor, for a series which is not published.
+	 *
+	 * @param name
+	 * @param capacity the number of points held
+	 */
+	public ERHighchartsLiveSeries(String name, int capacity){
+		if(capacity < 1){
+			throw new IllegalArgumentException("A live series must hold at least one point.");
+		}
+		_name = name;
+		_x = new long[capacity];
+		_y = new double[capacity];
+	}
+
+	/**
+	 * The name of the series
+	 * @return
+	 */
+	public String name(){
+		return _name;
+	}
+
+	/**
+	 * The number of points held
+	 * @return
+	 */
+	public int capacity(){
+		return _y.length;
+	}
+
+	/**
+	 * Adds the point, dropping the oldest point if the series is full.
+	 *
+	 * @param x the x value, typically a millisecond timestamp
+	 * @param y
+	 */
+	public void addPoint(long x, double y){
+		synchronized(this){
+			int index = (int)(_sequence % _y.length);
+			_x[index] = x;
+			_y[index] = y;
+			_sequence++;
+		}
+		for (CountDownLatch latch : _waiters.keySet()){
+			latch.countDown();
+		}
+	}
+
+	/**
+	 * Adds the point, at the current time.
+	 *
+	 * @param y
+	 */
+	public void addPoint(double y){
+		addPoint(System.currentTimeMillis(), y);
+	}
+
+	/**
+	 * The sequence number of the last point added, 0 if there are none.
+	 * @return
+	 */
+	public synchronized long sequence(){
+		return _sequence;
+	}
+
+	/**
+	 * The number of points held
+	 * @return
+	 */
+	public synchronized int size(){
+		return (int)Math.min(_sequence, _y.length);
+	}
+
+	/**
+	 * The points held, oldest first.
+	 * @return
+	 */
+	public ERHighchartsSeriesData data(){
+		return updateSince(0).data();
+	}
+
+	/**
+	 * The points added after the sequence number which are still held, oldest first.
+	 *
+	 * @param sequence the sequence number of the last point seen
+	 * @return
+	 */
+	public synchronized Update updateSince(long sequence){
+		long first = Math.max(Math.max(sequence, 0), _sequence - _y.length);
+		int count = (int)Math.max(0, _sequence - first);
+		long[] x = new long[count];
+		double[] y = new double[count];
+		for (int i = 0; i < count; i++){
+			int index = (int)((first + i) % _y.length);
+			x[i] = _x[index];
+			y[i] = _y[index];
+		}
+		return new Update(new ERHighchartsSeriesData(x, y), _sequence);
+	}
+
+}
@@ -0,0 +1,197 @@
+package er.highcharts.model;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.codehaus.jackson.map.annotate.JsonSerialize;
+
+import er.highcharts.control.serializers.ERHighchartsPointDataSerializer;
+
+/**
+ * Compact series data for points which only have a name (or x value) and a y value,
+ * such as pie wedges and category columns.
+ * 
+ * Rather than a point graph per point, the points are held in two flat arrays, and are
+ * written in the Highcharts array form <code>[[name, y], ...]</code> (or <code>[[x, y], ...]</code>), 
+ * which avoids repeating <code>name:</code> and <code>y:</code> for every point. 
+ * {@code Double.NaN} y values are written as <code>null</code>.
+ * 
+ * Points with any other option (colour, sliced, ...) need the object form, so are left as point graphs.
+ * 
+ * The arrays are not copied, and must not be modified once passed in.
+ * 
+ * @author matt
+ *
+ */
+@JsonSerialize(using = ERHighchartsPointDataSerializer.class)
+public class ERHighchartsPointData {
+
+	/**
+	 * The names (Strings) or x values (Numbers) of the points
+	 */
+	private final Object[] _keys;
+
+	/**
+	 * The y values of the points
+	 */
+	private final double[] _y;
+
+	/**
+	 * Standard constructor
+	 * @param keys the names (Strings) or x values (Numbers) of the points
+	 * @param y the y values of the points
+	 */
+	public ERHighchartsPointData(Object[] keys, double[] y){
+		if(keys == null || y == null || keys.length != y.length){
+			throw new IllegalArgumentException("Point data requires keys and y values of the same length.");
+		}
+		_keys = keys;
+		_y = y;
+	}
+
+	/**
+	 * Point data for the keys and y values, or null if any y value is not a {@code Number} (or null).
+	 * @param keys the names (Strings) or x values (Numbers) of the points
+	 * @param y the y values of the points
+	 * @return
+	 */
+	public static ERHighchartsPointData pointData(Object[] keys, Object[] y){
+		double[] values = new double[y.length];
+		for (int i = 0; i < y.length; i++){
+			if(y[i] == null){
+				values[i] = Double.NaN;
+			}else if(y[i] instanceof Number){
+				values[i] = ((Number)y[i]).doubleValue();
+			}else{
+				return null;
+			}
+		}
+		return new ERHighchartsPointData(keys, values);
+	}
+
+	/**
+	 * Point data for named points, such as pie slices, or null if any name is null or any y
+	 * value is not a {@code Number} (or null). Names which are not Strings are written as their 
+	 * String value, as Highcharts reads a Number in the first place of a point as its x value.
+	 * @param names the names of the points
+	 * @param y the y values of the points
+	 * @return
+	 */
+	public static ERHighchartsPointData namedPointData(Object[] names, Object[] y){
+		String[] keys = new String[names.length];
+		for (int i = 0; i < names.length; i++){
+			if(names[i] == null){
+				return null;
+			}
+			keys[i] = String.valueOf(names[i]);
+		}
+		return pointData(keys, y);
+	}
+
+	/**
+	 * Point data for a List of point graphs, when every point has exactly a String 
+	 * <code>name</code> or Number <code>x</code>, and a Number (or null) <code>y</code>.
+	 * 
+	 * @param data a series data value
+	 * @return the point data, or null if the value is not a List of such points.
+	 */
+	public static ERHighchartsPointData pointDataFromObject(Object data){
+		if(!(data instanceof List) || ((List<?>)data).isEmpty()){
+			return null;
+		}
+		List<?> points = (List<?>)data;
+		int size = points.size();
+		Object[] keys = new Object[size];
+		double[] y = new double[size];
+		for (int i = 0; i < size; i++){
+			Object point = points.get(i);
+			if(!(point instanceof KVCAExtensionGraph)){
+				return null;
+			}
+			KVCAExtensionGraph graph = (KVCAExtensionGraph)point;
+			if(graph.nodes.size() != 2 || !graph.nodes.containsKey("y")){
+				return null;
+			}
+			Object key = graph.nodes.get("name");
+			if(key == null){
+				key = graph.nodes.get("x");
+				if(!(key instanceof Number)){
+					return null;
+				}
+			}else if(!(key instanceof String)){
+				return null;
+			}
+			Object value = graph.nodes.get("y");
+			if(value == null){
+				y[i] = Double.NaN;
+			}else if(value instanceof Number){
+				y[i] = ((Number)value).doubleValue();
+			}else{
+				return null;
+			}
+			keys[i] = key;
+		}
+		return new ERHighchartsPointData(keys, y);
+	}
+
+	/**
+	 * The number of points
+	 * @return
+	 */
+	public int size(){
+		return _y.length;
+	}
+
+	/**
+	 * The name or x value of the point at the index
+	 * @param index
+	 * @return
+	 */
+	public Object key(int index){
+		return _keys[index];
+	}
+
+	/**
+	 * The y value of the point at the index
+	 * @param index
+	 * @return
+	 */
+	public double y(int index){
+		return _y[index];
+	}
+
+	/**
+	 * A 64 bit fingerprint of the points, for {@code KVCAExtensionGraph#fingerprint()}.
+	 * @return
+	 */
+	public long fingerprint(){
+		long fingerprint = 13;
+		for (int i = 0; i < _y.length; i++){
+			fingerprint = fingerprint * 31 + KVCAExtensionGraph.fingerprintForValue(_keys[i]);
+			fingerprint = fingerprint * 31 + Double.doubleToLongBits(_y[i]);
+		}
+		return KVCAExtensionGraph.mix(fingerprint);
+	}
+
+	/**
+	 * Point data are equal when they hold the same keys and values.
+	 */
+	@Override
+	public boolean equals(Object other){
+		if(this == other){
+			return true;
+		}
+		if(!(other instanceof ERHighchartsPointData)){
+			return false;
+		}
+		ERHighchartsPointData data = (ERHighchartsPointData)other;
+		return Arrays.equals(_keys, data._keys) && Arrays.equals(_y, data._y);
+	}
+
+	@Override
+	public int hashCode(){
+		long fingerprint = fingerprint();
+		return (int)(fingerprint ^ (fingerprint >>> 32));
+	}
+
+}
@@ -0,0 +1,499 @@
+package er.highcharts.model;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.codehaus.jackson.map.annotate.JsonSerialize;
+
+import er.highcharts.control.serializers.ERHighchartsSeriesDataSerializer;
+
+/**
+ * Series data held in primitive arrays, for large numeric series.
+ * 
+ * A series of boxed {@code Number} objects, or of point graphs, costs an object (or several)
+ * per point, and each is serialized reflectively. This class holds the columns of a series 
+ * as {@code double[]} (or {@code long[]} for millisecond time values on the x axis) and is
+ * written by {@code ERHighchartsSeriesDataSerializer} straight from the arrays.
+ * 
+ * Depending on the columns present, the JSON output is either a list of y values
+ * <code>[y, y, ...]</code> (use <code>pointStart</code> and <code>pointInterval</code> on the
+ * series for the x values), or a list of points <code>[[x, y], ...]</code> or 
+ * <code>[[x, y, z], ...]</code>. {@code Double.NaN} y values are written as <code>null</code>,
+ * which Highcharts draws as a gap.
+ * 
+ * The arrays are not copied, and must not be modified once passed in.
+ * 
+ * Large series can be reduced with {@link #downsample(int)}, which keeps the visual shape
+ * (including peaks and troughs) using the Largest-Triangle-Three-Buckets algorithm, or, for
+ * points in no particular x order such as scatter plots, with {@link #downsampleMinMax(int)}.
+ * 
+ * @author matt
+ *
+ */
+@JsonSerialize(using = ERHighchartsSeriesDataSerializer.class)
+public class ERHighchartsSeriesData {
+
+	/**
+	 * The x values, if not held as longs
+	 */
+	private final double[] _x;
+
+	/**
+	 * The x values as longs, typically millisecond timestamps
+	 */
+	private final long[] _longX;
+
+	/**
+	 * The y values
+	 */
+	private final double[] _y;
+
+	/**
+	 * The optional z values, e.g. for bubble sizes
+	 */
+	private final double[] _z;
+
+	/**
+	 * Series data of y values only.
+	 * @param y
+	 */
+	public ERHighchartsSeriesData(double[] y){
+		this(null, null, y, null);
+	}
+
+	/**
+	 * Series data of x and y values.
+	 * @param x
+	 * @param y
+	 */
+	public ERHighchartsSeriesData(double[] x, double[] y){
+		this(x, null, y, null);
+	}
+
+	/**
+	 * Series data of x (as longs, e.g. millisecond timestamps) and y values.
+	 * @param x
+	 * @param y
+	 */
+	public ERHighchartsSeriesData(long[] x, double[] y){
+		this(null, x, y, null);
+	}
+
+	/**
+	 * Series data of x, y and z values.
+	 * @param x
+	 * @param y
+	 * @param z
+	 */
+	public ERHighchartsSeriesData(double[] x, double[] y, double[] z){
+		this(x, null, y, z);
+	}
+
+	/**
+	 * Series data of x (as longs, e.g. millisecond timestamps), y and z values.
+	 * @param x
+	 * @param y
+	 * @param z
+	 */
+	public ERHighchartsSeriesData(long[] x, double[] y, double[] z){
+		this(null, x, y, z);
+	}
+
+	/**
+	 * Common constructor, checking the columns are the same length.
+	 */
+	private ERHighchartsSeriesData(double[] x, long[] longX, double[] y, double[] z){
+		if(y == null){
+			throw new IllegalArgumentException("Series data requires y values.");
+		}
+		if((x != null && x.length != y.length) || (longX != null && longX.length != y.length) || (z != null && z.length != y.length)){
+			throw new IllegalArgumentException("Series data columns must all be the same length.");
+		}
+		if(z != null && x == null && longX == null){
+			throw new IllegalArgumentException("Series data with z values requires x values.");
+		}
+		_x = x;
+		_longX = longX;
+		_y = y;
+		_z = z;
+	}
+
+	/**
+	 * The number of points
+	 * @return
+	 */
+	public int size(){
+		return _y.length;
+	}
+
+	/**
+	 * Whether the points have x values
+	 * @return
+	 */
+	public boolean hasX(){
+		return _x != null || _longX != null;
+	}
+
+	/**
+	 * Whether the x values are held as longs
+	 * @return
+	 */
+	public boolean hasLongX(){
+		return _longX != null;
+	}
+
+	/**
+	 * Whether the points have z values
+	 * @return
+	 */
+	public boolean hasZ(){
+		return _z != null;
+	}
+
+	/**
+	 * The x value of the point at the index, or the index itself if there are no x values.
+	 * @param index
+	 * @return
+	 */
+	public double x(int index){
+		if(_x != null){
+			return _x[index];
+		}
+		if(_longX != null){
+			return _longX[index];
+		}
+		return index;
+	}
+
+	/**
+	 * The x value of the point at the index as a long.
+	 * @param index
+	 * @return
+	 */
+	public long longX(int index){
+		if(_longX != null){
+			return _longX[index];
+		}
+		return (long)x(index);
+	}
+
+	/**
+	 * The y value of the point at the index.
+	 * @param index
+	 * @return
+	 */
+	public double y(int index){
+		return _y[index];
+	}
+
+	/**
+	 * The z value of the point at the index, or {@code Double.NaN} if there are no z values.
+	 * @param index
+	 * @return
+	 */
+	public double z(int index){
+		if(_z != null){
+			return _z[index];
+		}
+		return Double.NaN;
+	}
+
+	/**
+	 * A 64 bit fingerprint of the series' values, for {@code KVCAExtensionGraph#fingerprint()}.
+	 * @return
+	 */
+	public long fingerprint(){
+		long fingerprint = (hasLongX() ? 7 : hasX() ? 5 : 3) + (hasZ() ? 11 : 0);
+		int size = size();
+		for (int i = 0; i < size; i++){
+			if(hasLongX()){
+				fingerprint = fingerprint * 31 + _longX[i];
+			}else if(_x != null){
+				fingerprint = fingerprint * 31 + Double.doubleToLongBits(_x[i]);
+			}
+			fingerprint = fingerprint * 31 + Double.doubleToLongBits(_y[i]);
+			if(_z != null){
+				fingerprint = fingerprint * 31 + Double.doubleToLongBits(_z[i]);
+			}
+		}
+		return KVCAExtensionGraph.mix(fingerprint);
+	}
+
+	/**
+	 * Series data are equal when they hold the same values.
+	 */
+	@Override
+	public boolean equals(Object other){
+		if(this == other){
+			return true;
+		}
+		if(!(other instanceof ERHighchartsSeriesData)){
+			return false;
+		}
+		ERHighchartsSeriesData data = (ERHighchartsSeriesData)other;
+		return Arrays.equals(_x, data._x) && Arrays.equals(_longX, data._longX) 
+				&& Arrays.equals(_y, data._y) && Arrays.equals(_z, data._z);
+	}
+
+	@Override
+	public int hashCode(){
+		long fingerprint = fingerprint();
+		return (int)(fingerprint ^ (fingerprint >>> 32));
+	}
+
+	/**
+	 * Builds series data from a plain numeric series value, as found on a series
+	 * <code>data</code> key path: an {@code ERHighchartsSeriesData}, a {@code double[]}, a List of
+	 * {@code Number} y values (nulls become gaps), or a List of <code>[x, y]</code> pairs
+	 * (as Lists or arrays of {@code Number}).
+	 * 
+	 * @param data
+	 * @return the series data, or null if the value is not a plain numeric series.
+	 */
+	public static ERHighchartsSeriesData seriesDataFromObject(Object data){
+		if(data instanceof ERHighchartsSeriesData){
+			return (ERHighchartsSeriesData)data;
+		}
+		if(data instanceof double[]){
+			return new ERHighchartsSeriesData((double[])data);
+		}
+		if(!(data instanceof List) || ((List<?>)data).isEmpty()){
+			return null;
+		}
+		List<?> list = (List<?>)data;
+		int size = list.size();
+		double[] y = new double[size];
+		
+		Object first = list.get(0);
+		if(first == null || first instanceof Number){
+			for (int i = 0; i < size; i++){
+				Object value = list.get(i);
+				if(value == null){
+					y[i] = Double.NaN;
+				}else if(value instanceof Number){
+					y[i] = ((Number)value).doubleValue();
+				}else{
+					return null;
+				}
+			}
+			return new ERHighchartsSeriesData(y);
+		}
+		
+		double[] x = new double[size];
+		for (int i = 0; i < size; i++){
+			Object point = list.get(i);
+			Object xValue = null;
+			Object yValue = null;
+			if(point instanceof List && ((List<?>)point).size() == 2){
+				xValue = ((List<?>)point).get(0);
+				yValue = ((List<?>)point).get(1);
+			}else if(point instanceof Object[] && ((Object[])point).length == 2){
+				xValue = ((Object[])point)[0];
+				yValue = ((Object[])point)[1];
+			}
+			if(!(xValue instanceof Number) || (yValue != null && !(yValue instanceof Number))){
+				return null;
+			}
+			x[i] = ((Number)xValue).doubleValue();
+			y[i] = yValue == null ? Double.NaN : ((Number)yValue).doubleValue();
+		}
+		return new ERHighchartsSeriesData(x, y);
+	}
+
+	/**
+	 * Series data with x values, for y value only data positioned by a series' 
+	 * <code>pointStart</code> and <code>pointInterval</code> options. Whole number 
+	 * (e.g. millisecond) starts and intervals give long x values. 
+	 * Data which already has x values is returned as is.
+	 * 
+	 * @param pointStart the first x value, 0 if null
+	 * @param pointInterval the x interval between points, 1 if null
+	 * @return
+	 */
+	public ERHighchartsSeriesData withPointInterval(Number pointStart, Number pointInterval){
+		if(hasX()){
+			return this;
+		}
+		double start = pointStart == null ? 0 : pointStart.doubleValue();
+		double interval = pointInterval == null ? 1 : pointInterval.doubleValue();
+		int size = size();
+		if(start == (long)start && interval == (long)interval){
+			long[] x = new long[size];
+			for (int i = 0; i < size; i++){
+				x[i] = (long)start + i * (long)interval;
+			}
+			return new ERHighchartsSeriesData(x, _y);
+		}
+		double[] x = new double[size];
+		for (int i = 0; i < size; i++){
+			x[i] = start + i * interval;
+		}
+		return new ERHighchartsSeriesData(x, _y);
+	}
+
+	/**
+	 * Reduces the series to at most {@code maxPoints} points with the Largest-Triangle-Three-Buckets
+	 * algorithm, which keeps the first and last points, and from each bucket between them the point
+	 * forming the largest triangle with its neighbours, so peaks and troughs survive.
+	 * 
+	 * The points should be in x order. Y value only data is positioned by index; use 
+	 * {@link #withPointInterval(Number, Number)} first to keep the real x values.
+	 * 
+	 * @param maxPoints the maximum number of points to keep. Values below 3 disable downsampling.
+	 * @return the downsampled data, or this object if it is already small enough.
+	 */
+	public ERHighchartsSeriesData downsample(int maxPoints){
+		int size = size();
+		if(maxPoints < 3 || size <= maxPoints){
+			return this;
+		}
+
+		int[] selected = new int[maxPoints];
+		int count = 0;
+		selected[count++] = 0;
+		
+		double bucketSize = (double)(size - 2) / (maxPoints - 2);
+		int a = 0;
+		for (int bucket = 0; bucket < maxPoints - 2; bucket++){
+			//the average of the next bucket is the third corner of the triangle.
+			int nextStart = (int)Math.floor((bucket + 1) * bucketSize) + 1;
+			int nextEnd = Math.min((int)Math.floor((bucket + 2) * bucketSize) + 1, size);
+			double avgX = 0;
+			double avgY = 0;
+			int avgCount = 0;
+			for (int i = nextStart; i < nextEnd; i++){
+				if(!Double.isNaN(_y[i])){
+					avgX += x(i);
+					avgY += _y[i];
+					avgCount++;
+				}
+			}
+			if(avgCount > 0){
+				avgX /= avgCount;
+				avgY /= avgCount;
+			}else{
+				avgX = x(size - 1);
+				avgY = Double.isNaN(_y[size - 1]) ? 0 : _y[size - 1];
+			}
+
+			int start = (int)Math.floor(bucket * bucketSize) + 1;
+			int end = (int)Math.floor((bucket + 1) * bucketSize) + 1;
+			double ax = x(a);
+			double ay = Double.isNaN(_y[a]) ? avgY : _y[a];
+			
+			//a bucket with no values keeps its first point, preserving the gap.
+			int chosen = start;
+			double maxArea = -1;
+			for (int i = start; i < end; i++){
+				if(Double.isNaN(_y[i])){
+					continue;
+				}
+				double area = Math.abs((ax - avgX) * (_y[i] - ay) - (ax - x(i)) * (avgY - ay));
+				if(area > maxArea){
+					maxArea = area;
+					chosen = i;
+				}
+			}
+			selected[count++] = chosen;
+			a = chosen;
+		}
+		selected[count++] = size - 1;
+		
+		return select(selected, count);
+	}
+
+	/**
+	 * Reduces the series to at most {@code maxPoints} points by dividing the x range into
+	 * <code>maxPoints / 2</code> buckets of equal width, and keeping the points with the lowest
+	 * and highest y value of each. The points need not be in x order, so this suits scatter
+	 * plots, which Largest-Triangle-Three-Buckets does not. The points kept stay in their order.
+	 * 
+	 * @param maxPoints the maximum number of points to keep. Values below 2 disable downsampling.
+	 * @return the downsampled data, or this object if it is already small enough.
+	 */
+	public ERHighchartsSeriesData downsampleMinMax(int maxPoints){
+		int size = size();
+		if(maxPoints < 2 || size <= maxPoints){
+			return this;
+		}
+
+		double minX = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < size; i++){
+			double x = x(i);
+			if(!Double.isNaN(_y[i]) && !Double.isNaN(x)){
+				minX = Math.min(minX, x);
+				maxX = Math.max(maxX, x);
+			}
+		}
+		if(minX > maxX){
+			//no values at all
+			return select(new int[]{0, size - 1}, 2);
+		}
+
+		int buckets = maxPoints / 2;
+		double width = (maxX - minX) / buckets;
+		int[] lowest = new int[buckets];
+		int[] highest = new int[buckets];
+		Arrays.fill(lowest, -1);
+		Arrays.fill(highest, -1);
+		for (int i = 0; i < size; i++){
+			double x = x(i);
+			if(Double.isNaN(_y[i]) || Double.isNaN(x)){
+				continue;
+			}
+			int bucket = width > 0 ? Math.min((int)((x - minX) / width), buckets - 1) : 0;
+			if(lowest[bucket] < 0 || _y[i] < _y[lowest[bucket]]){
+				lowest[bucket] = i;
+			}
+			if(highest[bucket] < 0 || _y[i] > _y[highest[bucket]]){
+				highest[bucket] = i;
+			}
+		}
+
+		boolean[] keep = new boolean[size];
+		for (int bucket = 0; bucket < buckets; bucket++){
+			if(lowest[bucket] >= 0){
+				keep[lowest[bucket]] = true;
+				keep[highest[bucket]] = true;
+			}
+		}
+		int[] selected = new int[maxPoints];
+		int count = 0;
+		for (int i = 0; i < size; i++){
+			if(keep[i]){
+				selected[count++] = i;
+			}
+		}
+		return select(selected, count);
+	}
+
+	/**
+	 * New series data of the points at the given indexes.
+	 */
+	private ERHighchartsSeriesData select(int[] indexes, int count){
+		double[] y = new double[count];
+		double[] x = _x == null ? null : new double[count];
+		long[] longX = _longX == null ? null : new long[count];
+		double[] z = _z == null ? null : new double[count];
+		boolean indexX = !hasX();
+		if(indexX){
+			x = new double[count];
+		}
+		for (int i = 0; i < count; i++){
+			int index = indexes[i];
+			y[i] = _y[index];
+			if(x != null){
+				x[i] = indexX ? index : _x[index];
+			}
+			if(longX != null){
+				longX[i] = _longX[index];
+			}
+			if(z != null){
+				z[i] = _z[index];
+			}
+		}
+		return new ERHighchartsSeriesData(x, longX, y, z);
+	}
+
+}
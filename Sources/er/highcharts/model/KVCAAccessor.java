@@ -0,0 +1,175 @@
+package er.highcharts.model;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.webobjects.foundation.NSForwardException;
+
+/**
+ * A resolved accessor for one key on one class, as used by {@link KVCAKeyPath#valueForObject(Object)}.
+ * 
+ * The accessor method (or field) is found once, following the same naming rules as 
+ * {@code NSKeyValueCoding}: <code>getKey()</code>, <code>key()</code>, <code>isKey()</code>, 
+ * <code>_getKey()</code>, <code>_key()</code>, <code>_isKey()</code>, then the fields 
+ * <code>key</code>, <code>_key</code>, <code>isKey</code> and <code>_isKey</code>.
+ * The resolved accessors are cached per class and key.
+ * 
+ * Objects with no accessor for the key, such as generic records or dictionaries, 
+ * are left to key value coding.
+ * 
+ * The framework targets Java 6, which has neither method handles nor lambdas, so the 
+ * accessors are reflected methods and fields.
+ * 
+ * @author matt
+ *
+ */
+abstract class KVCAAccessor {
+
+	/**
+	 * The accessors for each class, by key
+	 */
+	private static final ConcurrentMap<Class<?>, ConcurrentMap<String, KVCAAccessor>> _accessors = new ConcurrentHashMap<Class<?>, ConcurrentMap<String, KVCAAccessor>>();
+
+	/**
+	 * The placeholder for keys which must be resolved with key value coding.
+	 */
+	static final KVCAAccessor KEY_VALUE_CODING = new KVCAAccessor(){
+		@Override
+		Object valueForObject(Object object){
+			throw new UnsupportedOperationException("Use key value coding.");
+		}
+	};
+
+	/**
+	 * The value of the key for the object
+	 * @param object
+	 * @return
+	 */
+	abstract Object valueForObject(Object object);
+
+	/**
+	 * The cached accessor for the key on the object's class, or {@link #KEY_VALUE_CODING} if
+	 * the object must use key value coding for the key.
+	 * 
+	 * @param object a non null object
+	 * @param key
+	 * @return
+	 */
+	static KVCAAccessor accessorForKey(Object object, String key){
+		if(object instanceof KVCAExtensionGraph || object instanceof List || object instanceof Map 
+				|| (key.length() > 0 && key.charAt(0) == '@')){
+			return KEY_VALUE_CODING;
+		}
+		Class<?> objectClass = object.getClass();
+		ConcurrentMap<String, KVCAAccessor> classAccessors = _accessors.get(objectClass);
+		if(classAccessors == null){
+			classAccessors = new ConcurrentHashMap<String, KVCAAccessor>();
+			ConcurrentMap<String, KVCAAccessor> existing = _accessors.putIfAbsent(objectClass, classAccessors);
+			if(existing != null){
+				classAccessors = existing;
+			}
+		}
+		KVCAAccessor accessor = classAccessors.get(key);
+		if(accessor == null){
+			accessor = resolveAccessor(objectClass, key);
+			classAccessors.put(key, accessor);
+		}
+		return accessor;
+	}
+
+	/**
+	 * Finds the accessor method or field for the key.
+	 */
+	private static KVCAAccessor resolveAccessor(Class<?> objectClass, String key){
+		if(key.length() == 0){
+			return KEY_VALUE_CODING;
+		}
+		String capitalized = Character.toUpperCase(key.charAt(0)) + key.substring(1);
+		String[] methodNames = new String[]{"get" + capitalized, key, "is" + capitalized, "_get" + capitalized, "_" + key, "_is" + capitalized};
+		for (String methodName : methodNames){
+			try {
+				Method method = objectClass.getMethod(methodName);
+				if(method.getReturnType() != void.class && !Modifier.isStatic(method.getModifiers()) && makeAccessible(method)){
+					return new MethodAccessor(method);
+				}
+			} catch (NoSuchMethodException e) {
+				//try the next name
+			}
+		}
+		String[] fieldNames = new String[]{key, "_" + key, "is" + capitalized, "_is" + capitalized};
+		for (String fieldName : fieldNames){
+			try {
+				Field field = objectClass.getField(fieldName);
+				if(!Modifier.isStatic(field.getModifiers()) && makeAccessible(field)){
+					return new FieldAccessor(field);
+				}
+			} catch (NoSuchFieldException e) {
+				//try the next name
+			}
+		}
+		return KEY_VALUE_CODING;
+	}
+
+	/**
+	 * Public members of non public classes need to be made accessible.
+	 */
+	private static boolean makeAccessible(AccessibleObject member){
+		try {
+			member.setAccessible(true);
+			return true;
+		} catch (SecurityException e) {
+			return Modifier.isPublic(((Member)member).getDeclaringClass().getModifiers());
+		}
+	}
+
+	/**
+	 * An accessor method
+	 */
+	private static class MethodAccessor extends KVCAAccessor {
+		private final Method _method;
+		
+		MethodAccessor(Method method){
+			_method = method;
+		}
+		
+		@Override
+		Object valueForObject(Object object){
+			try {
+				return _method.invoke(object);
+			} catch (InvocationTargetException e) {
+				throw NSForwardException._runtimeExceptionForThrowable(e.getCause());
+			} catch (IllegalAccessException e) {
+				throw NSForwardException._runtimeExceptionForThrowable(e);
+			}
+		}
+	}
+
+	/**
+	 * An accessor field
+	 */
+	private static class FieldAccessor extends KVCAAccessor {
+		private final Field _field;
+		
+		FieldAccessor(Field field){
+			_field = field;
+		}
+		
+		@Override
+		Object valueForObject(Object object){
+			try {
+				return _field.get(object);
+			} catch (IllegalAccessException e) {
+				throw NSForwardException._runtimeExceptionForThrowable(e);
+			}
+		}
+	}
+
+}
@@ -1,9 +1,14 @@
 package er.highcharts.model;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.Map.Entry;
 
 import org.apache.log4j.Logger;
 import org.codehaus.jackson.annotate.JsonAnyGetter;
@@ -19,6 +24,13 @@ import com.webobjects.foundation.NSKeyValueCodingAdditions;
  * 
  * You may nominate any key path you wish to set an object on (including another KVCAExtensionGraph object if you want) 
  * 
+ * A graph can be frozen with {@link #freeze()}, after which it (and every graph within it) is immutable,
+ * and can be shared between threads and sessions, for example as a base set of options bound to 
+ * every chart. Setting a value on a mutable graph which passes through a frozen graph copies only the 
+ * frozen graphs on that path (copy on write), sharing everything else. {@link #mutableCopy()} starts a
+ * per request overlay on top of a frozen graph in the same way. Leaf values in a frozen graph are
+ * shared as they are, so they should be immutable themselves (Strings, Numbers, NSArrays, ...).
+ * 
  * @author matt
  * 
  */
@@ -52,92 +64,174 @@ public class KVCAExtensionGraph implements NSKeyValueCoding, NSKeyValueCodingAdd
 		return nodes;
 	}
 	
+	/**
+	 * Whether this graph is immutable
+	 */
+	private volatile boolean _frozen;
+
+	/**
+	 * The fingerprint of a frozen graph, computed once.
+	 */
+	private long _frozenFingerprint;
+
 	/**
 	 * Constructor
 	 */
 	public KVCAExtensionGraph(){
 		super();
 	}
+
+	/**
+	 * Makes this graph, and every graph within it, immutable. Any further attempt to set
+	 * a value on it throws an {@code IllegalStateException}.
+	 * 
+	 * @return this graph, for convenience
+	 */
+	public KVCAExtensionGraph freeze(){
+		if(!_frozen){
+			for (Object value : nodes.values()){
+				if(value instanceof KVCAExtensionGraph){
+					((KVCAExtensionGraph)value).freeze();
+				}
+			}
+			nodes = Collections.unmodifiableMap(nodes);
+			_frozenFingerprint = fingerprint();
+			_frozen = true;
+		}
+		return this;
+	}
+
+	/**
+	 * Whether this graph is immutable
+	 * @return
+	 */
+	public boolean isFrozen(){
+		return _frozen;
+	}
+
+	/**
+	 * A mutable graph with the same values. Frozen graphs within this one are shared
+	 * rather than copied, and are only copied if a value is later set through them. 
+	 * Mutable graphs within this one are copied in the same way.
+	 * 
+	 * @return
+	 */
+	public KVCAExtensionGraph mutableCopy(){
+		KVCAExtensionGraph copy = new KVCAExtensionGraph();
+		for (Entry<String, Object> entry : nodes.entrySet()){
+			Object value = entry.getValue();
+			if(value instanceof KVCAExtensionGraph && !((KVCAExtensionGraph)value).isFrozen()){
+				value = ((KVCAExtensionGraph)value).mutableCopy();
+			}
+			copy.nodes.put(entry.getKey(), value);
+		}
+		return copy;
+	}
+
+	/**
+	 * Throws if this graph is frozen.
+	 */
+	private void checkNotFrozen(){
+		if(_frozen){
+			throw new IllegalStateException("This KVCAExtensionGraph is frozen. Use mutableCopy() to change it.");
+		}
+	}
 	
 	public void takeValueForKeyPath(Object value, String keyPath) {
 		if (keyPath == null) {
 			return;
 		}
+		if(keyPath.indexOf(NSKeyValueCodingAdditions.KeyPathSeparator) < 0){
+			this.takeValueForKey(value, keyPath);//there is no next path, so try to store locally.
+		}else{
+			takeValueForKeyPath(value, KVCAKeyPath.keyPath(keyPath));
+		}
+	}
 
-		if(keyPath.contains(NSKeyValueCodingAdditions.KeyPathSeparator)){
-			String key = keyPath.substring(0, keyPath.indexOf(NSKeyValueCodingAdditions.KeyPathSeparator));
-			
-			String nextPath = keyPath.substring( key.length() + NSKeyValueCodingAdditions.KeyPathSeparator.length() );
-			
-			Object localObject = nodes.get(key);
+	/**
+	 * Sets the value at the pre-parsed key path, creating any missing graph nodes along the way.
+	 * 
+	 * The graph is walked without any String work. If the path reaches another 
+	 * {@code NSKeyValueCodingAdditions} object, the remainder of the path is handed to it.
+	 * 
+	 * @param value
+	 * @param keyPath
+	 */
+	public void takeValueForKeyPath(Object value, KVCAKeyPath keyPath) {
+		if (keyPath == null) {
+			return;
+		}
+		checkNotFrozen();
+		KVCAExtensionGraph graph = this;
+		int last = keyPath.length() - 1;
+		for (int i = 0; i < last; i++){
+			String key = keyPath.keyAtIndex(i);
+			Object localObject = graph.nodes.get(key);
 			
 			if(localObject==null){
-
 				localObject = new KVCAExtensionGraph();
-				
+				graph.nodes.put(key, localObject);
+			}else if(localObject instanceof KVCAExtensionGraph && ((KVCAExtensionGraph)localObject).isFrozen()){
+				//copy on write, sharing the rest of the frozen graph.
+				localObject = ((KVCAExtensionGraph)localObject).mutableCopy();
+				graph.nodes.put(key, localObject);
 			}
 			
-			if(localObject instanceof KVCAExtensionGraph//needed?
-					|| NSKeyValueCodingAdditions.class.isAssignableFrom(localObject.getClass())
-					){
-
-				((NSKeyValueCodingAdditions)localObject).takeValueForKeyPath(value, nextPath);
-				
+			if(localObject instanceof KVCAExtensionGraph){
+				graph = (KVCAExtensionGraph)localObject;
+			}else{
+				if(localObject instanceof NSKeyValueCodingAdditions){
+					((NSKeyValueCodingAdditions)localObject).takeValueForKeyPath(value, keyPath.pathFromIndex(i + 1));
+				}
+				return;
 			}
-			
-			nodes.put(key, localObject);			
-			
-		}else{
-			this.takeValueForKey(value, keyPath);//there is no next path, so try to store locally.
 		}
-	
+		graph.takeValueForKey(value, keyPath.lastKey());
 	}
 
 	public Object valueForKeyPath(String keyPath) {
 		if (keyPath == null) {
 			return null;
 		}
-		if(keyPath.contains(NSKeyValueCodingAdditions.KeyPathSeparator)){
-			String key = keyPath.substring(0, keyPath.indexOf(NSKeyValueCodingAdditions.KeyPathSeparator));
-			
-			String nextPath = keyPath.substring(  key.length() + NSKeyValueCodingAdditions.KeyPathSeparator.length() );
-			
-			Object localObject = nodes.get(key);
-			
-			
-			Object returnValue = null;
+		if(keyPath.indexOf(NSKeyValueCodingAdditions.KeyPathSeparator) < 0){
+			return valueForKey(keyPath);//there is no next path, so try to get what in the local storage.
+		}
+		return valueForKeyPath(KVCAKeyPath.keyPath(keyPath));
+	}
+
+	/**
+	 * The value at the pre-parsed key path, or null if any part of the path is missing.
+	 * 
+	 * The graph is walked without any String work. If the path reaches another 
+	 * {@code NSKeyValueCodingAdditions} object, the remainder of the path is handed to it.
+	 * 
+	 * @param keyPath
+	 * @return
+	 */
+	public Object valueForKeyPath(KVCAKeyPath keyPath) {
+		if (keyPath == null) {
+			return null;
+		}
+		KVCAExtensionGraph graph = this;
+		int last = keyPath.length() - 1;
+		for (int i = 0; i < last; i++){
+			Object localObject = graph.nodes.get(keyPath.keyAtIndex(i));
 			
-			if(localObject==null){
-				
-				
+			if(localObject instanceof KVCAExtensionGraph){//the object is an extension stack
+				graph = (KVCAExtensionGraph)localObject;
+			}else if(localObject instanceof List){
+				return null;
+			}else if(localObject instanceof NSKeyValueCodingAdditions){//the object implements NSKVCA
+				return ((NSKeyValueCodingAdditions)localObject).valueForKeyPath(keyPath.pathFromIndex(i + 1));
 			}else{
-
-				if(localObject instanceof KVCAExtensionGraph){//the object is an extension stack
-					
-					returnValue = ((KVCAExtensionGraph)localObject).valueForKeyPath(nextPath);
-					
-				}else if (localObject instanceof List){
-					
-					
-				}
-				else if( NSKeyValueCodingAdditions.class.isAssignableFrom(localObject.getClass()) ){//the object implements NSKVCA
-					returnValue = ((NSKeyValueCodingAdditions)localObject).valueForKeyPath(nextPath);
-					
-				}else{
-					returnValue = null;
-				}
-				
+				return null;
 			}
-			
-			return returnValue;
-		}else{
-			return valueForKey(keyPath);//there is no next path, so try to get what in the local storage.
 		}
-	
-
+		return graph.valueForKey(keyPath.lastKey());
 	}
 
 	public void takeValueForKey(Object value, String key) {
+		checkNotFrozen();
 		nodes.put(key, value);
 	}
 
@@ -146,20 +240,333 @@ public class KVCAExtensionGraph implements NSKeyValueCoding, NSKeyValueCodingAdd
 	}
 
 
+	/**
+	 * How Lists are combined when two graphs are merged.
+	 */
+	public static enum ListMergeStrategy {
+		/**
+		 * The supplementary List replaces the existing List.
+		 */
+		REPLACE,
+		/**
+		 * The supplementary List is appended to the existing List.
+		 */
+		CONCAT,
+		/**
+		 * Elements at the same index are merged (graphs deeply, other values replaced),
+		 * and any extra elements of the longer List are kept.
+		 */
+		MERGE_BY_INDEX
+	}
+
 	/**
 	 * Apply all values of the argument to this.
 	 * 
+	 * The graphs are deep merged: a graph in the argument is merged into the graph at the 
+	 * same key in this, rather than replacing it, so applying <code>xAxis.title.text</code> 
+	 * keeps the existing <code>xAxis.categories</code>. Lists are replaced. 
+	 * See {@link #merge(KVCAExtensionGraph, ListMergeStrategy)}.
+	 * 
 	 * @param supp - the supplementary Graph to apply
 	 */
 	public void apply(KVCAExtensionGraph supp) {
-		if(supp!=null){
-			
-			Set<String> keys = supp.nodes.keySet();
-			for (String key : keys){
-				this.takeValueForKeyPath(supp.valueForKeyPath(key), key);
+		merge(supp, ListMergeStrategy.REPLACE);
+	}
+
+	/**
+	 * Deep merges the argument into this, in a single pass over both graphs.
+	 * 
+	 * Values in the argument win, except that graphs at the same key are merged
+	 * recursively, and Lists at the same key are combined with the given strategy.
+	 * Frozen graphs in this are copied on write; mutable graphs taken from the argument 
+	 * are copied, so later changes to either graph don't affect the other. Frozen graphs 
+	 * taken from the argument are shared.
+	 * 
+	 * @param supp the supplementary graph
+	 * @param listStrategy how to combine Lists found at the same key in both graphs
+	 */
+	public void merge(KVCAExtensionGraph supp, ListMergeStrategy listStrategy) {
+		checkNotFrozen();
+		if(supp == null || supp == this){
+			return;
+		}
+		for (Entry<String, Object> entry : supp.nodes.entrySet()){
+			String key = entry.getKey();
+			nodes.put(key, mergedValue(nodes.get(key), entry.getValue(), listStrategy));
+		}
+	}
+
+	/**
+	 * The result of merging the supplementary value over the local value.
+	 */
+	private static Object mergedValue(Object local, Object supp, ListMergeStrategy listStrategy){
+		if(supp instanceof KVCAExtensionGraph){
+			KVCAExtensionGraph suppGraph = (KVCAExtensionGraph)supp;
+			if(local instanceof KVCAExtensionGraph){
+				KVCAExtensionGraph localGraph = (KVCAExtensionGraph)local;
+				if(localGraph.isFrozen()){
+					localGraph = localGraph.mutableCopy();
+				}
+				localGraph.merge(suppGraph, listStrategy);
+				return localGraph;
 			}
-			
+			return suppGraph.isFrozen() ? suppGraph : suppGraph.mutableCopy();
+		}
+		
+		if(supp instanceof List && local instanceof List && listStrategy != ListMergeStrategy.REPLACE){
+			List<?> localList = (List<?>)local;
+			List<?> suppList = (List<?>)supp;
+			List<Object> merged = new ArrayList<Object>(Math.max(localList.size(), suppList.size()));
+			if(listStrategy == ListMergeStrategy.CONCAT){
+				merged.addAll(localList);
+				merged.addAll(suppList);
+			}else{
+				int size = Math.max(localList.size(), suppList.size());
+				for (int i = 0; i < size; i++){
+					if(i >= suppList.size()){
+						merged.add(localList.get(i));
+					}else if(i >= localList.size()){
+						merged.add(mergedValue(null, suppList.get(i), listStrategy));
+					}else{
+						Object localValue = localList.get(i);
+						if(localValue instanceof KVCAExtensionGraph){
+							//Lists are shared as leaf values, so never merge into their graphs in place.
+							localValue = ((KVCAExtensionGraph)localValue).mutableCopy();
+						}
+						merged.add(mergedValue(localValue, suppList.get(i), listStrategy));
+					}
+				}
+			}
+			return merged;
+		}
+		
+		return supp;
+	}
+
+	/**
+	 * The values of this graph which differ from the template: deep merging the result over
+	 * the template gives this graph again, so only the result need be sent to a page which
+	 * already has the template.
+	 * 
+	 * Graphs at the same key are compared recursively, and are left out of the result when
+	 * they have no differences. Other values are compared with {@code equals}, so Lists are
+	 * sent whole when any element differs, matching {@link ListMergeStrategy#REPLACE}. Keys 
+	 * of the template missing from this graph can't be expressed, so this graph should be 
+	 * built over the template, see {@link #apply(KVCAExtensionGraph)}.
+	 * 
+	 * @param template the graph the page already has, may be null
+	 * @return a new graph of the differences
+	 */
+	public KVCAExtensionGraph deltaFrom(KVCAExtensionGraph template){
+		KVCAExtensionGraph delta = new KVCAExtensionGraph();
+		for (Entry<String, Object> entry : nodes.entrySet()){
+			Object value = entry.getValue();
+			Object templateValue = template == null ? null : template.nodes.get(entry.getKey());
+			if(value instanceof KVCAExtensionGraph && templateValue instanceof KVCAExtensionGraph){
+				KVCAExtensionGraph valueDelta = ((KVCAExtensionGraph)value).deltaFrom((KVCAExtensionGraph)templateValue);
+				if(!valueDelta.nodes.isEmpty()){
+					delta.nodes.put(entry.getKey(), valueDelta);
+				}
+			}else if(template == null || !template.nodes.containsKey(entry.getKey()) 
+					|| (value == null ? templateValue != null : !value.equals(templateValue))){
+				delta.nodes.put(entry.getKey(), value);
+			}
+		}
+		return delta;
+	}
+
+	/**
+	 * A 64 bit structural fingerprint of this graph: graphs with the same keys and values 
+	 * have the same fingerprint, regardless of the order the values were set.
+	 * 
+	 * This is much cheaper than serializing the graph, and is used to key the rendered
+	 * chart cache. Leaf values contribute their own content (Strings, Numbers, Booleans, 
+	 * functions, Lists, arrays and series data), or their {@code hashCode} otherwise.
+	 * The fingerprint of a frozen graph is computed once, when it is frozen.
+	 * 
+	 * @return
+	 */
+	public long fingerprint(){
+		if(_frozen){
+			return _frozenFingerprint;
+		}
+		long fingerprint = 0;
+		for (Entry<String, Object> entry : nodes.entrySet()){
+			fingerprint += mix(fingerprintForValue(entry.getKey()) * 31 + fingerprintForValue(entry.getValue()));
+		}
+		return mix(fingerprint + nodes.size());
+	}
+
+	/**
+	 * The fingerprint for a single value in a graph.
+	 * @param value
+	 * @return
+	 */
+	public static long fingerprintForValue(Object value){
+		if(value == null){
+			return 0;
+		}
+		if(value instanceof KVCAExtensionGraph){
+			return ((KVCAExtensionGraph)value).fingerprint();
+		}
+		if(value instanceof String){
+			return fingerprintForString((String)value);
+		}
+		if(value instanceof BigDecimal){
+			BigDecimal decimal = (BigDecimal)value;
+			return mix(fingerprintForBytes(decimal.unscaledValue().toByteArray()) * 31 + decimal.scale());
+		}
+		if(value instanceof BigInteger){
+			return mix(fingerprintForBytes(((BigInteger)value).toByteArray()) + 4);
+		}
+		if(value instanceof Double || value instanceof Float){
+			return mix(Double.doubleToLongBits(((Number)value).doubleValue()) ^ value.getClass().getName().hashCode());
+		}
+		if(value instanceof Number){
+			return mix(((Number)value).longValue() ^ value.getClass().getName().hashCode());
+		}
+		if(value instanceof ERHighchartsFunction){
+			return mix(fingerprintForString(((ERHighchartsFunction)value).body) + 1);
+		}
+		if(value instanceof ERHighchartsSeriesData){
+			return ((ERHighchartsSeriesData)value).fingerprint();
+		}
+		if(value instanceof ERHighchartsPointData){
+			return ((ERHighchartsPointData)value).fingerprint();
+		}
+		if(value instanceof List){
+			long fingerprint = 1;
+			for (Object element : (List<?>)value){
+				fingerprint = fingerprint * 31 + fingerprintForValue(element);
+			}
+			return mix(fingerprint);
+		}
+		if(value instanceof Object[]){
+			long fingerprint = 2;
+			for (Object element : (Object[])value){
+				fingerprint = fingerprint * 31 + fingerprintForValue(element);
+			}
+			return mix(fingerprint);
 		}
+		if(value instanceof Map){
+			long fingerprint = 3;
+			for (Entry<?, ?> entry : ((Map<?, ?>)value).entrySet()){
+				fingerprint += mix(fingerprintForValue(entry.getKey()) * 31 + fingerprintForValue(entry.getValue()));
+			}
+			return mix(fingerprint);
+		}
+		return mix(((long)value.getClass().getName().hashCode() << 32) ^ value.hashCode());
+	}
+
+	/**
+	 * A 64 bit hash of the bytes, such as those of a BigInteger.
+	 */
+	private static long fingerprintForBytes(byte[] value){
+		long fingerprint = 1125899906842597L;
+		for (int i = 0; i < value.length; i++){
+			fingerprint = 31 * fingerprint + value[i];
+		}
+		return mix(fingerprint);
+	}
+
+	/**
+	 * Whether the graph has the same keys and values as this one, compared the way
+	 * they are fingerprinted: graphs, Lists, arrays and Maps by their contents,
+	 * and other values with {@code equals}. Used to confirm a fingerprint match.
+	 * 
+	 * @param other
+	 * @return
+	 */
+	public boolean isEquivalentTo(KVCAExtensionGraph other){
+		if(other == this){
+			return true;
+		}
+		if(other == null || nodes.size() != other.nodes.size()){
+			return false;
+		}
+		for (Entry<String, Object> entry : nodes.entrySet()){
+			Object otherValue = other.nodes.get(entry.getKey());
+			if(otherValue == null && !other.nodes.containsKey(entry.getKey())){
+				return false;
+			}
+			if(!valuesEquivalent(entry.getValue(), otherValue)){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Whether two values of graphs are equivalent, see {@link #isEquivalentTo(KVCAExtensionGraph)}.
+	 */
+	private static boolean valuesEquivalent(Object a, Object b){
+		if(a == b){
+			return true;
+		}
+		if(a == null || b == null){
+			return false;
+		}
+		if(a instanceof KVCAExtensionGraph){
+			return b instanceof KVCAExtensionGraph && ((KVCAExtensionGraph)a).isEquivalentTo((KVCAExtensionGraph)b);
+		}
+		if(a instanceof List){
+			if(!(b instanceof List) || ((List<?>)a).size() != ((List<?>)b).size()){
+				return false;
+			}
+			Iterator<?> others = ((List<?>)b).iterator();
+			for (Object element : (List<?>)a){
+				if(!valuesEquivalent(element, others.next())){
+					return false;
+				}
+			}
+			return true;
+		}
+		if(a instanceof Object[]){
+			if(!(b instanceof Object[]) || ((Object[])a).length != ((Object[])b).length){
+				return false;
+			}
+			for (int i = 0; i < ((Object[])a).length; i++){
+				if(!valuesEquivalent(((Object[])a)[i], ((Object[])b)[i])){
+					return false;
+				}
+			}
+			return true;
+		}
+		if(a instanceof Map){
+			if(!(b instanceof Map) || ((Map<?, ?>)a).size() != ((Map<?, ?>)b).size()){
+				return false;
+			}
+			for (Entry<?, ?> entry : ((Map<?, ?>)a).entrySet()){
+				Object otherValue = ((Map<?, ?>)b).get(entry.getKey());
+				if((otherValue == null && !((Map<?, ?>)b).containsKey(entry.getKey())) || !valuesEquivalent(entry.getValue(), otherValue)){
+					return false;
+				}
+			}
+			return true;
+		}
+		return a.getClass() == b.getClass() && a.equals(b);
+	}
+
+	/**
+	 * A 64 bit hash of the String's characters.
+	 */
+	private static long fingerprintForString(String value){
+		long fingerprint = 1125899906842597L;
+		for (int i = 0; i < value.length(); i++){
+			fingerprint = 31 * fingerprint + value.charAt(i);
+		}
+		return mix(fingerprint);
+	}
+
+	/**
+	 * Spreads the bits of a fingerprint (the 64 bit finalizer of MurmurHash3).
+	 * @param value
+	 * @return
+	 */
+	static long mix(long value){
+		value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+		value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return value ^ (value >>> 33);
 	}
 
 }
@@ -0,0 +1,192 @@
+package er.highcharts.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.webobjects.foundation.NSKeyValueCoding;
+import com.webobjects.foundation.NSKeyValueCodingAdditions;
+
+/**
+ * A pre-parsed key path, such as <code>xAxis.title.text</code>.
+ * 
+ * The path is split into its keys once, with every key interned, and the remaining 
+ * path after each key is also computed up front. Walking a {@code KVCAExtensionGraph}
+ * with a {@code KVCAKeyPath} therefore never allocates, where the String based methods
+ * would call {@code substring} at each level of the path.
+ * 
+ * A key path can also be evaluated against any object with {@link #valueForObject(Object)},
+ * which uses accessors resolved once per class and key, rather than resolving each key with 
+ * key value coding on every call.
+ * 
+ * Instances are immutable and thread safe. Parsed paths are kept in a bounded global
+ * cache, so {@link #keyPath(String)} is cheap for the small set of paths a chart uses.
+ * 
+ * @author matt
+ *
+ */
+public final class KVCAKeyPath {
+
+	/**
+	 * The maximum number of parsed paths held by the cache. The cache is simply emptied
+	 * when it is full; the working set of paths in an application is small.
+	 */
+	private static final int MAX_CACHED_KEY_PATHS = 2048;
+
+	/**
+	 * The global cache of parsed paths
+	 */
+	private static final ConcurrentMap<String, KVCAKeyPath> _cache = new ConcurrentHashMap<String, KVCAKeyPath>();
+
+	/**
+	 * The full key path
+	 */
+	private final String _path;
+
+	/**
+	 * The interned keys of the path
+	 */
+	private final String[] _keys;
+
+	/**
+	 * The remaining path following each key, for handing on to other 
+	 * {@code NSKeyValueCodingAdditions} objects in the graph.
+	 */
+	private final String[] _remainders;
+
+	/**
+	 * The parsed, cached, key path for the given String.
+	 * 
+	 * @param path a key path, with keys separated by {@code NSKeyValueCodingAdditions.KeyPathSeparator}
+	 * @return the parsed key path, or null if the path is null
+	 */
+	public static KVCAKeyPath keyPath(String path){
+		if(path == null){
+			return null;
+		}
+		KVCAKeyPath keyPath = _cache.get(path);
+		if(keyPath == null){
+			keyPath = new KVCAKeyPath(path);
+			if(_cache.size() >= MAX_CACHED_KEY_PATHS){
+				_cache.clear();
+			}
+			KVCAKeyPath existing = _cache.putIfAbsent(keyPath._path, keyPath);
+			if(existing != null){
+				keyPath = existing;
+			}
+		}
+		return keyPath;
+	}
+
+	/**
+	 * Parses the path. Use {@link #keyPath(String)}.
+	 * @param path
+	 */
+	private KVCAKeyPath(String path){
+		String separator = NSKeyValueCodingAdditions.KeyPathSeparator;
+		List<String> keys = new ArrayList<String>();
+		int start = 0;
+		int index = path.indexOf(separator);
+		while(index >= 0){
+			keys.add(path.substring(start, index).intern());
+			start = index + separator.length();
+			index = path.indexOf(separator, start);
+		}
+		keys.add(path.substring(start).intern());
+
+		_path = path.intern();
+		_keys = keys.toArray(new String[keys.size()]);
+		_remainders = new String[_keys.length];
+		int offset = 0;
+		for (int i = 0; i < _keys.length; i++){
+			_remainders[i] = _path.substring(offset).intern();
+			offset += _keys[i].length() + separator.length();
+		}
+	}
+
+	/**
+	 * The number of keys in the path
+	 * @return
+	 */
+	public int length(){
+		return _keys.length;
+	}
+
+	/**
+	 * The key at the given index
+	 * @param index
+	 * @return
+	 */
+	public String keyAtIndex(int index){
+		return _keys[index];
+	}
+
+	/**
+	 * The path starting at the key at the given index, e.g. for <code>a.b.c</code>, index 1 is <code>b.c</code>.
+	 * @param index
+	 * @return
+	 */
+	public String pathFromIndex(int index){
+		return _remainders[index];
+	}
+
+	/**
+	 * The last key in the path
+	 * @return
+	 */
+	public String lastKey(){
+		return _keys[_keys.length - 1];
+	}
+
+	/**
+	 * The value of this key path on the object, equivalent to 
+	 * {@code NSKeyValueCodingAdditions.Utility.valueForKeyPath(object, keyPath)}.
+	 * 
+	 * Each key is read with an accessor resolved once for the object's class. When the path
+	 * reaches an object that needs key value coding (a generic record, dictionary, array,
+	 * graph, or a key path operator), the rest of the path is handed to key value coding.
+	 * 
+	 * @param object
+	 * @return
+	 */
+	public Object valueForObject(Object object){
+		Object value = object;
+		for (int i = 0; i < _keys.length; i++){
+			if(value == null){
+				return null;
+			}
+			KVCAAccessor accessor = KVCAAccessor.accessorForKey(value, _keys[i]);
+			if(accessor == KVCAAccessor.KEY_VALUE_CODING){
+				if(i == _keys.length - 1){
+					return NSKeyValueCoding.Utility.valueForKey(value, _keys[i]);
+				}
+				return NSKeyValueCodingAdditions.Utility.valueForKeyPath(value, _remainders[i]);
+			}
+			value = accessor.valueForObject(value);
+		}
+		return value;
+	}
+
+	/**
+	 * The full key path
+	 */
+	@Override
+	public String toString(){
+		return _path;
+	}
+
+	@Override
+	public boolean equals(Object obj){
+		if(this == obj){
+			return true;
+		}
+		return obj instanceof KVCAKeyPath && _path.equals(((KVCAKeyPath)obj)._path);
+	}
+
+	@Override
+	public int hashCode(){
+		return _path.hashCode();
+	}
+
+}
@@ -0,0 +1,190 @@
+package er.highcharts.test.control;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import er.highcharts.control.ERHighchartsBatchExport;
+import er.highcharts.control.ERHighchartsTranscoding;
+import er.highcharts.control.ERHighchartsTranscodingExecutor;
+
+public class ERHighchartsBatchExportTest {
+
+	private static final String SVG_A = "<svg xmlns=\"http://www.w3.org/2000/svg\"><text>a</text></svg>";
+	private static final String SVG_B = "<svg xmlns=\"http://www.w3.org/2000/svg\"><text>b</text></svg>";
+	private static final String SVG_C = "<svg xmlns=\"http://www.w3.org/2000/svg\"><text>c \u00e9</text></svg>";
+
+	@Test
+	public void testEntryName(){
+		assertEquals("plain name problems", "chart-1", ERHighchartsBatchExport.entryName("chart-1"));
+		assertEquals("parent directory problems", "__x", ERHighchartsBatchExport.entryName("../x"));
+		assertEquals("absolute path problems", "_etc_passwd", ERHighchartsBatchExport.entryName("/etc/passwd"));
+		assertEquals("windows path problems", "C__x", ERHighchartsBatchExport.entryName("C:\\x"));
+		assertEquals("hidden file problems", "profile", ERHighchartsBatchExport.entryName(".profile"));
+		assertEquals("empty name problems", "chart", ERHighchartsBatchExport.entryName("."));
+		assertEquals("null name problems", "chart", ERHighchartsBatchExport.entryName(null));
+	}
+
+	@Test
+	public void testWrite() throws Exception {
+		ERHighchartsTranscodingExecutor executor = new ERHighchartsTranscodingExecutor(2, 1, 5, 10);
+		int archives = archiveCount();
+		try {
+			ERHighchartsBatchExport export = new ERHighchartsBatchExport(items(), executor);
+			export.write();
+			assertEquals("archive problems", archives + 1, archiveCount());
+			assertEntries(export);
+			assertEquals("cleanup problems", archives, archiveCount());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testWriteShrinksWindowWhenSaturated() throws Exception {
+		ERHighchartsTranscodingExecutor executor = new ERHighchartsTranscodingExecutor(2, 1, 5, 10);
+		final CountDownLatch release = new CountDownLatch(1);
+		try {
+			//occupy both threads, so only one item fits in the queue
+			executor.submit(blocker(release));
+			executor.submit(blocker(release));
+			new Thread() {
+				@Override
+				public void run(){
+					try {
+						Thread.sleep(200);
+					} catch (InterruptedException e) {
+						//release anyway
+					}
+					release.countDown();
+				}
+			}.start();
+			ERHighchartsBatchExport export = new ERHighchartsBatchExport(items(), executor);
+			export.write();
+			assertEntries(export);
+		} finally {
+			release.countDown();
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testWriteRejectedWhenSaturated() throws Exception {
+		ERHighchartsTranscodingExecutor executor = new ERHighchartsTranscodingExecutor(1, 1, 5, 10);
+		CountDownLatch release = new CountDownLatch(1);
+		int archives = archiveCount();
+		try {
+			executor.submit(blocker(release));
+			executor.submit(blocker(release));
+			try {
+				new ERHighchartsBatchExport(items(), executor).write();
+				fail("rejection problems");
+			} catch (RejectedExecutionException e) {
+				assertEquals("cleanup problems", archives, archiveCount());
+			}
+		} finally {
+			release.countDown();
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testWriteTimesOut() throws Exception {
+		//the batch timeout defaults to five times the transcode timeout
+		ERHighchartsTranscodingExecutor executor = new ERHighchartsTranscodingExecutor(1, 1, 1, 10);
+		CountDownLatch release = new CountDownLatch(1);
+		int archives = archiveCount();
+		try {
+			executor.submit(blocker(release));
+			long start = System.currentTimeMillis();
+			try {
+				new ERHighchartsBatchExport(items(), executor).write();
+				fail("timeout problems");
+			} catch (TimeoutException e) {
+				long elapsed = System.currentTimeMillis() - start;
+				assertFalse("deadline problems", elapsed < 4500 || elapsed > 10000);
+				assertEquals("cleanup problems", archives, archiveCount());
+			}
+		} finally {
+			release.countDown();
+			executor.shutdown();
+		}
+	}
+
+	private static List<ERHighchartsBatchExport.Item> items(){
+		List<ERHighchartsBatchExport.Item> items = new ArrayList<ERHighchartsBatchExport.Item>();
+		items.add(new ERHighchartsBatchExport.Item(SVG_A, ERHighchartsTranscoding.TYPE_SVG, null, "chart"));
+		items.add(new ERHighchartsBatchExport.Item(SVG_B, ERHighchartsTranscoding.TYPE_SVG, null, "chart"));
+		items.add(new ERHighchartsBatchExport.Item(SVG_C, ERHighchartsTranscoding.TYPE_SVG, null, "../other"));
+		return items;
+	}
+
+	/**
+	 * The entries of the archive written from {@link #items()}, whose names depend on the order
+	 * the items finished in.
+	 */
+	private static void assertEntries(ERHighchartsBatchExport export) throws IOException {
+		Map<String, String> entries = new HashMap<String, String>();
+		ZipInputStream zip = new ZipInputStream(export.inputStream());
+		try {
+			for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()){
+				entries.put(entry.getName(), new String(read(zip), "UTF-8"));
+			}
+		} finally {
+			zip.close();
+		}
+		assertEquals("entry count problems", 3, entries.size());
+		assertEquals("sanitized name problems", SVG_C, entries.get("__other.svg"));
+		String first = entries.get("chart.svg");
+		String second = entries.get("chart-2.svg");
+		assertEquals("duplicate name problems", Arrays.asList(SVG_A, SVG_B),
+				SVG_A.equals(first) ? Arrays.asList(first, second) : Arrays.asList(second, first));
+	}
+
+	private static byte[] read(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		for (int read = in.read(buffer); read != -1; read = in.read(buffer)){
+			bytes.write(buffer, 0, read);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static Callable<Object> blocker(final CountDownLatch release){
+		return new Callable<Object>() {
+			public Object call() throws InterruptedException {
+				release.await(10, TimeUnit.SECONDS);
+				return null;
+			}
+		};
+	}
+
+	private static int archiveCount(){
+		String[] archives = new File(System.getProperty("java.io.tmpdir")).list(new FilenameFilter() {
+			public boolean accept(File dir, String name){
+				return name.startsWith("erhighcharts") && name.endsWith(".zip");
+			}
+		});
+		return archives == null ? 0 : archives.length;
+	}
+}
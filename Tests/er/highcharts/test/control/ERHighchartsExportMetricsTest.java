@@ -0,0 +1,38 @@
+package er.highcharts.test.control;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+import er.highcharts.control.ERHighchartsExportMetrics;
+import er.highcharts.control.ERHighchartsTranscoding;
+
+public class ERHighchartsExportMetricsTest {
+
+	@Test
+	public void testExportType() {
+		assertEquals("png problems", ERHighchartsTranscoding.TYPE_PNG, ERHighchartsExportMetrics.exportType(ERHighchartsTranscoding.TYPE_PNG));
+		assertEquals("zip problems", "application/zip", ERHighchartsExportMetrics.exportType("application/zip"));
+		assertEquals("unknown type problems", "other", ERHighchartsExportMetrics.exportType("image/x-anything"));
+		assertEquals("null type problems", "other", ERHighchartsExportMetrics.exportType(null));
+	}
+
+	@Test
+	public void testUnknownTypesShareAHistogram() {
+		ERHighchartsExportMetrics metrics = new ERHighchartsExportMetrics(0);
+		for (int i = 0; i < 10; i++) {
+			ERHighchartsExportMetrics.Timing timing = ERHighchartsExportMetrics.Timing.begin(metrics, "chart");
+			timing.setType("image/x-" + i);
+			assertEquals("type problems", "other", timing.type());
+			timing.end();
+			metrics.exported(timing);
+		}
+		long total = 0;
+		for (long count : metrics.getLatencyHistogram()) {
+			total += count;
+		}
+		assertEquals("histogram problems", 10, total);
+		assertEquals("export count problems", 10, metrics.getExportCount());
+		assertEquals("png count problems", 0, metrics.getPngExportCount());
+	}
+}
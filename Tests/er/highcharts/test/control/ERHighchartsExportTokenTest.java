@@ -0,0 +1,99 @@
+package er.highcharts.test.control;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import er.highcharts.control.ERHighchartsDigests;
+import er.highcharts.control.ERHighchartsExportToken;
+
+public class ERHighchartsExportTokenTest {
+
+	private static final String SECRET_PROPERTY = "er.highcharts.transcode.tokenSecret";
+	private static final String SECRET = "s3cret";
+	private static final String SESSION_ID = "abcdef0123456789";
+
+	@Before
+	public void setUp(){
+		System.setProperty(SECRET_PROPERTY, SECRET);
+	}
+
+	@After
+	public void tearDown(){
+		System.clearProperty(SECRET_PROPERTY);
+	}
+
+	@Test
+	public void testValidToken(){
+		String token = ERHighchartsExportToken.tokenForSession(SESSION_ID);
+		assertNotNull("token problems", token);
+		assertTrue("valid token problems", ERHighchartsExportToken.isValid(token, SESSION_ID));
+	}
+
+	@Test
+	public void testOtherSession(){
+		String token = ERHighchartsExportToken.tokenForSession(SESSION_ID);
+		assertFalse("other session problems", ERHighchartsExportToken.isValid(token, "fedcba9876543210"));
+		assertFalse("missing session problems", ERHighchartsExportToken.isValid(token, null));
+	}
+
+	@Test
+	public void testTamperedSignature(){
+		String token = ERHighchartsExportToken.tokenForSession(SESSION_ID);
+		char last = token.charAt(token.length() - 1);
+		String tampered = token.substring(0, token.length() - 1) + (last == '0' ? '1' : '0');
+		assertFalse("tampered signature problems", ERHighchartsExportToken.isValid(tampered, SESSION_ID));
+		String truncated = token.substring(0, token.length() - 1);
+		assertFalse("truncated signature problems", ERHighchartsExportToken.isValid(truncated, SESSION_ID));
+		String signature = token.substring(token.indexOf('-') + 1);
+		long expiry = Long.parseLong(token.substring(0, token.indexOf('-')));
+		assertFalse("tampered expiry problems", ERHighchartsExportToken.isValid((expiry + 3600) + "-" + signature, SESSION_ID));
+	}
+
+	@Test
+	public void testExpiredToken() throws Exception {
+		long expiry = System.currentTimeMillis() / 1000 - 1;
+		String expired = expiry + "-" + signature(SESSION_ID, expiry);
+		assertFalse("expired token problems", ERHighchartsExportToken.isValid(expired, SESSION_ID));
+		long future = System.currentTimeMillis() / 1000 + 60;
+		String current = future + "-" + signature(SESSION_ID, future);
+		assertTrue("signature format problems", ERHighchartsExportToken.isValid(current, SESSION_ID));
+	}
+
+	@Test
+	public void testMalformedToken(){
+		String token = ERHighchartsExportToken.tokenForSession(SESSION_ID);
+		String signature = token.substring(token.indexOf('-') + 1);
+		assertFalse("missing separator problems", ERHighchartsExportToken.isValid(signature, SESSION_ID));
+		assertFalse("missing expiry problems", ERHighchartsExportToken.isValid("-" + signature, SESSION_ID));
+		assertFalse("non-numeric expiry problems", ERHighchartsExportToken.isValid("soon-" + signature, SESSION_ID));
+		assertFalse("empty token problems", ERHighchartsExportToken.isValid("", SESSION_ID));
+		assertFalse("null token problems", ERHighchartsExportToken.isValid(null, SESSION_ID));
+	}
+
+	@Test
+	public void testDisabled(){
+		String token = ERHighchartsExportToken.tokenForSession(SESSION_ID);
+		System.clearProperty(SECRET_PROPERTY);
+		assertFalse("enabled problems", ERHighchartsExportToken.isEnabled());
+		assertNull("disabled token problems", ERHighchartsExportToken.tokenForSession(SESSION_ID));
+		assertFalse("disabled validation problems", ERHighchartsExportToken.isValid(token, SESSION_ID));
+	}
+
+	/**
+	 * The signature the token carries, as {@code ERHighchartsExportToken} computes it.
+	 */
+	private static String signature(String sessionID, long expiry) throws Exception {
+		Mac mac = Mac.getInstance("HmacSHA1");
+		mac.init(new SecretKeySpec(SECRET.getBytes("UTF-8"), "HmacSHA1"));
+		return ERHighchartsDigests.hex(mac.doFinal((sessionID + ":" + expiry).getBytes("UTF-8")));
+	}
+}
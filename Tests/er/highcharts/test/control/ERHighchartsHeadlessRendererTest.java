@@ -0,0 +1,54 @@
+package er.highcharts.test.control;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import er.highcharts.control.ERHighchartsHeadlessRenderer;
+
+public class ERHighchartsHeadlessRendererTest {
+
+	@Test
+	public void testRhinoSafeSource(){
+		assertEquals("delete rewrite problems", 
+				"for(b in a)(Object.prototype.hasOwnProperty.call(a,b)&&delete a[b]);", 
+				ERHighchartsHeadlessRenderer.rhinoSafeSource("for(b in a)delete a[b];"));
+		assertEquals("member delete problems", "delete a[b].c;", ERHighchartsHeadlessRenderer.rhinoSafeSource("delete a[b].c;"));
+		assertEquals("property delete problems", "delete a.b;", ERHighchartsHeadlessRenderer.rhinoSafeSource("delete a.b;"));
+	}
+
+	@Test
+	public void testRender() throws Exception {
+		ERHighchartsHeadlessRenderer renderer = new ERHighchartsHeadlessRenderer(
+				fileString("Resources/erhighcharts-headless.js"), fileString("WebServerResources/highcharts.js"), 1, 30);
+		String svg = renderer.svgForOptions("{title:{text:'Rutland'},series:[{type:'line',data:[1,3,2]}]}", 400, 300);
+		assertTrue("render problems", svg.indexOf("<svg") >= 0);
+		assertTrue("title problems", svg.indexOf("Rutland") > 0);
+		
+		//the scope is reused
+		svg = renderer.svgForOptions("{series:[{type:'column',data:[4,5]}]}", 400, 300);
+		assertTrue("reuse problems", svg.indexOf("<svg") >= 0);
+	}
+
+	private static String fileString(String path) throws IOException {
+		Reader reader = new InputStreamReader(new FileInputStream(new File(path)), "UTF-8");
+		try {
+			StringBuilder source = new StringBuilder();
+			char[] buffer = new char[8192];
+			int read;
+			while ((read = reader.read(buffer)) > 0) {
+				source.append(buffer, 0, read);
+			}
+			return source.toString();
+		} finally {
+			reader.close();
+		}
+	}
+}
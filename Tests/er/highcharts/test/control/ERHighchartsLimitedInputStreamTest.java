@@ -0,0 +1,76 @@
+package er.highcharts.test.control;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import er.highcharts.control.ERHighchartsLimitedInputStream;
+
+public class ERHighchartsLimitedInputStreamTest {
+
+	@Test
+	public void testWithinLimit() throws IOException {
+		ERHighchartsLimitedInputStream in = new ERHighchartsLimitedInputStream(new ByteArrayInputStream(new byte[1000]), 1000);
+		assertEquals("read problems", 1000, drain(in));
+		assertEquals("count problems", 1000, in.count());
+	}
+
+	@Test
+	public void testLimitExceeded() throws IOException {
+		ERHighchartsLimitedInputStream in = new ERHighchartsLimitedInputStream(new ByteArrayInputStream(new byte[1001]), 1000);
+		try {
+			drain(in);
+			fail("limit problems");
+		} catch (ERHighchartsLimitedInputStream.LimitExceededException e) {
+			assertTrue("count problems", in.count() > 1000);
+		}
+	}
+
+	@Test
+	public void testNoLimit() throws IOException {
+		assertEquals("unlimited problems", 5000, drain(new ERHighchartsLimitedInputStream(new ByteArrayInputStream(new byte[5000]), 0)));
+	}
+
+	@Test
+	public void testGzipBomb() throws IOException {
+		//10MB of zeros compresses to about 10KB
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+		byte[] zeros = new byte[1024 * 1024];
+		for (int i = 0; i < 10; i++) {
+			gzip.write(zeros);
+		}
+		gzip.close();
+		long limit = 1024 * 1024;
+		assertTrue("compression problems", compressed.size() < limit);
+
+		//limited before and after decompression, as the request handler does
+		InputStream in = new GZIPInputStream(new ERHighchartsLimitedInputStream(new ByteArrayInputStream(compressed.toByteArray()), limit));
+		ERHighchartsLimitedInputStream decompressed = new ERHighchartsLimitedInputStream(in, limit);
+		try {
+			drain(decompressed);
+			fail("gzip bomb problems");
+		} catch (ERHighchartsLimitedInputStream.LimitExceededException e) {
+			assertTrue("decompressed count problems", decompressed.count() <= limit + 64 * 1024);
+		}
+	}
+
+	private static long drain(InputStream in) throws IOException {
+		byte[] buffer = new byte[8192];
+		long total = 0;
+		int read;
+		while ((read = in.read(buffer)) > 0) {
+			total += read;
+		}
+		return total;
+	}
+}
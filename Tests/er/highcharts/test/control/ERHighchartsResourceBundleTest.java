@@ -0,0 +1,30 @@
+package er.highcharts.test.control;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+import er.highcharts.control.ERHighchartsResourceBundle;
+
+public class ERHighchartsResourceBundleTest {
+
+	@Test
+	public void testMinify() {
+		String script = "/**\n"
+				+ " * A documented function\n"
+				+ " */\n"
+				+ "function f(a) {\r\n"
+				+ "\t// a line comment\n"
+				+ "\n"
+				+ "\treturn a + '//kept'; // trailing comments are kept\n"
+				+ "\t/* a one line comment */\n"
+				+ "}\n";
+		assertEquals("minify problems", "function f(a) {\nreturn a + '//kept'; // trailing comments are kept\n}\n", ERHighchartsResourceBundle.minify(script));
+	}
+
+	@Test
+	public void testMinifyUnterminatedLines() {
+		assertEquals("minify problems", "var a = 1;\n", ERHighchartsResourceBundle.minify("  var a = 1;"));
+		assertEquals("minify problems", "", ERHighchartsResourceBundle.minify(""));
+	}
+}
@@ -0,0 +1,27 @@
+package er.highcharts.test.control;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import er.highcharts.control.ERHighchartsTemplateRegistry;
+import er.highcharts.model.KVCAExtensionGraph;
+
+public class ERHighchartsTemplateRegistryTest {
+
+	@Test
+	public void testRegisterTemplateDropsExportURL() {
+		KVCAExtensionGraph template = new KVCAExtensionGraph();
+		template.takeValueForKeyPath("http://example.com/transcode", "exporting.url");
+		template.takeValueForKeyPath(Boolean.TRUE, "exporting.enabled");
+		template.takeValueForKeyPath("#333", "title.style.color");
+		ERHighchartsTemplateRegistry.registerTemplate("exportingTest", template);
+
+		KVCAExtensionGraph registered = ERHighchartsTemplateRegistry.templateNamed("exportingTest");
+		assertNull("exporting.url problems", registered.valueForKeyPath("exporting.url"));
+		assertEquals("exporting problems", Boolean.TRUE, registered.valueForKeyPath("exporting.enabled"));
+		assertEquals("template problems", "#333", registered.valueForKeyPath("title.style.color"));
+		assertEquals("original problems", "http://example.com/transcode", template.valueForKeyPath("exporting.url"));
+	}
+}
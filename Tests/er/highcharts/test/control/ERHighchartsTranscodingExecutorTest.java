@@ -0,0 +1,81 @@
+package er.highcharts.test.control;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import er.highcharts.control.ERHighchartsInterruptibleOutputStream;
+import er.highcharts.control.ERHighchartsTranscodingExecutor;
+
+public class ERHighchartsTranscodingExecutorTest {
+
+	@Test
+	public void testAbandonedTaskIsCounted() throws Exception {
+		ERHighchartsTranscodingExecutor executor = new ERHighchartsTranscodingExecutor(1, 1, 1, 10);
+		final CountDownLatch release = new CountDownLatch(1);
+		try {
+			executor.execute(new Callable<Object>() {
+				public Object call() {
+					//like Batik, ignores interruption
+					boolean done = false;
+					while (!done) {
+						try {
+							done = release.await(10, TimeUnit.SECONDS);
+						} catch (InterruptedException e) {
+							//keep going
+						}
+					}
+					return null;
+				}
+			});
+			fail("timeout problems");
+		} catch (TimeoutException e) {
+			assertEquals("abandoned problems", 1, executor.abandonedCount());
+			assertEquals("abandoned running problems", 1, executor.abandonedRunningCount());
+		}
+		release.countDown();
+		for (int i = 0; i < 100 && executor.abandonedRunningCount() > 0; i++) {
+			Thread.sleep(20);
+		}
+		assertEquals("released problems", 0, executor.abandonedRunningCount());
+		assertEquals("abandoned total problems", 1, executor.abandonedCount());
+		executor.shutdown();
+	}
+
+	@Test
+	public void testCompletedTaskIsNotCounted() throws Exception {
+		ERHighchartsTranscodingExecutor executor = new ERHighchartsTranscodingExecutor(1, 1, 5, 10);
+		assertEquals("result problems", "done", executor.execute(new Callable<String>() {
+			public String call() {
+				return "done";
+			}
+		}));
+		assertEquals("abandoned problems", 0, executor.abandonedCount());
+		executor.shutdown();
+	}
+
+	@Test
+	public void testInterruptibleOutputStream() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ERHighchartsInterruptibleOutputStream out = new ERHighchartsInterruptibleOutputStream(bytes);
+		out.write(new byte[]{1, 2, 3}, 0, 3);
+		Thread.currentThread().interrupt();
+		try {
+			out.write(4);
+			fail("interrupt problems");
+		} catch (InterruptedIOException e) {
+			assertTrue("interrupt status problems", Thread.interrupted());
+		}
+		assertEquals("written problems", 3, bytes.size());
+	}
+}
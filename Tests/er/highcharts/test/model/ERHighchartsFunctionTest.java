@@ -4,6 +4,7 @@ import org.junit.Test;
 
 import er.highcharts.model.ERHighchartsFunction;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 
 public class ERHighchartsFunctionTest {
@@ -17,5 +18,12 @@ public class ERHighchartsFunctionTest {
 		assertEquals(FUNCTION_BODY, newFunction.body);
 	}
 	
+	@Test
+	public void testFunctionEquality(){
+		assertEquals(new ERHighchartsFunction(FUNCTION_BODY), new ERHighchartsFunction(FUNCTION_BODY));
+		assertEquals(new ERHighchartsFunction(FUNCTION_BODY).hashCode(), new ERHighchartsFunction(FUNCTION_BODY).hashCode());
+		assertFalse(new ERHighchartsFunction(FUNCTION_BODY).equals(new ERHighchartsFunction("other")));
+	}
+	
 	
 }
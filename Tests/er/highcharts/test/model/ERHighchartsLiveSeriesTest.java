@@ -0,0 +1,80 @@
+package er.highcharts.test.model;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import er.highcharts.model.ERHighchartsLiveSeries;
+
+public class ERHighchartsLiveSeriesTest {
+
+	@Test
+	public void testUpdateSince() throws Exception {
+		ERHighchartsLiveSeries series = new ERHighchartsLiveSeries("test", 5);
+		series.addPoint(1, 10);
+		series.addPoint(2, 20);
+		series.addPoint(3, 30);
+
+		ERHighchartsLiveSeries.Update update = series.updateSince(1);
+		assertEquals("sequence problems", 3, update.sequence());
+		assertEquals("update problems", "[[2,20],[3,30]]", new ObjectMapper().writeValueAsString(update.data()));
+		assertEquals("empty update problems", 0, series.updateSince(3).data().size());
+	}
+
+	@Test
+	public void testRingDropsOldestPoints(){
+		ERHighchartsLiveSeries series = new ERHighchartsLiveSeries("test", 3);
+		for (int i = 1; i <= 7; i++){
+			series.addPoint(i, i * 10);
+		}
+		assertEquals("size problems", 3, series.size());
+		assertEquals("sequence problems", 7, series.sequence());
+		assertEquals("oldest point problems", 5, series.data().longX(0));
+		assertEquals("newest point problems", 70, series.data().y(2), 0);
+
+		//a client which fell behind receives only the points still held
+		assertEquals("stale update problems", 3, series.updateSince(1).data().size());
+	}
+
+	@Test
+	public void testSeriesNamed(){
+		ERHighchartsLiveSeries series = ERHighchartsLiveSeries.seriesNamed("ERHighchartsLiveSeriesTest", 10);
+		assertSame("registry problems", series, ERHighchartsLiveSeries.seriesNamed("ERHighchartsLiveSeriesTest", 20));
+		assertEquals("capacity problems", 10, series.capacity());
+		ERHighchartsLiveSeries.removeSeriesNamed("ERHighchartsLiveSeriesTest");
+		assertEquals("removal problems", null, ERHighchartsLiveSeries.seriesNamed("ERHighchartsLiveSeriesTest"));
+	}
+
+	@Test
+	public void testAwaitUpdate() throws Exception {
+		final ERHighchartsLiveSeries series = new ERHighchartsLiveSeries("test", 10);
+		List<ERHighchartsLiveSeries> all = Arrays.asList(series);
+		assertFalse("timeout problems", ERHighchartsLiveSeries.awaitUpdate(all, new long[]{0}, 10));
+
+		new Thread(){
+			public void run(){
+				series.addPoint(1);
+			}
+		}.start();
+		assertTrue("wake up problems", ERHighchartsLiveSeries.awaitUpdate(all, new long[]{0}, 5000));
+	}
+
+	@Test
+	public void testAwaitUpdateIgnoresOtherSeries() throws Exception {
+		ERHighchartsLiveSeries series = new ERHighchartsLiveSeries("test", 10);
+		final ERHighchartsLiveSeries other = new ERHighchartsLiveSeries("other", 10);
+		new Thread(){
+			public void run(){
+				other.addPoint(1);
+			}
+		}.start();
+		assertFalse("other series problems", ERHighchartsLiveSeries.awaitUpdate(Arrays.asList(series), new long[]{0}, 200));
+	}
+}
@@ -0,0 +1,52 @@
+package er.highcharts.test.model;
+
+import java.util.Arrays;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import er.highcharts.model.ERHighchartsPointData;
+import er.highcharts.model.KVCAExtensionGraph;
+
+public class ERHighchartsPointDataTest {
+
+	@Test
+	public void testPointDataSerialization() throws Exception {
+		ERHighchartsPointData data = ERHighchartsPointData.pointData(new Object[]{"Avon", "Tyne"}, new Object[]{12, null});
+		assertEquals("serialization problems", "[[\"Avon\",12],[\"Tyne\",null]]", new ObjectMapper().writeValueAsString(data));
+	}
+	
+	@Test
+	public void testNamedPointData() throws Exception {
+		ERHighchartsPointData data = ERHighchartsPointData.namedPointData(new Object[]{"Avon", Integer.valueOf(2011)}, new Object[]{12, 3});
+		assertEquals("name problems", "[[\"Avon\",12],[\"2011\",3]]", new ObjectMapper().writeValueAsString(data));
+		assertNull("null name problems", ERHighchartsPointData.namedPointData(new Object[]{"Avon", null}, new Object[]{12, 3}));
+	}
+	
+	@Test
+	public void testNonNumericPointData(){
+		assertNull("non numeric problems", ERHighchartsPointData.pointData(new Object[]{"Avon"}, new Object[]{"many"}));
+	}
+	
+	@Test
+	public void testPointDataFromGraphs(){
+		KVCAExtensionGraph point1 = new KVCAExtensionGraph();
+		point1.takeValueForKey("Severn", "name");
+		point1.takeValueForKey(Double.valueOf(1.5), "y");
+		KVCAExtensionGraph point2 = new KVCAExtensionGraph();
+		point2.takeValueForKey("Thames", "name");
+		point2.takeValueForKey(Integer.valueOf(2), "y");
+		
+		ERHighchartsPointData data = ERHighchartsPointData.pointDataFromObject(Arrays.asList(point1, point2));
+		assertNotNull("conversion problems", data);
+		assertEquals("key problems", "Thames", data.key(1));
+		
+		point2.takeValueForKey("red", "color");
+		assertNull("extra option problems", ERHighchartsPointData.pointDataFromObject(Arrays.asList(point1, point2)));
+	}
+	
+}
@@ -0,0 +1,119 @@
+package er.highcharts.test.model;
+
+import java.util.Arrays;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import er.highcharts.model.ERHighchartsSeriesData;
+
+public class ERHighchartsSeriesDataTest {
+
+	@Test
+	public void testYValueSerialization() throws Exception {
+		ERHighchartsSeriesData data = new ERHighchartsSeriesData(new double[]{1, 2.5, Double.NaN});
+		assertFalse("x column problems", data.hasX());
+		assertEquals("serialization problems", "[1,2.5,null]", new ObjectMapper().writeValueAsString(data));
+	}
+	
+	@Test
+	public void testTimeSeriesSerialization() throws Exception {
+		ERHighchartsSeriesData data = new ERHighchartsSeriesData(new long[]{1325376000000L, 1325376060000L}, new double[]{3, 4});
+		assertTrue("long x column problems", data.hasLongX());
+		assertEquals("serialization problems", "[[1325376000000,3],[1325376060000,4]]", new ObjectMapper().writeValueAsString(data));
+	}
+	
+	@Test
+	public void testXYZSerialization() throws Exception {
+		ERHighchartsSeriesData data = new ERHighchartsSeriesData(new double[]{0.5}, new double[]{1}, new double[]{2});
+		assertEquals("serialization problems", "[[0.5,1,2]]", new ObjectMapper().writeValueAsString(data));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testMismatchedColumns(){
+		new ERHighchartsSeriesData(new double[]{1, 2}, new double[]{1});
+	}
+	
+	@Test
+	public void testDownsampleKeepsEndsAndPeaks(){
+		double[] y = new double[1000];
+		y[500] = 100;
+		y[750] = -100;
+		ERHighchartsSeriesData data = new ERHighchartsSeriesData(y).downsample(50);
+		assertEquals("downsampled size problems", 50, data.size());
+		assertEquals("first point problems", 0, data.x(0), 0);
+		assertEquals("last point problems", 999, data.x(49), 0);
+		
+		boolean peak = false;
+		boolean trough = false;
+		for (int i = 0; i < data.size(); i++){
+			peak |= data.y(i) == 100 && data.x(i) == 500;
+			trough |= data.y(i) == -100 && data.x(i) == 750;
+		}
+		assertTrue("peak problems", peak);
+		assertTrue("trough problems", trough);
+	}
+	
+	@Test
+	public void testDownsampleSmallSeries(){
+		ERHighchartsSeriesData data = new ERHighchartsSeriesData(new double[]{1, 2, 3});
+		assertSame("small series problems", data, data.downsample(10));
+	}
+	
+	@Test
+	public void testDownsampleMinMaxUnordered(){
+		//points in no x order, with an outlier in the middle of the x range
+		int size = 1000;
+		double[] x = new double[size];
+		double[] y = new double[size];
+		for (int i = 0; i < size; i++){
+			x[i] = (i * 7919) % size;
+			y[i] = i % 10;
+		}
+		y[500] = 1000;
+		ERHighchartsSeriesData data = new ERHighchartsSeriesData(x, y).downsampleMinMax(50);
+		assertTrue("downsampled size problems", data.size() <= 50 && data.size() > 2);
+		boolean outlier = false;
+		double minX = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE;
+		for (int i = 0; i < data.size(); i++){
+			outlier |= data.y(i) == 1000;
+			minX = Math.min(minX, data.x(i));
+			maxX = Math.max(maxX, data.x(i));
+		}
+		assertTrue("outlier problems", outlier);
+		assertTrue("x range problems", minX < 20 && maxX > size - 20);
+	}
+	
+	@Test
+	public void testDownsampleMinMaxSmallSeries(){
+		ERHighchartsSeriesData data = new ERHighchartsSeriesData(new double[]{3, 1}, new double[]{1, 2});
+		assertSame("small series problems", data, data.downsampleMinMax(10));
+	}
+	
+	@Test
+	public void testSeriesDataFromObject(){
+		ERHighchartsSeriesData data = ERHighchartsSeriesData.seriesDataFromObject(Arrays.asList(1, null, 3.5));
+		assertEquals("size problems", 3, data.size());
+		assertTrue("gap problems", Double.isNaN(data.y(1)));
+		
+		ERHighchartsSeriesData pairs = ERHighchartsSeriesData.seriesDataFromObject(Arrays.asList(Arrays.asList(10, 1), Arrays.asList(20, 2)));
+		assertEquals("pair x problems", 20, pairs.x(1), 0);
+		
+		assertNull("non numeric problems", ERHighchartsSeriesData.seriesDataFromObject(Arrays.asList("Rutland")));
+	}
+	
+	@Test
+	public void testWithPointInterval(){
+		ERHighchartsSeriesData data = new ERHighchartsSeriesData(new double[]{1, 2}).withPointInterval(1325376000000L, 60000);
+		assertTrue("long x problems", data.hasLongX());
+		assertEquals("x problems", 1325376060000L, data.longX(1));
+	}
+	
+}
@@ -1,11 +1,18 @@
 package er.highcharts.test.model;
 
+import java.math.BigDecimal;
+import java.util.List;
+
 import org.junit.Test;
 
 import com.webobjects.foundation.NSArray;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import er.highcharts.model.KVCAExtensionGraph;
 
@@ -87,5 +94,134 @@ public class KVCAExtensionGraphTest {
 		assertEquals("class type problems", returnValue.getClass().getName(), NSArray.class.getName());
 	}
 	
+	@Test
+	public void testFingerprint(){
+		KVCAExtensionGraph graph1 = new KVCAExtensionGraph();
+		graph1.takeValueForKeyPath("Wiltshire", "title.text");
+		graph1.takeValueForKeyPath(new NSArray<Integer>(new Integer[]{1, 2, 3}), "xAxis.categories");
+		
+		KVCAExtensionGraph graph2 = new KVCAExtensionGraph();
+		graph2.takeValueForKeyPath(new NSArray<Integer>(new Integer[]{1, 2, 3}), "xAxis.categories");
+		graph2.takeValueForKeyPath("Wiltshire", "title.text");
+		
+		assertEquals("equal graph fingerprint problems", graph1.fingerprint(), graph2.fingerprint());
+		
+		graph2.takeValueForKeyPath("Somerset", "title.text");
+		assertFalse("changed graph fingerprint problems", graph1.fingerprint() == graph2.fingerprint());
+	}
+	
+	@Test
+	public void testFrozenGraphOverlay(){
+		KVCAExtensionGraph base = new KVCAExtensionGraph();
+		base.takeValueForKeyPath("Essex", "title.text");
+		base.takeValueForKeyPath("Sussex", "xAxis.title.text");
+		base.freeze();
+		
+		KVCAExtensionGraph overlay = base.mutableCopy();
+		overlay.takeValueForKeyPath("Kent", "title.text");
+		
+		assertEquals("overlay value problems", "Kent", overlay.valueForKeyPath("title.text"));
+		assertEquals("base value problems", "Essex", base.valueForKeyPath("title.text"));
+		assertSame("structural sharing problems", base.valueForKey("xAxis"), overlay.valueForKey("xAxis"));
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void testFrozenGraphMutation(){
+		KVCAExtensionGraph graph = new KVCAExtensionGraph();
+		graph.takeValueForKeyPath("Berkshire", "a.b");
+		graph.freeze();
+		graph.takeValueForKeyPath("Hampshire", "a.b");
+	}
+	
+	@Test
+	public void testDeepGraphAdditions(){
+		KVCAExtensionGraph graph = new KVCAExtensionGraph();
+		graph.takeValueForKeyPath(new NSArray<String>(new String[]{"Durham", "Cumbria"}), "xAxis.categories");
+		
+		KVCAExtensionGraph supp = new KVCAExtensionGraph();
+		supp.takeValueForKeyPath("Counties", "xAxis.title.text");
+		
+		graph.apply(supp);
+		
+		assertEquals("merged value problems", "Counties", graph.valueForKeyPath("xAxis.title.text"));
+		assertNotNull("deep merge problems", graph.valueForKeyPath("xAxis.categories"));
+		
+		supp.takeValueForKeyPath("Regions", "xAxis.title.text");
+		assertEquals("graph copy problems", "Counties", graph.valueForKeyPath("xAxis.title.text"));
+	}
+	
+	@Test
+	public void testListMergeStrategies(){
+		KVCAExtensionGraph point1 = new KVCAExtensionGraph();
+		point1.takeValueForKey("Lancashire", "name");
+		KVCAExtensionGraph point2 = new KVCAExtensionGraph();
+		point2.takeValueForKey(Integer.valueOf(5), "y");
+		
+		KVCAExtensionGraph graph = new KVCAExtensionGraph();
+		graph.takeValueForKey(new NSArray<Object>(new Object[]{point1, "Yorkshire"}), "data");
+		KVCAExtensionGraph supp = new KVCAExtensionGraph();
+		supp.takeValueForKey(new NSArray<Object>(new Object[]{point2}), "data");
+		
+		KVCAExtensionGraph concat = graph.mutableCopy();
+		concat.merge(supp, KVCAExtensionGraph.ListMergeStrategy.CONCAT);
+		assertEquals("concat problems", 3, ((List<?>)concat.valueForKey("data")).size());
+		
+		KVCAExtensionGraph byIndex = graph.mutableCopy();
+		byIndex.merge(supp, KVCAExtensionGraph.ListMergeStrategy.MERGE_BY_INDEX);
+		List<?> merged = (List<?>)byIndex.valueForKey("data");
+		assertEquals("merge by index size problems", 2, merged.size());
+		assertEquals("merge by index name problems", "Lancashire", ((KVCAExtensionGraph)merged.get(0)).valueForKey("name"));
+		assertEquals("merge by index value problems", Integer.valueOf(5), ((KVCAExtensionGraph)merged.get(0)).valueForKey("y"));
+		assertNull("merge by index copy problems", point1.valueForKey("y"));
+		
+		KVCAExtensionGraph replace = graph.mutableCopy();
+		replace.merge(supp, KVCAExtensionGraph.ListMergeStrategy.REPLACE);
+		assertEquals("replace problems", 1, ((List<?>)replace.valueForKey("data")).size());
+	}
+	
+	@Test
+	public void testDeltaFrom(){
+		KVCAExtensionGraph template = new KVCAExtensionGraph();
+		template.takeValueForKeyPath(Boolean.FALSE, "credits.enabled");
+		template.takeValueForKeyPath("Cumbria", "title.text");
+		template.takeValueForKeyPath("12px", "title.style.fontSize");
+		template.freeze();
+		
+		KVCAExtensionGraph graph = template.mutableCopy();
+		KVCAExtensionGraph chart = new KVCAExtensionGraph();
+		chart.takeValueForKeyPath("Durham", "title.text");
+		chart.takeValueForKeyPath("line", "chart.type");
+		graph.apply(chart);
+		
+		KVCAExtensionGraph delta = graph.deltaFrom(template);
+		assertEquals("delta value problems", "Durham", delta.valueForKeyPath("title.text"));
+		assertEquals("delta addition problems", "line", delta.valueForKeyPath("chart.type"));
+		assertNull("delta nested graph problems", delta.valueForKeyPath("title.style"));
+		assertNull("delta shared graph problems", delta.valueForKey("credits"));
+		
+		KVCAExtensionGraph merged = template.mutableCopy();
+		merged.apply(delta);
+		assertEquals("delta round trip problems", graph.fingerprint(), merged.fingerprint());
+	}
+	
+	@Test
+	public void testDecimalFingerprints(){
+		assertFalse("decimal fingerprint problems", KVCAExtensionGraph.fingerprintForValue(new BigDecimal("1.2")) == KVCAExtensionGraph.fingerprintForValue(new BigDecimal("1.5")));
+		assertFalse("decimal scale problems", KVCAExtensionGraph.fingerprintForValue(new BigDecimal("1.2")) == KVCAExtensionGraph.fingerprintForValue(new BigDecimal("1.20")));
+		assertEquals("decimal equality problems", KVCAExtensionGraph.fingerprintForValue(new BigDecimal("1.2")), KVCAExtensionGraph.fingerprintForValue(new BigDecimal("1.2")));
+	}
+	
+	@Test
+	public void testIsEquivalentTo(){
+		KVCAExtensionGraph graph = new KVCAExtensionGraph();
+		graph.takeValueForKeyPath(new BigDecimal("1.2"), "yAxis.max");
+		graph.takeValueForKeyPath(new NSArray<Object>(new Object[]{"Essex", Integer.valueOf(3)}), "xAxis.categories");
+		
+		KVCAExtensionGraph copy = graph.mutableCopy().freeze();
+		assertTrue("equivalence problems", graph.isEquivalentTo(copy));
+		
+		graph.takeValueForKeyPath(new BigDecimal("1.5"), "yAxis.max");
+		assertFalse("difference problems", graph.isEquivalentTo(copy));
+	}
 	
 }
@@ -0,0 +1,61 @@
+package er.highcharts.test.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import er.highcharts.model.KVCAExtensionGraph;
+import er.highcharts.model.KVCAKeyPath;
+
+public class KVCAKeyPathTest {
+
+	@Test
+	public void testKeyPathParsing(){
+		KVCAKeyPath keyPath = KVCAKeyPath.keyPath("xAxis.title.text");
+		assertEquals("key count problems", 3, keyPath.length());
+		assertEquals("key problems", "xAxis", keyPath.keyAtIndex(0));
+		assertEquals("key problems", "text", keyPath.lastKey());
+		assertEquals("remainder problems", "title.text", keyPath.pathFromIndex(1));
+		assertEquals("path problems", "xAxis.title.text", keyPath.toString());
+	}
+	
+	@Test
+	public void testKeyPathCaching(){
+		KVCAKeyPath keyPath1 = KVCAKeyPath.keyPath("plotOptions.series.animation");
+		KVCAKeyPath keyPath2 = KVCAKeyPath.keyPath(new String("plotOptions.series.animation"));
+		assertSame("cache problems", keyPath1, keyPath2);
+		assertNull("null path problems", KVCAKeyPath.keyPath(null));
+	}
+	
+	@Test
+	public void testGraphWithKeyPath(){
+		KVCAExtensionGraph graph = new KVCAExtensionGraph();
+		KVCAKeyPath keyPath = KVCAKeyPath.keyPath("testkey.path.to.object");
+		graph.takeValueForKeyPath("Cornwall", keyPath);
+		assertEquals("key path object problems", "Cornwall", graph.valueForKeyPath(keyPath));
+		assertEquals("string key path problems", "Cornwall", graph.valueForKeyPath("testkey.path.to.object"));
+		assertNull("missing path problems", graph.valueForKeyPath(KVCAKeyPath.keyPath("testkey.path.missing.object")));
+	}
+	
+	public static class County {
+		public String name(){ return "Norfolk"; }
+		public County getNeighbour(){ return new County(); }
+		public int population = 900000;
+	}
+	
+	@Test
+	public void testValueForObject(){
+		County county = new County();
+		assertEquals("method accessor problems", "Norfolk", KVCAKeyPath.keyPath("name").valueForObject(county));
+		assertEquals("get method accessor problems", "Norfolk", KVCAKeyPath.keyPath("neighbour.name").valueForObject(county));
+		assertEquals("field accessor problems", Integer.valueOf(900000), KVCAKeyPath.keyPath("neighbour.population").valueForObject(county));
+		assertNull("null object problems", KVCAKeyPath.keyPath("name").valueForObject(null));
+		
+		KVCAExtensionGraph graph = new KVCAExtensionGraph();
+		graph.takeValueForKeyPath(county, "a.county");
+		assertSame("graph problems", county, KVCAKeyPath.keyPath("a.county").valueForObject(graph));
+	}
+	
+}
@@ -0,0 +1,223 @@
+/**
+ * ERHighcharts client support.
+ *
+ * ERHighcharts.refresh polls the page of a chart for its rebuilt series, with an Ajax
+ * request, and applies them to the chart on the page without re-rendering it.
+ *
+ * ERHighcharts.live long-polls the ERHighchartsLiveRequestHandler for the points added to
+ * the live series of a chart, and appends them to the chart.
+ *
+ * ERHighcharts.lazy fetches the options of a chart once its container scrolls into view.
+ *
+ * ERHighcharts.templates holds the chart option templates of the ERHighchartsTemplateRegistry,
+ * which charts built over a template are merged with.
+ */
+var ERHighcharts = {
+
+	/**
+	 * Fetches the series of the chart from the url every number of seconds. The refreshes
+	 * stop when the chart is no longer on the page, or the server no longer answers with
+	 * its series, as when the page has expired.
+	 */
+	refresh: function(chart, url, seconds) {
+		var fetching = false;
+		new PeriodicalExecuter(function(executer) {
+			if (!chart.container || !$(chart.options.chart.renderTo)) {
+				executer.stop();
+				return;
+			}
+			if (fetching) {
+				return;
+			}
+			fetching = true;
+			new Ajax.Request(url, {
+				method: 'get',
+				onSuccess: function(transport) {
+					var type = transport.getHeader('Content-Type');
+					if (!type || type.indexOf('json') < 0) {
+						executer.stop();
+						return;
+					}
+					ERHighcharts.setSeries(chart, eval('(' + transport.responseText + ')'));
+				},
+				on404: function() {
+					executer.stop();
+				},
+				onComplete: function() {
+					fetching = false;
+				}
+			});
+		}, seconds);
+	},
+
+	/**
+	 * Replaces the data of each series of the chart, adding or removing series to match,
+	 * then redraws the chart once.
+	 */
+	setSeries: function(chart, series) {
+		if (!series) {
+			return;
+		}
+		for (var i = 0; i < series.length; i++) {
+			if (i < chart.series.length) {
+				chart.series[i].setData(series[i].data, false);
+			} else {
+				chart.addSeries(series[i], false);
+			}
+		}
+		while (chart.series.length > series.length) {
+			chart.series[chart.series.length - 1].remove(false);
+		}
+		chart.redraw();
+	},
+
+	/**
+	 * Follows the named live series, appending new points to the series of the chart
+	 * in the same order. sequences are the sequence numbers of the last points shown.
+	 */
+	live: function(chart, url, names, sequences) {
+		var poll = function() {
+			if (!chart.container || !$(chart.options.chart.renderTo)) {
+				return;
+			}
+			var params = [];
+			for (var i = 0; i < names.length; i++) {
+				params.push('series=' + encodeURIComponent(names[i]) + '&since=' + sequences[i]);
+			}
+			new Ajax.Request(url + (url.indexOf('?') < 0 ? '?' : '&') + params.join('&'), {
+				method: 'get',
+				onSuccess: function(transport) {
+					if (!transport.responseText) {
+						//the request was aborted or the server went away
+						setTimeout(poll, ERHighcharts.liveRetryDelay);
+						return;
+					}
+					ERHighcharts.addPoints(chart, eval('(' + transport.responseText + ')'), sequences);
+					poll();
+				},
+				on404: function() {
+					//the series are no longer published
+				},
+				onFailure: function() {
+					setTimeout(poll, ERHighcharts.liveRetryDelay);
+				}
+			});
+		};
+		poll();
+	},
+
+	/**
+	 * The number of milliseconds to wait before following live series again after an error
+	 */
+	liveRetryDelay: 5000,
+
+	/**
+	 * Appends the points of each update to the series of the chart, shifting out the
+	 * oldest points once a series holds as many points as the live series, then redraws
+	 * the chart once.
+	 */
+	addPoints: function(chart, updates, sequences) {
+		for (var i = 0; i < updates.length && i < chart.series.length; i++) {
+			var series = chart.series[i];
+			var data = updates[i].data;
+			for (var j = 0; j < data.length; j++) {
+				series.addPoint(data[j], false, series.data.length >= updates[i].capacity);
+			}
+			sequences[i] = updates[i].sequence;
+		}
+		chart.redraw();
+	},
+
+	/**
+	 * Fetches the options of the chart from the url once the container is in view, or within
+	 * lazyMargin pixels of it, then calls init with the options and the live sequences.
+	 */
+	lazy: function(container, url, init) {
+		container = $(container);
+		var load = function() {
+			new Ajax.Request(url, {
+				method: 'get',
+				onSuccess: function(transport) {
+					var response = eval('(' + transport.responseText + ')');
+					init(response.chart, response.liveSequences);
+				}
+			});
+		};
+		if (ERHighcharts.isInView(container)) {
+			load();
+			return;
+		}
+		var check = function() {
+			if (ERHighcharts.isInView(container)) {
+				Event.stopObserving(window, 'scroll', check);
+				Event.stopObserving(window, 'resize', check);
+				load();
+			}
+		};
+		Event.observe(window, 'scroll', check);
+		Event.observe(window, 'resize', check);
+	},
+
+	/**
+	 * The chart option templates, by name
+	 */
+	templates: {},
+
+	/**
+	 * A deep copy of the template with the options merged over it, the way the server
+	 * applies graphs: objects are merged, arrays and other values are replaced.
+	 */
+	merge: function(template, options) {
+		var merged = {};
+		var key;
+		for (key in template) {
+			if (template.hasOwnProperty(key)) {
+				merged[key] = ERHighcharts.copy(template[key]);
+			}
+		}
+		for (key in options) {
+			if (options.hasOwnProperty(key)) {
+				merged[key] = ERHighcharts.isObject(merged[key]) && ERHighcharts.isObject(options[key])
+					? ERHighcharts.merge(merged[key], options[key]) : options[key];
+			}
+		}
+		return merged;
+	},
+
+	/**
+	 * A deep copy of the objects and arrays of the value, so charts never share the
+	 * options of a template, which Highcharts may change.
+	 */
+	copy: function(value) {
+		if (Object.isArray(value)) {
+			var copy = [];
+			for (var i = 0; i < value.length; i++) {
+				copy.push(ERHighcharts.copy(value[i]));
+			}
+			return copy;
+		}
+		return ERHighcharts.isObject(value) ? ERHighcharts.merge(value, {}) : value;
+	},
+
+	/**
+	 * Whether the value is an object of options, rather than an array, function or plain value.
+	 */
+	isObject: function(value) {
+		return value !== null && typeof value === 'object' && !Object.isArray(value);
+	},
+
+	/**
+	 * The number of pixels outside the window within which a lazy chart is loaded,
+	 * so it is usually ready by the time it is scrolled to
+	 */
+	lazyMargin: 200,
+
+	/**
+	 * Whether the element is in the window, or within lazyMargin pixels of it.
+	 */
+	isInView: function(element) {
+		var top = element.viewportOffset().top;
+		return top < document.viewport.getHeight() + ERHighcharts.lazyMargin
+			&& top + element.getHeight() > -ERHighcharts.lazyMargin;
+	}
+};